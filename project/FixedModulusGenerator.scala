@@ -0,0 +1,23 @@
+import sbt._
+
+/**
+ * Generates the fixed-size Modulus implementations (Modulus1024, ...,
+ * Modulus4096) from src/main/template/FixedModulus.java.template.
+ */
+object FixedModulusGenerator {
+  /** Sizes (in bits) of the moduli for which kernels are generated. */
+  val Sizes = Seq(1024, 2048, 3072, 4096)
+
+  def apply(template: File, outputDirectory: File): Seq[File] = {
+    val source = IO.read(template)
+    Sizes.map { bits =>
+      val className = "Modulus" + bits
+      val file = outputDirectory / (className + ".java")
+      IO.write(file, source
+        .replace("@CLASS@", className)
+        .replace("@BITS@", bits.toString)
+        .replace("@LIMBS@", (bits / 32).toString))
+      file
+    }
+  }
+}
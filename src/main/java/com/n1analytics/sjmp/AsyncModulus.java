@@ -0,0 +1,363 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * An asynchronous facade over a {@link Modulus}: each operation runs on an
+ * {@link Executor} and returns a {@link CompletableFuture} of its result, so
+ * that callers can compose modular arithmetic with other asynchronous work
+ * instead of blocking on it.
+ *
+ * The executor bounds the parallelism of the arithmetic. By default it is a
+ * shared pool with one daemon thread per available processor (see
+ * {@link #newPool}), so that callers on many threads, however they are
+ * scheduled, never run more CPU-bound operations at once than there are
+ * processors.
+ *
+ * The operands are validated and copied when an operation is submitted, so
+ * the caller may reuse its arrays straight away. Each thread of the executor
+ * works on its own {@link Modulus#fork}, so an {@code AsyncModulus} is
+ * thread-safe.
+ */
+public final class AsyncModulus {
+
+  /**
+   * The default pool, created when it is first used.
+   */
+  private static final class DefaultPool {
+    static final ExecutorService POOL =
+      newPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * The modulus. Only forked, never used directly for arithmetic.
+   */
+  private final Modulus modulus;
+
+  /**
+   * The value of the modulus, with {@code modulus.length()} limbs.
+   */
+  private final int[] value;
+
+  private final Executor executor;
+
+  /**
+   * The fork of {@link #modulus} used by each thread of the executor.
+   */
+  private final ThreadLocal<Modulus> forks;
+
+  /**
+   * Construct an {@code AsyncModulus} that runs its operations on
+   * {@code executor}.
+   * @param modulus The modulus. It is only forked, so the caller may
+   * continue to use it on its own thread.
+   * @param executor The executor that runs the operations.
+   * @throws NullPointerException If either argument is null.
+   */
+  public AsyncModulus(final Modulus modulus, final Executor executor)
+    throws NullPointerException
+  {
+    if(modulus == null)
+      throw new NullPointerException("modulus must not be null");
+    if(executor == null)
+      throw new NullPointerException("executor must not be null");
+    this.modulus = modulus;
+    this.value = Convert.fromBigInteger(
+      modulus.toBigInteger(),
+      new int[modulus.length()]);
+    this.executor = executor;
+    this.forks = new ThreadLocal<Modulus>() {
+      @Override
+      protected Modulus initialValue() {
+        return modulus.fork();
+      }
+    };
+  }
+
+  /**
+   * Construct an {@code AsyncModulus} that runs its operations on the shared
+   * default pool.
+   * @param modulus The modulus. It is only forked.
+   * @throws NullPointerException If {@code modulus == null}.
+   */
+  public AsyncModulus(final Modulus modulus) throws NullPointerException {
+    this(modulus, DefaultPool.POOL);
+  }
+
+  /**
+   * Create a pool of {@code parallelism} daemon threads for CPU-bound
+   * arithmetic. Work submitted while every thread is busy waits in an
+   * unbounded queue.
+   * @param parallelism The number of threads.
+   * @throws IllegalArgumentException If {@code parallelism <= 0}.
+   */
+  public static ExecutorService newPool(final int parallelism)
+    throws IllegalArgumentException
+  {
+    if(parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be strictly positive");
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(
+      parallelism,
+      parallelism,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread =
+            new Thread(runnable, "sjmp-async-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
+
+  /**
+   * @return The modulus this facade was constructed with.
+   */
+  public Modulus modulus() {
+    return modulus;
+  }
+
+  /**
+   * Calculate {@code base^exponent mod m} asynchronously. Takes time that
+   * depends only on the lengths of the modulus and the exponent.
+   * @param base A value less than the modulus, with the modulus' length.
+   * @param exponent A little-endian exponent of at least one limb.
+   * @return A future of the power, with the modulus' length.
+   * @throws IllegalArgumentException If {@code base} has the wrong length or
+   * is not less than the modulus, or {@code exponent} is empty.
+   * @throws NullPointerException If either argument is null.
+   */
+  public CompletableFuture<int[]> powModAsync(
+    final int[] base,
+    final int[] exponent)
+    throws IllegalArgumentException, NullPointerException
+  {
+    final int[] b = checkValue(value, base, "base");
+    final int[] e = checkExponent(exponent);
+    return CompletableFuture.supplyAsync(
+      new Supplier<int[]>() {
+        @Override
+        public int[] get() {
+          final int[] result = new int[value.length];
+          forks.get().powMod(b, e, result);
+          return result;
+        }
+      },
+      executor);
+  }
+
+  /**
+   * Calculate {@code multiplicand * multiplier mod m} asynchronously.
+   * @param multiplicand A value less than the modulus, with the modulus'
+   * length.
+   * @param multiplier A value less than the modulus, with the modulus' length.
+   * @return A future of the product, with the modulus' length.
+   * @throws IllegalArgumentException If an operand has the wrong length or is
+   * not less than the modulus.
+   * @throws NullPointerException If either argument is null.
+   */
+  public CompletableFuture<int[]> multiplyModAsync(
+    final int[] multiplicand,
+    final int[] multiplier)
+    throws IllegalArgumentException, NullPointerException
+  {
+    final int[] a = checkValue(value, multiplicand, "multiplicand");
+    final int[] b = checkValue(value, multiplier, "multiplier");
+    return CompletableFuture.supplyAsync(
+      new Supplier<int[]>() {
+        @Override
+        public int[] get() {
+          final int[] result = new int[value.length];
+          forks.get().multiplyMod(a, b, result);
+          return result;
+        }
+      },
+      executor);
+  }
+
+  /**
+   * Calculate {@code bases[i]^exponent mod m} for every {@code i}
+   * asynchronously, as one task per chunk of {@code chunkSize} bases.
+   * @param bases Values less than the modulus, each with the modulus'
+   * length.
+   * @param exponent A little-endian exponent of at least one limb.
+   * @param chunkSize The number of powers calculated by each task.
+   * @return A future of the powers, in the order of {@code bases}.
+   * @throws IllegalArgumentException If a base is invalid (see
+   * {@link #powModAsync}), {@code exponent} is empty or
+   * {@code chunkSize <= 0}.
+   * @throws NullPointerException If any argument or base is null.
+   */
+  public CompletableFuture<int[][]> powModBatchAsync(
+    final int[][] bases,
+    final int[] exponent,
+    final int chunkSize)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(bases == null)
+      throw new NullPointerException("bases must not be null");
+    final int[][] b = new int[bases.length][];
+    for(int i = 0; i < bases.length; ++i)
+      b[i] = checkValue(value, bases[i], "base");
+    final int[] e = checkExponent(exponent);
+    return batch(b.length, chunkSize, new Function<Integer, int[]>() {
+      @Override
+      public int[] apply(final Integer i) {
+        final int[] result = new int[value.length];
+        forks.get().powMod(b[i], e, result);
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Calculate {@code multiplicands[i] * multipliers[i] mod m} for every
+   * {@code i} asynchronously, as one task per chunk of {@code chunkSize}
+   * products.
+   * @param multiplicands Values less than the modulus, each with the
+   * modulus' length.
+   * @param multipliers Values less than the modulus, each with the modulus'
+   * length. As many as {@code multiplicands}.
+   * @param chunkSize The number of products calculated by each task.
+   * @return A future of the products, in order.
+   * @throws IllegalArgumentException If an operand is invalid (see
+   * {@link #multiplyModAsync}), the arrays have different lengths or
+   * {@code chunkSize <= 0}.
+   * @throws NullPointerException If any argument or operand is null.
+   */
+  public CompletableFuture<int[][]> multiplyModBatchAsync(
+    final int[][] multiplicands,
+    final int[][] multipliers,
+    final int chunkSize)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(multiplicands == null)
+      throw new NullPointerException("multiplicands must not be null");
+    if(multipliers == null)
+      throw new NullPointerException("multipliers must not be null");
+    if(multiplicands.length != multipliers.length)
+      throw new IllegalArgumentException(
+        "multiplicands and multipliers must have the same length");
+    final int[][] a = new int[multiplicands.length][];
+    final int[][] b = new int[multipliers.length][];
+    for(int i = 0; i < a.length; ++i) {
+      a[i] = checkValue(value, multiplicands[i], "multiplicand");
+      b[i] = checkValue(value, multipliers[i], "multiplier");
+    }
+    return batch(a.length, chunkSize, new Function<Integer, int[]>() {
+      @Override
+      public int[] apply(final Integer i) {
+        final int[] result = new int[value.length];
+        forks.get().multiplyMod(a[i], b[i], result);
+        return result;
+      }
+    });
+  }
+
+  /**
+   * Run {@code operation} on each index in [0, count) as one task per chunk,
+   * and complete the returned future with all of the results when the last
+   * chunk is done, or exceptionally when any chunk fails.
+   */
+  private CompletableFuture<int[][]> batch(
+    final int count,
+    final int chunkSize,
+    final Function<Integer, int[]> operation)
+  {
+    if(chunkSize <= 0)
+      throw new IllegalArgumentException("chunkSize must be strictly positive");
+    final int[][] results = new int[count][];
+    final List<CompletableFuture<Void>> chunks =
+      new ArrayList<CompletableFuture<Void>>();
+    for(int offset = 0; offset < count; offset += chunkSize) {
+      final int start = offset;
+      final int end = Math.min(count, offset + chunkSize);
+      chunks.add(CompletableFuture.runAsync(
+        new Runnable() {
+          @Override
+          public void run() {
+            for(int i = start; i < end; ++i)
+              results[i] = operation.apply(i);
+          }
+        },
+        executor));
+    }
+    return CompletableFuture
+      .allOf(chunks.toArray(new CompletableFuture<?>[chunks.size()]))
+      .thenApply(new Function<Void, int[][]>() {
+        @Override
+        public int[][] apply(final Void ignored) {
+          return results;
+        }
+      });
+  }
+
+  /**
+   * @return A copy of {@code operand} after checking that it has the length
+   * of {@code modulus} and is less than it. The comparison is constant-time.
+   */
+  static int[] checkValue(
+    final int[] modulus,
+    final int[] operand,
+    final String name)
+  {
+    if(operand == null)
+      throw new NullPointerException(name + " must not be null");
+    if(operand.length != modulus.length)
+      throw new IllegalArgumentException(
+        name + " must have the length of the modulus");
+    long borrow = 0L;
+    for(int i = 0; i < modulus.length; ++i)
+      borrow = ((operand[i] & MASK32) - (modulus[i] & MASK32) + borrow) >> 32;
+    if(borrow == 0L)
+      throw new IllegalArgumentException(
+        name + " must be less than the modulus");
+    return operand.clone();
+  }
+
+  /**
+   * @return A copy of {@code exponent} after checking that it is not empty.
+   */
+  static int[] checkExponent(final int[] exponent) {
+    if(exponent == null)
+      throw new NullPointerException("exponent must not be null");
+    if(exponent.length == 0)
+      throw new IllegalArgumentException("exponent must not be empty");
+    return exponent.clone();
+  }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * Barrett reduction of double-length values modulo a fixed modulus of any
+ * parity (Algorithm 14.42 of the Handbook of Applied Cryptography).
+ *
+ * For a k-limb modulus m and x < 2^(64k), with mu = floor((2^(64k) - 1) / m):
+ * <pre>
+ *   q = floor(floor(x / 2^(32(k-1))) * mu / 2^(32(k+1)))
+ *   r = (x - q * m) mod 2^(32(k+1))
+ * </pre>
+ * Then r &lt; 5m. The product for q only includes the partial products that
+ * can affect its value, which can underestimate q by one more than the
+ * untruncated product, and mu is rounded down rather than up, which can only
+ * matter when m is a power of two. The algorithm's own error is at most two,
+ * so r is reduced by four masked subtractions of m.
+ *
+ * The reduction takes constant-time with respect to the length of the
+ * modulus. Like {@link Modulus}, a {@code Barrett} object is not thread-safe
+ * since it uses its own workspace; use {@link #fork} for another thread.
+ */
+final class Barrett implements Cloneable {
+
+  /**
+   * The modulus. Has no leading zero limbs.
+   */
+  private final int[] modulus;
+
+  /**
+   * floor((2^(64k) - 1) / m), which has at most k + 1 limbs.
+   */
+  private final int[] mu;
+
+  /**
+   * Holds the double-length value being reduced. Has length 2k.
+   */
+  private int[] product;
+
+  /**
+   * Holds the truncated product used to estimate the quotient. Has length
+   * 2k + 2.
+   */
+  private int[] estimate;
+
+  /**
+   * Holds the quotient estimate and then the remainder. Each has length
+   * k + 1.
+   */
+  private int[] quotient;
+  private int[] remainder;
+
+  Barrett(final int[] modulus) {
+    assert modulus != null;
+    assert modulus.length > 0;
+    assert modulus[modulus.length-1] != 0;
+
+    final int k = modulus.length;
+    this.modulus = modulus;
+
+    final int[] dividend = new int[2 * k];
+    for(int i = 0; i < dividend.length; ++i)
+      dividend[i] = -1;
+    final int[] q = new int[k + 1];
+    Operations.divRem(dividend, modulus, q, null);
+    mu = q;
+
+    product = new int[2 * k];
+    estimate = new int[2 * k + 2];
+    quotient = new int[k + 1];
+    remainder = new int[k + 1];
+  }
+
+  /**
+   * Return a copy of this object that shares the modulus and mu but has its
+   * own workspace.
+   */
+  Barrett fork() {
+    final Barrett copy;
+    try {
+      copy = (Barrett)super.clone();
+    } catch(CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+    copy.product = new int[product.length];
+    copy.estimate = new int[estimate.length];
+    copy.quotient = new int[quotient.length];
+    copy.remainder = new int[remainder.length];
+    return copy;
+  }
+
+  /**
+   * Set {@code result = multiplicand * multiplier mod m}. All arrays have the
+   * length of the modulus and the operands must be less than the modulus.
+   * {@code result} may be the same array as either operand.
+   */
+  void multiplyMod(
+    final int[] multiplicand,
+    final int[] multiplier,
+    final int[] result)
+  {
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    Operations.multiply(multiplicand, multiplier, product);
+    reduce(result);
+  }
+
+  /**
+   * Set {@code result = value^2 mod m}. Both arrays have the length of the
+   * modulus and {@code value} must be less than the modulus. {@code result}
+   * may be the same array as {@code value}.
+   */
+  void squareMod(final int[] value, final int[] result) {
+    assert value.length == modulus.length;
+    Operations.square(value, product);
+    reduce(result);
+  }
+
+  /**
+   * Reduce {@code product} modulo m into {@code result}.
+   */
+  private void reduce(final int[] result) {
+    assert result.length == modulus.length;
+    final int k = modulus.length;
+    final int[] x = product;
+    final int[] q = quotient;
+    final int[] r = remainder;
+    final int[] t = estimate;
+
+    // q = floor(x / 2^(32(k-1)))
+    for(int i = 0; i <= k; ++i)
+      q[i] = x[i + k - 1];
+
+    // q = floor(q * mu / 2^(32(k+1))), only summing the partial products
+    // which contribute to limbs k - 1 and above
+    for(int i = 0; i < t.length; ++i)
+      t[i] = 0;
+    for(int i = 0; i <= k; ++i) {
+      final long qi = q[i] & MASK32;
+      long overflow = 0L;
+      for(int j = Math.max(0, k - 1 - i); j <= k; ++j) {
+        overflow += (t[i + j] & MASK32) + qi * (mu[j] & MASK32);
+        t[i + j] = (int)overflow;
+        overflow >>>= 32;
+      }
+      t[i + k + 1] = (int)overflow;
+    }
+    for(int i = 0; i <= k; ++i)
+      q[i] = t[i + k + 1];
+
+    // r = (x - q * m) mod 2^(32(k+1)), only summing the partial products
+    // which contribute to the low k + 1 limbs
+    for(int i = 0; i <= k; ++i)
+      r[i] = 0;
+    for(int i = 0; i <= k; ++i) {
+      final long qi = q[i] & MASK32;
+      long overflow = 0L;
+      for(int j = 0; j < k - i; ++j) {
+        overflow += (r[i + j] & MASK32) + qi * (modulus[j] & MASK32);
+        r[i + j] = (int)overflow;
+        overflow >>>= 32;
+      }
+      if(i > 0)
+        r[k] += (int)overflow + q[i] * modulus[k - i];
+      else
+        r[k] += (int)overflow;
+    }
+    long borrow = 0L;
+    for(int i = 0; i <= k; ++i) {
+      borrow += (x[i] & MASK32) - (r[i] & MASK32);
+      r[i] = (int)borrow;
+      borrow >>= 32;
+    }
+
+    // r < 5m, so subtract m four times unless that would make r negative
+    for(int s = 0; s < 4; ++s) {
+      borrow = 0L;
+      for(int i = 0; i < k; ++i) {
+        borrow += (r[i] & MASK32) - (modulus[i] & MASK32);
+        r[i] = (int)borrow;
+        borrow >>= 32;
+      }
+      borrow += r[k] & MASK32;
+      r[k] = (int)borrow;
+      borrow >>= 32;
+      r[k] += Operations.maskedAdd(k, r, 0, modulus, 0, (int)borrow);
+    }
+
+    for(int i = 0; i < k; ++i)
+      result[i] = r[i];
+  }
+}
@@ -19,11 +19,43 @@ License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
 package com.n1analytics.sjmp;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import static com.n1analytics.sjmp.Constants.MASK32;
 
 // TODO return overflows should be ints?
 public class Convert {  
+  
+  /**
+   * The largest power of ten that fits in a limb, and its number of digits.
+   */
+  private static final int DECIMAL_BASE = 1000000000;
+  private static final int DECIMAL_DIGITS = 9;
+  
+  /**
+   * {@link #DECIMAL_BASE} shifted so that its top bit is set, and its
+   * reciprocal for {@link Operations#divide}.
+   */
+  private static final int DECIMAL_SHIFT = 2;
+  private static final int DECIMAL_DIVISOR = DECIMAL_BASE << DECIMAL_SHIFT;
+  private static final int DECIMAL_INVERSE = Operations.invert(DECIMAL_DIVISOR);
+  
+  /**
+   * Numbers of at most this many limbs are formatted by repeated division by
+   * {@link #DECIMAL_BASE}, and strings of at most this many limbs' worth of
+   * digits are parsed by repeated multiplication. Larger ones are split in
+   * half by a power of ten.
+   */
+  private static final int DECIMAL_THRESHOLD = 16;
+  
+  /**
+   * {@code decimalPowers[k] == 10^(9 * 2^k)}, without leading zero limbs.
+   * Grown on demand; the arrays are never modified once published.
+   */
+  private static volatile int[][] decimalPowers = { { DECIMAL_BASE } };
+  
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  
   /**
    * Convert a BigInteger to a little-endian, base-16 string.
    * @param value
@@ -96,4 +128,293 @@ public class Convert {
       dest[i] = src[i];
     return dest;
   }
+  
+  /**
+   * Return 10^(9 * 2^level), calculating it if necessary.
+   */
+  private static int[] decimalPower(final int level) {
+    int[][] powers = decimalPowers;
+    if(level < powers.length)
+      return powers[level];
+    synchronized(Convert.class) {
+      powers = decimalPowers;
+      if(level >= powers.length) {
+        final int[][] grown = Arrays.copyOf(powers, level + 1);
+        for(int k = powers.length; k <= level; ++k) {
+          final int[] p = grown[k-1];
+          final int[] square = new int[2 * p.length];
+          Operations.square(p, square);
+          grown[k] = Arrays.copyOf(square, significantLength(square, square.length));
+        }
+        decimalPowers = powers = grown;
+      }
+    }
+    return powers[level];
+  }
+  
+  /**
+   * @return The length of {@code value[0, length)} without leading zero limbs.
+   */
+  private static int significantLength(final int[] value, int length) {
+    while(length > 0 && value[length-1] == 0)
+      --length;
+    return length;
+  }
+  
+  /**
+   * Format a little-endian number in decimal, the same as
+   * {@code BigInteger.toString()}.
+   * 
+   * Large numbers are split in half by dividing by 10^(9 * 2^k) with
+   * {@link Operations#divRem}, down to numbers of a few limbs which are
+   * divided by 10^9 one limb at a time with {@link Operations#divide}. This
+   * method does not take constant-time.
+   * 
+   * @param value The number to format. Not modified.
+   * @return The decimal digits of {@code value} without leading zeros.
+   */
+  public static String toDecimalString(final int[] value) {
+    assert value != null;
+    return toDecimalString(value, value.length);
+  }
+  
+  /**
+   * {@link #toDecimalString(int[])} of {@code value[0, length)}.
+   */
+  static String toDecimalString(final int[] value, final int length) {
+    final int n = significantLength(value, length);
+    if(n == 0)
+      return "0";
+    
+    // Write exactly 9 * 2^(level+1) digits, which is enough for 32n bits since
+    // log10(2) < 1234 / 4096, and then drop the leading zeros
+    final long digits = ((32L * n * 1234L) >>> 12) + 1;
+    int level = -1;
+    while((DECIMAL_DIGITS << (level + 1)) < digits)
+      ++level;
+    final char[] out = new char[DECIMAL_DIGITS << (level + 1)];
+    writeDecimal(Arrays.copyOf(value, n), n, level, out, out.length);
+    int start = 0;
+    while(start < out.length - 1 && out[start] == '0')
+      ++start;
+    return new String(out, start, out.length - start);
+  }
+  
+  /**
+   * Write {@code x[0, length) < 10^(9 * 2^(level+1))} as exactly
+   * {@code 9 * 2^(level+1)} decimal digits, the last of which is at
+   * {@code out[end-1]}. {@code x} is used as workspace.
+   */
+  private static void writeDecimal(
+    final int[] x,
+    int length,
+    final int level,
+    final char[] out,
+    final int end)
+  {
+    length = significantLength(x, length);
+    final int width = DECIMAL_DIGITS << (level + 1);
+    if(level < 0 || length <= DECIMAL_THRESHOLD) {
+      for(int i = end; i > end - width; ) {
+        int r = divideByDecimalBase(x, length);
+        length = significantLength(x, length);
+        for(int j = 0; j < DECIMAL_DIGITS; ++j, r /= 10)
+          out[--i] = (char)('0' + r % 10);
+      }
+      return;
+    }
+    
+    // x = q * 10^(width/2) + r, where both halves have width/2 digits
+    final int half = width / 2;
+    final int[] p = decimalPower(level);
+    if(length < p.length) {
+      Arrays.fill(out, end - width, end - half, '0');
+      writeDecimal(x, length, level - 1, out, end);
+      return;
+    }
+    final int[] q = new int[length - p.length + 1];
+    final int[] r = new int[p.length];
+    Operations.divRem(
+      length == x.length ? x : Arrays.copyOf(x, length),
+      p,
+      q,
+      r);
+    writeDecimal(q, q.length, level - 1, out, end - half);
+    writeDecimal(r, r.length, level - 1, out, end);
+  }
+  
+  /**
+   * Divide {@code x[0, length)} by 10^9 in place and return the remainder.
+   */
+  private static int divideByDecimalBase(final int[] x, final int length) {
+    // (r * 2^32 + x[i]) / 10^9 has the same quotient as
+    // ((r * 2^32 + x[i]) << 2) / (10^9 << 2), whose top limb is less than the
+    // normalised divisor since r < 10^9
+    long r = 0L;
+    for(int i = length - 1; i >= 0; --i) {
+      final int limb = x[i];
+      final long qr = Operations.divide(
+        (int)(r << DECIMAL_SHIFT) | (limb >>> (32 - DECIMAL_SHIFT)),
+        limb << DECIMAL_SHIFT,
+        DECIMAL_DIVISOR,
+        DECIMAL_INVERSE);
+      x[i] = (int)(qr >>> 32);
+      r = (qr & MASK32) >>> DECIMAL_SHIFT;
+    }
+    return (int)r;
+  }
+  
+  /**
+   * Parse a string of decimal digits into a little-endian number.
+   * 
+   * Long strings are split so that the low part has 9 * 2^k digits, and the
+   * parts are combined with one multiplication by 10^(9 * 2^k). This method
+   * does not take constant-time.
+   * 
+   * @param digits A non-empty string of the digits {@code 0} to {@code 9}.
+   * @return The number, with the minimal number of limbs (at least one).
+   * @throws NullPointerException If {@code digits == null}
+   * @throws NumberFormatException If {@code digits} is empty or contains a
+   * character other than a decimal digit.
+   */
+  public static int[] fromDecimalString(final String digits) throws
+    NullPointerException,
+    NumberFormatException
+  {
+    if(digits == null)
+      throw new NullPointerException("digits must not be null");
+    if(digits.isEmpty())
+      throw new NumberFormatException("digits must not be empty");
+    for(int i = 0; i < digits.length(); ++i) {
+      final char c = digits.charAt(i);
+      if(c < '0' || c > '9')
+        throw new NumberFormatException("invalid decimal digit: " + digits);
+    }
+    final int[] result = parseDecimal(digits, 0, digits.length());
+    return Arrays.copyOf(
+      result,
+      Math.max(1, significantLength(result, result.length)));
+  }
+  
+  /**
+   * Parse {@code digits[from, to)}, which are known to be decimal digits.
+   * The result may have leading zero limbs.
+   */
+  private static int[] parseDecimal(
+    final String digits,
+    final int from,
+    final int to)
+  {
+    final int length = to - from;
+    if(length <= DECIMAL_DIGITS * DECIMAL_THRESHOLD) {
+      // 10^length < 2^(3.33 * length), so this many limbs always suffice
+      final int[] result = new int[1 + (int)((length * 3402L) >>> 15)];
+      int n = 0;
+      for(int i = from, k = (length - 1) % DECIMAL_DIGITS + 1; i < to; ) {
+        int chunk = 0;
+        int multiplier = 1;
+        for(; k > 0; --k, ++i) {
+          chunk = 10 * chunk + (digits.charAt(i) - '0');
+          multiplier *= 10;
+        }
+        k = DECIMAL_DIGITS;
+        
+        // result = result * multiplier + chunk
+        long overflow = chunk & MASK32;
+        for(int j = 0; j < n; ++j) {
+          overflow += (multiplier & MASK32) * (result[j] & MASK32);
+          result[j] = (int)overflow;
+          overflow >>>= 32;
+        }
+        if(overflow != 0L)
+          result[n++] = (int)overflow;
+      }
+      return result;
+    }
+    
+    // Split off the low 9 * 2^level digits, leaving a non-empty high part
+    int level = 0;
+    while((DECIMAL_DIGITS << (level + 1)) < length)
+      ++level;
+    final int split = to - (DECIMAL_DIGITS << level);
+    final int[] high = parseDecimal(digits, from, split);
+    final int[] low = parseDecimal(digits, split, to);
+    final int[] p = decimalPower(level);
+    
+    // high * p + low < (high + 1) * p, so it fits in the product's length
+    final int hn = Math.max(1, significantLength(high, high.length));
+    final int[] result = new int[hn + p.length];
+    Operations.multiply(high, hn, p, p.length, result);
+    long overflow = 0L;
+    for(int i = 0; i < result.length; ++i) {
+      overflow += (result[i] & MASK32) + (i < low.length ? low[i] & MASK32 : 0L);
+      result[i] = (int)overflow;
+      overflow >>>= 32;
+    }
+    assert overflow == 0L;
+    return result;
+  }
+  
+  /**
+   * Format a little-endian number in hexadecimal, the same as
+   * {@code BigInteger.toString(16)}. Each limb is exactly eight digits, so no
+   * division is needed.
+   * 
+   * @param value The number to format. Not modified.
+   * @return The lower case hexadecimal digits of {@code value} without
+   * leading zeros.
+   */
+  public static String toHexString(final int[] value) {
+    assert value != null;
+    final int n = significantLength(value, value.length);
+    if(n == 0)
+      return "0";
+    final int top = value[n-1];
+    final int topDigits = (32 - Integer.numberOfLeadingZeros(top) + 3) / 4;
+    final char[] out = new char[topDigits + 8 * (n - 1)];
+    for(int i = 0, j = out.length; j > 0; ++i) {
+      int limb = value[i];
+      for(int k = 0; k < 8 && j > 0; ++k, limb >>>= 4)
+        out[--j] = HEX_DIGITS[limb & 0xF];
+    }
+    return new String(out);
+  }
+  
+  /**
+   * Parse a string of hexadecimal digits into a little-endian number.
+   * 
+   * @param digits A non-empty string of the digits {@code 0} to {@code 9},
+   * {@code a} to {@code f} and {@code A} to {@code F}.
+   * @return The number, with the minimal number of limbs (at least one).
+   * @throws NullPointerException If {@code digits == null}
+   * @throws NumberFormatException If {@code digits} is empty or contains a
+   * character other than a hexadecimal digit.
+   */
+  public static int[] fromHexString(final String digits) throws
+    NullPointerException,
+    NumberFormatException
+  {
+    if(digits == null)
+      throw new NullPointerException("digits must not be null");
+    final int length = digits.length();
+    if(length == 0)
+      throw new NumberFormatException("digits must not be empty");
+    final int[] result = new int[(length + 7) / 8];
+    for(int i = 0; i < length; ++i) {
+      final char c = digits.charAt(length - 1 - i);
+      final int digit;
+      if(c >= '0' && c <= '9')
+        digit = c - '0';
+      else if(c >= 'a' && c <= 'f')
+        digit = c - 'a' + 10;
+      else if(c >= 'A' && c <= 'F')
+        digit = c - 'A' + 10;
+      else
+        throw new NumberFormatException("invalid hexadecimal digit: " + digits);
+      result[i >>> 3] |= digit << (4 * (i & 7));
+    }
+    return Arrays.copyOf(
+      result,
+      Math.max(1, significantLength(result, result.length)));
+  }
 }
@@ -0,0 +1,623 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+
+/**
+ * A short Weierstrass curve y^2 = x^3 - 3x + b over a prime field, such as
+ * the NIST curves P-256 and P-384.
+ *
+ * A point is a little-endian int array of three times the length of the
+ * prime, holding the projective coordinates X, Y and Z (in that order) of the
+ * affine point (X/Z, Y/Z) in the Montgomery domain of the prime's
+ * {@link Modulus}. The point at infinity is (0 : 1 : 0).
+ *
+ * Addition and doubling use the complete formulas of Renes, Costello and
+ * Batina ("Complete addition formulas for prime order elliptic curves",
+ * Algorithms 4 and 6), which are correct for every pair of inputs including
+ * the point at infinity and equal points. Together with the masked table
+ * lookups of {@link Modulus#select} this makes {@link #multiply} and
+ * {@link #multiplyFixed} take time that depends only on the length of the
+ * scalar.
+ *
+ * Like {@link Modulus}, an {@code EllipticCurve} is not thread-safe since the
+ * field operations share its scratch space; use {@link #fork} for another
+ * thread.
+ */
+public final class EllipticCurve {
+
+  /**
+   * The number of bits of scalar per table lookup.
+   */
+  private static final int WINDOW_BITS = 4;
+  private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+
+  private static final BigInteger P256_PRIME = new BigInteger(
+    "ffffffff00000001000000000000000000000000ffffffffffffffffffffffff", 16);
+  private static final BigInteger P256_B = new BigInteger(
+    "5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b", 16);
+  private static final BigInteger P256_GX = new BigInteger(
+    "6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16);
+  private static final BigInteger P256_GY = new BigInteger(
+    "4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16);
+  private static final BigInteger P256_ORDER = new BigInteger(
+    "ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551", 16);
+
+  private static final BigInteger P384_PRIME = new BigInteger(
+    "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffe"
+    + "ffffffff0000000000000000ffffffff", 16);
+  private static final BigInteger P384_B = new BigInteger(
+    "b3312fa7e23ee7e4988e056be3f82d19181d9c6efe8141120314088f5013875a"
+    + "c656398d8a2ed19d2a85c8edd3ec2aef", 16);
+  private static final BigInteger P384_GX = new BigInteger(
+    "aa87ca22be8b05378eb1c71ef320ad746e1d3b628ba79b9859f741e082542a38"
+    + "5502f25dbf55296c3a545e3872760ab7", 16);
+  private static final BigInteger P384_GY = new BigInteger(
+    "3617de4a96262c6f5d9e98bf9292dc29f8f41dbd289a147ce9da3113b5f0b8c0"
+    + "0a60b1ce1d7e819d7a431d7c90ea0e5f", 16);
+  private static final BigInteger P384_ORDER = new BigInteger(
+    "ffffffffffffffffffffffffffffffffffffffffffffffffc7634d81f4372ddf"
+    + "581a0db248b0a77aecec196accc52973", 16);
+
+  /**
+   * The prime field. Owned by this object (a fork of any shared instance).
+   */
+  private final Modulus field;
+
+  /**
+   * The number of limbs of the prime.
+   */
+  private final int n;
+
+  /**
+   * The curve coefficient b and the value 1, in the Montgomery domain.
+   */
+  private final int[] b;
+  private final int[] one;
+
+  /**
+   * The generator as a point, and the order of the group it generates.
+   */
+  private final int[] generator;
+  private final BigInteger order;
+
+  // Scratch space for the coordinates of the operands, the result and the
+  // temporaries of the formulas, each with the length of the prime
+  private final int[] x1, y1, z1, x2, y2, z2, x3, y3, z3, t0, t1, t2, t3, t4;
+
+  // Scratch space for the scalar multiplications: the accumulator, the entry
+  // selected from a table, and the table of small multiples of the base point
+  private final int[] accumulator;
+  private final int[] entry;
+  private final int[] table;
+
+  private EllipticCurve(
+    final Modulus field,
+    final int[] b,
+    final int[] one,
+    final int[] generator,
+    final BigInteger order)
+  {
+    this.field = field;
+    this.n = field.length();
+    this.b = b;
+    this.one = one;
+    this.generator = generator;
+    this.order = order;
+    x1 = new int[n];
+    y1 = new int[n];
+    z1 = new int[n];
+    x2 = new int[n];
+    y2 = new int[n];
+    z2 = new int[n];
+    x3 = new int[n];
+    y3 = new int[n];
+    z3 = new int[n];
+    t0 = new int[n];
+    t1 = new int[n];
+    t2 = new int[n];
+    t3 = new int[n];
+    t4 = new int[n];
+    accumulator = new int[3 * n];
+    entry = new int[3 * n];
+    table = new int[WINDOW_SIZE * 3 * n];
+  }
+
+  /**
+   * Construct the curve y^2 = x^3 - 3x + b over the field of integers modulo
+   * {@code prime}. The primality of {@code prime} and {@code order} is not
+   * checked.
+   * @param prime The field prime. Must be odd and greater than three.
+   * @param b The coefficient b. Must be less than {@code prime}.
+   * @param gx The x-coordinate of the generator.
+   * @param gy The y-coordinate of the generator.
+   * @param order The order of the generator. Must be positive.
+   * @throws IllegalArgumentException If a parameter is out of range or the
+   * generator is not on the curve.
+   * @throws NullPointerException If any argument is null.
+   */
+  public static EllipticCurve valueOf(
+    final BigInteger prime,
+    final BigInteger b,
+    final BigInteger gx,
+    final BigInteger gy,
+    final BigInteger order)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(prime == null || b == null || gx == null || gy == null || order == null)
+      throw new NullPointerException("curve parameters must not be null");
+    if(!prime.testBit(0) || prime.compareTo(BigInteger.valueOf(3)) <= 0)
+      throw new IllegalArgumentException("prime must be odd and greater than 3");
+    if(b.signum() < 0 || b.compareTo(prime) >= 0)
+      throw new IllegalArgumentException("b must be less than the prime");
+    if(order.signum() <= 0)
+      throw new IllegalArgumentException("order must be positive");
+
+    final Modulus field = Modulus.valueOf(prime);
+    final int n = field.length();
+    final int[] bm = Convert.fromBigInteger(b, new int[n]);
+    field.montgomeryTransform(bm);
+    final int[] one = new int[n];
+    field.calculateMontgomeryIdentity(one);
+
+    final EllipticCurve curve =
+      new EllipticCurve(field, bm, one, new int[3 * n], order);
+    if(gx.signum() < 0 || gy.signum() < 0
+        || gx.compareTo(prime) >= 0 || gy.compareTo(prime) >= 0
+        || !curve.fromAffine(
+          Convert.fromBigInteger(gx, new int[n]),
+          Convert.fromBigInteger(gy, new int[n]),
+          curve.generator))
+      throw new IllegalArgumentException("generator must be on the curve");
+    return curve;
+  }
+
+  /**
+   * @return A new instance of the NIST curve P-256 (secp256r1).
+   */
+  public static EllipticCurve p256() {
+    return valueOf(P256_PRIME, P256_B, P256_GX, P256_GY, P256_ORDER);
+  }
+
+  /**
+   * @return A new instance of the NIST curve P-384 (secp384r1).
+   */
+  public static EllipticCurve p384() {
+    return valueOf(P384_PRIME, P384_B, P384_GX, P384_GY, P384_ORDER);
+  }
+
+  /**
+   * Return a copy of this curve that shares its parameters but has its own
+   * scratch space, so that it can be used concurrently with this object.
+   */
+  public EllipticCurve fork() {
+    return new EllipticCurve(field.fork(), b, one, generator, order);
+  }
+
+  /**
+   * @return The number of limbs of the field prime. Points have three times
+   * as many.
+   */
+  public int length() {
+    return n;
+  }
+
+  /**
+   * @return The field prime.
+   */
+  public BigInteger prime() {
+    return field.toBigInteger();
+  }
+
+  /**
+   * @return The order of the generator.
+   */
+  public BigInteger order() {
+    return order;
+  }
+
+  /**
+   * @return A copy of the generator.
+   */
+  public int[] generator() {
+    return generator.clone();
+  }
+
+  /**
+   * Set {@code result} to the point at infinity.
+   */
+  public void identity(final int[] result) {
+    assert result.length == 3 * n;
+    for(int i = 0; i < n; ++i) {
+      result[i] = 0;
+      result[n + i] = one[i];
+      result[2 * n + i] = 0;
+    }
+  }
+
+  /**
+   * Checks in constant-time whether {@code point} is the point at infinity.
+   */
+  public boolean isIdentity(final int[] point) {
+    assert point.length == 3 * n;
+    int bits = 0;
+    for(int i = 0; i < n; ++i)
+      bits |= point[2 * n + i];
+    return bits == 0;
+  }
+
+  /**
+   * Checks in constant-time whether two points are the same point of the
+   * curve, i.e. whether their projective coordinates are proportional.
+   */
+  public boolean isEqual(final int[] p, final int[] q) {
+    assert p.length == 3 * n;
+    assert q.length == 3 * n;
+    unpack(p, x1, y1, z1);
+    unpack(q, x2, y2, z2);
+    // X1 Z2 == X2 Z1 and Y1 Z2 == Y2 Z1
+    mulMod(x1, z2, t0);
+    mulMod(x2, z1, t1);
+    mulMod(y1, z2, t2);
+    mulMod(y2, z1, t3);
+    int bits = 0;
+    for(int i = 0; i < n; ++i)
+      bits |= (t0[i] ^ t1[i]) | (t2[i] ^ t3[i]);
+    return bits == 0;
+  }
+
+  /**
+   * Set {@code point} to the affine point (x, y).
+   * @param x A value less than the prime, with the prime's length.
+   * @param y A value less than the prime, with the prime's length.
+   * @param point Holds the point, or an unspecified value if (x, y) is not on
+   * the curve.
+   * @return Whether (x, y) is on the curve. Points which are not must never be
+   * used, since scalar multiples of them may reveal the scalar.
+   */
+  public boolean fromAffine(final int[] x, final int[] y, final int[] point) {
+    assert x.length == n;
+    assert y.length == n;
+    assert point.length == 3 * n;
+    if(!field.isLessThanModulus(x) || !field.isLessThanModulus(y))
+      return false;
+    System.arraycopy(x, 0, x1, 0, n);
+    System.arraycopy(y, 0, y1, 0, n);
+    field.montgomeryTransform(x1);
+    field.montgomeryTransform(y1);
+    pack(x1, y1, one, point);
+
+    // y^2 == x^3 - 3x + b
+    mulMod(y1, y1, t0);
+    mulMod(x1, x1, t1);
+    field.subMod(t1, one, t1);
+    field.subMod(t1, one, t1);
+    field.subMod(t1, one, t1);
+    mulMod(t1, x1, t1);
+    field.addMod(t1, b, t1);
+    int bits = 0;
+    for(int i = 0; i < n; ++i)
+      bits |= t0[i] ^ t1[i];
+    return bits == 0;
+  }
+
+  /**
+   * Set {@code x} and {@code y} to the affine coordinates of {@code point}.
+   * Takes constant-time with respect to the length of the prime.
+   * @param point A point of the curve. Not modified.
+   * @param x Holds the x-coordinate. Has the prime's length.
+   * @param y Holds the y-coordinate. Has the prime's length.
+   * @return False if {@code point} is the point at infinity, in which case
+   * {@code x} and {@code y} are unspecified.
+   */
+  public boolean toAffine(final int[] point, final int[] x, final int[] y) {
+    assert point.length == 3 * n;
+    assert x.length == n;
+    assert y.length == n;
+    unpack(point, x1, y1, z1);
+    // Z R is taken out of the Montgomery domain and inverted, and one
+    // Montgomery multiplication by Z^-1 then gives X/Z and Y/Z
+    for(int i = 0; i < n; ++i)
+      t0[i] = 0;
+    t0[0] = 1;
+    field.multiplyReduce(z1, t0);
+    final boolean finite = field.invertMod(z1, z1);
+    mulMod(x1, z1, x);
+    mulMod(y1, z1, y);
+    return finite;
+  }
+
+  /**
+   * Set {@code result = -point}. {@code result} may be the same array as
+   * {@code point}.
+   */
+  public void negate(final int[] point, final int[] result) {
+    assert point.length == 3 * n;
+    assert result.length == 3 * n;
+    System.arraycopy(point, 0, result, 0, n);
+    field.negMod(point, n, result, n);
+    System.arraycopy(point, 2 * n, result, 2 * n, n);
+  }
+
+  /**
+   * Set {@code result = p + q} (Algorithm 4 of Renes, Costello and Batina:
+   * 12 multiplications, 2 of them by b). Correct for all inputs, so it can
+   * also double a point or add the point at infinity.
+   * @param p A point. Not modified unless it is {@code result}.
+   * @param q A point. Not modified unless it is {@code result}.
+   * @param result Holds the sum. May be the same array as either operand.
+   */
+  public void add(final int[] p, final int[] q, final int[] result) {
+    assert p.length == 3 * n;
+    assert q.length == 3 * n;
+    assert result.length == 3 * n;
+    unpack(p, x1, y1, z1);
+    unpack(q, x2, y2, z2);
+    mulMod(x1, x2, t0);
+    mulMod(y1, y2, t1);
+    mulMod(z1, z2, t2);
+    addMod(x1, y1, t3);
+    addMod(x2, y2, t4);
+    mulMod(t3, t4, t3);
+    addMod(t0, t1, t4);
+    subMod(t3, t4, t3);
+    addMod(y1, z1, t4);
+    addMod(y2, z2, x3);
+    mulMod(t4, x3, t4);
+    addMod(t1, t2, x3);
+    subMod(t4, x3, t4);
+    addMod(x1, z1, x3);
+    addMod(x2, z2, y3);
+    mulMod(x3, y3, x3);
+    addMod(t0, t2, y3);
+    subMod(x3, y3, y3);
+    mulMod(b, t2, z3);
+    subMod(y3, z3, x3);
+    addMod(x3, x3, z3);
+    addMod(x3, z3, x3);
+    subMod(t1, x3, z3);
+    addMod(t1, x3, x3);
+    mulMod(b, y3, y3);
+    addMod(t2, t2, t1);
+    addMod(t1, t2, t2);
+    subMod(y3, t2, y3);
+    subMod(y3, t0, y3);
+    addMod(y3, y3, t1);
+    addMod(t1, y3, y3);
+    addMod(t0, t0, t1);
+    addMod(t1, t0, t0);
+    subMod(t0, t2, t0);
+    mulMod(t4, y3, t1);
+    mulMod(t0, y3, t2);
+    mulMod(x3, z3, y3);
+    addMod(y3, t2, y3);
+    mulMod(x3, t3, x3);
+    subMod(x3, t1, x3);
+    mulMod(t4, z3, z3);
+    mulMod(t3, t0, t1);
+    addMod(z3, t1, z3);
+    pack(x3, y3, z3, result);
+  }
+
+  /**
+   * Set {@code result = 2 * point} (Algorithm 6 of Renes, Costello and Batina:
+   * 11 multiplications, 2 of them by b). Correct for all inputs.
+   * @param point A point. Not modified unless it is {@code result}.
+   * @param result Holds the double. May be the same array as {@code point}.
+   */
+  public void dbl(final int[] point, final int[] result) {
+    assert point.length == 3 * n;
+    assert result.length == 3 * n;
+    unpack(point, x1, y1, z1);
+    mulMod(x1, x1, t0);
+    mulMod(y1, y1, t1);
+    mulMod(z1, z1, t2);
+    mulMod(x1, y1, t3);
+    addMod(t3, t3, t3);
+    mulMod(x1, z1, z3);
+    addMod(z3, z3, z3);
+    mulMod(b, t2, y3);
+    subMod(y3, z3, y3);
+    addMod(y3, y3, x3);
+    addMod(x3, y3, y3);
+    subMod(t1, y3, x3);
+    addMod(t1, y3, y3);
+    mulMod(x3, y3, y3);
+    mulMod(x3, t3, x3);
+    addMod(t2, t2, t3);
+    addMod(t2, t3, t2);
+    mulMod(b, z3, z3);
+    subMod(z3, t2, z3);
+    subMod(z3, t0, z3);
+    addMod(z3, z3, t3);
+    addMod(z3, t3, z3);
+    addMod(t0, t0, t3);
+    addMod(t3, t0, t0);
+    subMod(t0, t2, t0);
+    mulMod(t0, z3, t0);
+    addMod(y3, t0, y3);
+    mulMod(y1, z1, t0);
+    addMod(t0, t0, t0);
+    mulMod(t0, z3, z3);
+    subMod(x3, z3, x3);
+    mulMod(t0, t1, z3);
+    addMod(z3, z3, z3);
+    addMod(z3, z3, z3);
+    pack(x3, y3, z3, result);
+  }
+
+  /**
+   * Set {@code result = scalar * point} with a fixed window of 4 bits: four
+   * doublings, a masked lookup in a table of the first 16 multiples of
+   * {@code point} and an addition per window. Takes time that depends only on
+   * {@code scalar.length}.
+   * @param point A point. Not modified unless it is {@code result}.
+   * @param scalar A little-endian scalar of any length. Not modified.
+   * @param result Holds the product. May be the same array as {@code point}.
+   */
+  public void multiply(
+    final int[] point,
+    final int[] scalar,
+    final int[] result)
+  {
+    assert point.length == 3 * n;
+    assert result.length == 3 * n;
+    // table[i] = i * point
+    identity(entry);
+    store(entry, 0, table);
+    System.arraycopy(point, 0, entry, 0, 3 * n);
+    store(entry, 1, table);
+    for(int i = 2; i < WINDOW_SIZE; ++i) {
+      if((i & 1) == 0) {
+        Modulus.select(i >>> 1, table, entry);
+        dbl(entry, entry);
+      } else {
+        Modulus.select(i - 1, table, entry);
+        add(entry, point, entry);
+      }
+      store(entry, i, table);
+    }
+
+    identity(accumulator);
+    for(int bit = 32 * scalar.length - WINDOW_BITS; bit >= 0;
+        bit -= WINDOW_BITS) {
+      for(int i = 0; i < WINDOW_BITS; ++i)
+        dbl(accumulator, accumulator);
+      Modulus.select(digit(scalar, bit), table, entry);
+      add(accumulator, entry, accumulator);
+    }
+    System.arraycopy(accumulator, 0, result, 0, 3 * n);
+  }
+
+  /**
+   * Precompute the tables used by {@link #multiplyFixed} for a fixed base
+   * point. Table {@code w} holds the multiples {@code j * 16^w * point} for
+   * j = 0, ..., 15, interleaved for {@link Modulus#select}.
+   * @param point The base point. Not modified.
+   * @param scalarLength The number of limbs of the scalars to be used.
+   * @return The tables, of {@code 8 * scalarLength} entries of
+   * {@code 16 * 3 * length()} limbs each.
+   */
+  public int[][] precompute(final int[] point, final int scalarLength) {
+    assert point.length == 3 * n;
+    assert scalarLength > 0;
+    final int[][] tables = new int[32 / WINDOW_BITS * scalarLength][];
+    final int[] base = point.clone();
+    for(int w = 0; w < tables.length; ++w) {
+      final int[] t = new int[WINDOW_SIZE * 3 * n];
+      identity(entry);
+      store(entry, 0, t);
+      System.arraycopy(base, 0, entry, 0, 3 * n);
+      for(int j = 1; j < WINDOW_SIZE; ++j) {
+        store(entry, j, t);
+        add(entry, base, entry);
+      }
+      tables[w] = t;
+      // entry = 16 * base
+      System.arraycopy(entry, 0, base, 0, 3 * n);
+    }
+    return tables;
+  }
+
+  /**
+   * Set {@code result = scalar * point} using the tables calculated by
+   * {@link #precompute} for {@code point}: one masked lookup and one
+   * addition per window of 4 bits, and no doublings. Takes time that depends
+   * only on {@code scalar.length}.
+   * @param tables The tables for the base point. Not modified.
+   * @param scalar A little-endian scalar of the length the tables were
+   * calculated for. Not modified.
+   * @param result Holds the product.
+   */
+  public void multiplyFixed(
+    final int[][] tables,
+    final int[] scalar,
+    final int[] result)
+  {
+    assert tables.length == 32 / WINDOW_BITS * scalar.length;
+    assert result.length == 3 * n;
+    identity(accumulator);
+    for(int w = 0; w < tables.length; ++w) {
+      Modulus.select(digit(scalar, w * WINDOW_BITS), tables[w], entry);
+      add(accumulator, entry, accumulator);
+    }
+    System.arraycopy(accumulator, 0, result, 0, 3 * n);
+  }
+
+  /**
+   * @return The window of {@code scalar} starting at bit {@code bit}.
+   */
+  private static int digit(final int[] scalar, final int bit) {
+    return (scalar[bit >>> 5] >>> (bit & 31)) & (WINDOW_SIZE - 1);
+  }
+
+  /**
+   * Write {@code point} as entry {@code index} of an interleaved table: limb
+   * j of the entry is at {@code table[16 * j + index]}.
+   */
+  private void store(final int[] point, final int index, final int[] table) {
+    for(int j = 0; j < 3 * n; ++j)
+      table[WINDOW_SIZE * j + index] = point[j];
+  }
+
+  private void unpack(
+    final int[] point,
+    final int[] x,
+    final int[] y,
+    final int[] z)
+  {
+    System.arraycopy(point, 0, x, 0, n);
+    System.arraycopy(point, n, y, 0, n);
+    System.arraycopy(point, 2 * n, z, 0, n);
+  }
+
+  private void pack(
+    final int[] x,
+    final int[] y,
+    final int[] z,
+    final int[] point)
+  {
+    System.arraycopy(x, 0, point, 0, n);
+    System.arraycopy(y, 0, point, n, n);
+    System.arraycopy(z, 0, point, 2 * n, n);
+  }
+
+  /**
+   * Set {@code r = a * b * R^-1 mod p}. {@code r} may be the same array as
+   * either operand.
+   */
+  private void mulMod(final int[] a, final int[] b, final int[] r) {
+    if(r == b) {
+      field.multiplyReduce(r, a);
+      return;
+    }
+    if(r != a)
+      System.arraycopy(a, 0, r, 0, n);
+    field.multiplyReduce(r, b);
+  }
+
+  private void addMod(final int[] a, final int[] b, final int[] r) {
+    field.addMod(a, b, r);
+  }
+
+  private void subMod(final int[] a, final int[] b, final int[] r) {
+    field.subMod(a, b, r);
+  }
+}
@@ -0,0 +1,484 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * A {@link Modulus} for an even modulus m = 2^k * q where q is odd.
+ *
+ * Montgomery arithmetic needs an odd modulus, so {@link #powMod} works modulo
+ * q with the inherited Montgomery operations and modulo 2^k with truncated
+ * multiplications, then recombines the two results with the Chinese remainder
+ * theorem. The inherited Montgomery operations (e.g. {@code multiplyReduce})
+ * all work modulo the odd part q.
+ *
+ * Instances are returned by {@link Modulus#valueOf(int[])} for even moduli.
+ */
+public class EvenModulus extends Modulus {
+
+  /**
+   * The full modulus m. Has no leading zero limbs.
+   */
+  private final int[] evenModulus;
+
+  /**
+   * The full modulus left-shifted by {@code evenShift} bits so that its most
+   * significant bit is set.
+   */
+  private final int[] normalisedEvenModulus;
+
+  /**
+   * The number of bits the full modulus was shifted by to normalise it.
+   */
+  private final int evenShift;
+
+  /**
+   * The number of limbs needed to hold a value modulo 2^k.
+   */
+  private final int twoLength;
+
+  /**
+   * The mask applied to the top limb of a value modulo 2^k.
+   */
+  private final int twoMask;
+
+  /**
+   * q^-1 mod 2^k. Has {@code twoLength} limbs.
+   */
+  private final int[] oddInverse;
+
+  /**
+   * Barrett reduction modulo the full modulus, used by {@link #multiplyMod}
+   * and {@link #squareMod}. Only reassigned by {@link #fork}.
+   */
+  private Barrett evenBarrett;
+
+  /**
+   * Scratch space of the full modulus' length for {@link #addMod} and
+   * {@link #subMod}. Only reassigned by {@link #fork}.
+   */
+  private int[] evenScratch;
+
+  protected EvenModulus(final int[] modulus, final boolean lazyReduction) {
+    super(oddPart(modulus), lazyReduction);
+    assert (modulus[0] & 1) == 0;
+    assert modulus[modulus.length-1] != 0;
+
+    evenModulus = modulus;
+    evenShift = Integer.numberOfLeadingZeros(modulus[modulus.length-1]);
+    normalisedEvenModulus = new int[modulus.length];
+    Operations.shiftLeft(modulus, evenShift, normalisedEvenModulus);
+
+    final int k = trailingZeros(modulus);
+    twoLength = (k + 31) / 32;
+    twoMask = (int)(-1L >>> (32 * twoLength - k + 32));
+
+    // q^-1 mod 2^(32*twoLength) by Newton's iteration x = x * (2 - q * x),
+    // which doubles the number of correct low bits of x each time
+    final int[] q = new int[twoLength];
+    for(int i = 0; i < twoLength && i < this.modulus.length; ++i)
+      q[i] = this.modulus[i];
+    final int[] x = new int[twoLength];
+    final int[] t = new int[twoLength];
+    final int[] product = new int[2 * twoLength];
+    x[0] = bInvertLimb(q[0]);
+    for(int bits = 32; bits < 32 * twoLength; bits *= 2) {
+      // t = 2 - q * x
+      multiplyLow(q, x, product, t);
+      long overflow = 2L;
+      for(int i = 0; i < twoLength; ++i) {
+        overflow += (~t[i]) & MASK32;
+        overflow += i == 0 ? 1L : 0L;
+        t[i] = (int)overflow;
+        overflow >>>= 32;
+      }
+      multiplyLow(x, t, product, x);
+    }
+    x[twoLength-1] &= twoMask;
+    oddInverse = x;
+
+    evenBarrett = new Barrett(modulus);
+    evenScratch = new int[modulus.length];
+  }
+
+  @Override
+  public EvenModulus fork() {
+    final EvenModulus copy = (EvenModulus)super.fork();
+    copy.evenBarrett = evenBarrett.fork();
+    copy.evenScratch = new int[evenScratch.length];
+    return copy;
+  }
+
+  /**
+   * Return the odd part q of m = 2^k * q without leading zero limbs.
+   */
+  private static int[] oddPart(final int[] modulus) {
+    final int k = trailingZeros(modulus);
+    final int limbs = k / 32;
+    final int[] shifted = new int[modulus.length - limbs];
+    for(int i = 0; i < shifted.length; ++i)
+      shifted[i] = modulus[i + limbs];
+    Operations.shiftRight(shifted, k % 32, shifted);
+    int length = shifted.length;
+    while(shifted[length-1] == 0)
+      --length;
+    final int[] q = new int[length];
+    for(int i = 0; i < length; ++i)
+      q[i] = shifted[i];
+    return q;
+  }
+
+  /**
+   * Return the number of trailing zero bits of a positive value.
+   */
+  private static int trailingZeros(final int[] value) {
+    int i = 0;
+    while(value[i] == 0)
+      ++i;
+    return 32 * i + Integer.numberOfTrailingZeros(value[i]);
+  }
+
+  /**
+   * Set {@code result} to the low {@code result.length} limbs of
+   * {@code a * b}. {@code result} may be the same array as {@code a} or
+   * {@code b}.
+   */
+  private static void multiplyLow(
+    final int[] a,
+    final int[] b,
+    final int[] product,
+    final int[] result)
+  {
+    Operations.multiply(a, b, product);
+    for(int i = 0; i < result.length; ++i)
+      result[i] = product[i];
+  }
+
+  /**
+   * Reduce {@code value} modulo the full (even) modulus in place.
+   */
+  @Override
+  public void mod(final int[] value) {
+    assert value != null;
+    final int mn = evenModulus.length;
+    if(value.length < mn)
+      return;
+
+    // (value mod m) << s == (value << s) mod (m << s)
+    final int[] shifted = new int[value.length + 1];
+    shifted[value.length] = Operations.shiftLeft(value, evenShift, shifted);
+    Operations.mod(shifted, normalisedEvenModulus, new int[mn + 1]);
+    Operations.shiftRight(shifted, evenShift, value);
+  }
+
+  @Override
+  public int length() {
+    return evenModulus.length;
+  }
+
+  @Override
+  public BigInteger toBigInteger() {
+    return Convert.toBigInteger(evenModulus);
+  }
+
+  @Override
+  int[] limbs() {
+    return evenModulus;
+  }
+
+  /**
+   * Set {@code result = value^-1 mod m} for the full (even) modulus m if
+   * {@code value} is invertible. The binary GCD used for odd moduli needs to
+   * halve modulo m, so this falls back to {@link BigInteger#modInverse} and
+   * is not constant-time.
+   */
+  @Override
+  public boolean invertMod(final int[] value, final int[] result) {
+    assert value.length == evenModulus.length;
+    assert result.length == evenModulus.length;
+    final BigInteger m = Convert.toBigInteger(evenModulus);
+    final BigInteger x = Convert.toBigInteger(value);
+    if(!x.gcd(m).equals(BigInteger.ONE))
+      return false;
+    Convert.fromBigInteger(x.modInverse(m), result);
+    return true;
+  }
+
+  /**
+   * {@link Modulus#invertBatch(int[][], int[][])} for the full (even) modulus
+   * m, using ordinary rather than Montgomery multiplications. Not
+   * constant-time since {@link #invertMod} is not.
+   */
+  @Override
+  protected boolean invertBatch(
+    final int[][] values,
+    final int[][] results,
+    final int offset,
+    final int length)
+  {
+    if(length == 0)
+      return true;
+    final int end = offset + length;
+    Convert.copy(values[offset], results[offset]);
+    for(int i = offset + 1; i < end; ++i) {
+      assert results[i] != values[i];
+      multiplyMod(results[i-1], values[i], results[i]);
+    }
+    final int[] t = new int[evenModulus.length];
+    final boolean invertible = invertMod(results[end-1], t);
+    for(int i = end - 1; i > offset; --i) {
+      multiplyMod(t, results[i-1], results[i]);
+      multiplyMod(t, values[i], t);
+    }
+    Convert.copy(t, results[offset]);
+    return invertible;
+  }
+
+  /**
+   * {@link Modulus#productUnreduced} for the full (even) modulus m, which has
+   * no Montgomery factors to correct: the product itself, or 1 mod m if
+   * {@code length == 0}.
+   */
+  @Override
+  protected void productUnreduced(
+    final int[][] values,
+    final int offset,
+    final int length,
+    final int[] result)
+  {
+    if(length == 0) {
+      Convert.fromBigInteger(BigInteger.ONE.mod(toBigInteger()), result);
+      return;
+    }
+    Convert.copy(values[offset], result);
+    for(int i = offset + 1; i < offset + length; ++i)
+      multiplyMod(result, values[i], result);
+  }
+
+  @Override
+  protected void productCombine(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    multiplyMod(multiplicand, multiplier, multiplicand);
+  }
+
+  @Override
+  protected void productCorrect(
+    final long count,
+    final int[] value,
+    final int[] result)
+  {
+    Convert.copy(value, result);
+  }
+
+  /**
+   * Set {@code result = augend + addend mod m} for the full (even) modulus m.
+   */
+  @Override
+  public void addMod(
+    final int[] augend,
+    final int augendOffset,
+    final int[] addend,
+    final int addendOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    addMod(
+      evenModulus,
+      augend,
+      augendOffset,
+      addend,
+      addendOffset,
+      result,
+      resultOffset,
+      evenScratch);
+  }
+
+  /**
+   * Set {@code result = minuend - subtrahend mod m} for the full (even)
+   * modulus m.
+   */
+  @Override
+  public void subMod(
+    final int[] minuend,
+    final int minuendOffset,
+    final int[] subtrahend,
+    final int subtrahendOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    subMod(
+      evenModulus,
+      minuend,
+      minuendOffset,
+      subtrahend,
+      subtrahendOffset,
+      result,
+      resultOffset,
+      evenScratch);
+  }
+
+  /**
+   * Set {@code result = -value mod m} for the full (even) modulus m.
+   */
+  @Override
+  public void negMod(
+    final int[] value,
+    final int valueOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    negMod(evenModulus, value, valueOffset, result, resultOffset);
+  }
+
+  /**
+   * Set {@code result = multiplicand * multiplier mod m} for the full (even)
+   * modulus m using Barrett reduction.
+   */
+  @Override
+  public void multiplyMod(
+    final int[] multiplicand,
+    final int[] multiplier,
+    final int[] result)
+  {
+    assert result.length == evenModulus.length;
+    evenBarrett.multiplyMod(multiplicand, multiplier, result);
+  }
+
+  /**
+   * Set {@code result = value^2 mod m} for the full (even) modulus m using
+   * Barrett reduction.
+   */
+  @Override
+  public void squareMod(final int[] value, final int[] result) {
+    assert result.length == evenModulus.length;
+    evenBarrett.squareMod(value, result);
+  }
+
+  /**
+   * Set {@code result = base^exponent mod m} for the full (even) modulus m.
+   * {@code base} and {@code result} have the length of the full modulus.
+   * The exponent is reduced by the group order once, if one is known, and
+   * shared by both halves of the CRT.
+   */
+  @Override
+  public void powMod(
+    final int[] base,
+    final int[] exponent,
+    final int[] result)
+  {
+    assert base.length == evenModulus.length;
+    assert result.length == evenModulus.length;
+    assert exponent.length > 0;
+
+    final int[] q = modulus;
+    final int qn = q.length;
+    final int mn = evenModulus.length;
+    final int tn = twoLength;
+    final int[] e = reduceExponent(exponent);
+
+    // r1 = base^exponent mod q
+    final int[] b1 = base.clone();
+    modByDivision(b1);
+    final int[] r1 = new int[qn];
+    for(int i = 0; i < qn; ++i)
+      r1[i] = b1[i];
+    super.powMod(r1.clone(), e, r1);
+
+    // r2 = base^exponent mod 2^k
+    final int[] r2 = new int[tn];
+    powModPowerOfTwo(base, e, r2);
+
+    // h = (r2 - r1) * q^-1 mod 2^k
+    final int[] h = new int[tn];
+    long overflow = 0L;
+    for(int i = 0; i < tn; ++i) {
+      overflow += (r2[i] & MASK32) - (i < qn ? r1[i] & MASK32 : 0L);
+      h[i] = (int)overflow;
+      overflow >>= 32;
+    }
+    multiplyLow(h, oddInverse, new int[2 * tn], h);
+    h[tn-1] &= twoMask;
+
+    // result = r1 + q * h, which is less than q + q * (2^k - 1) = m
+    final int[] qh = new int[qn + tn];
+    Operations.multiply(q, h, qh);
+    overflow = 0L;
+    for(int i = 0; i < qh.length; ++i) {
+      overflow += (qh[i] & MASK32) + (i < qn ? r1[i] & MASK32 : 0L);
+      qh[i] = (int)overflow;
+      overflow >>>= 32;
+    }
+    for(int i = 0; i < mn; ++i)
+      result[i] = qh[i];
+  }
+
+  /**
+   * Set {@code result = base^exponent mod 2^k}, using the same fixed window
+   * exponentiation as {@link Modulus#powMod} with truncated multiplications.
+   */
+  private void powModPowerOfTwo(
+    final int[] base,
+    final int[] exponent,
+    final int[] result)
+  {
+    final int[] e = exponent;
+    final int en = e.length;
+    final int tn = twoLength;
+    final int wn = 4;
+    final int wmask = 0xF;
+    final int[] product = new int[2 * tn];
+
+    // Calculate the powers base^0, ..., base^15 mod 2^k into an interleaved
+    // table (see Modulus.select)
+    final int[] powers = new int[(1 << wn) * tn];
+    final int[] power = new int[tn];
+    final int[] base1 = new int[tn];
+    for(int i = 0; i < tn; ++i)
+      base1[i] = base[i];
+    base1[tn-1] &= twoMask;
+    power[0] = 1;
+    for(int i = 0; i < (1 << wn); ++i) {
+      if(i > 0)
+        multiplyLow(power, base1, product, power);
+      power[tn-1] &= twoMask;
+      for(int j = 0; j < tn; ++j)
+        powers[j * (1 << wn) + i] = power[j];
+    }
+
+    // Fixed window exponentiation
+    int exponentWindow = (e[en-1] >>> (32 - wn)) & wmask;
+    select(exponentWindow, powers, result);
+    for(int i = en - 1; i >= 0; --i) {
+      int jStart = (i == en - 1) ? 32 - 2 * wn : 32 - wn;
+      for(int j = jStart; j >= 0; j -= wn) {
+        for(int k = 0; k < wn; ++k)
+          multiplyLow(result, result, product, result);
+        exponentWindow = (e[i] >>> j) & wmask;
+        select(exponentWindow, powers, power);
+        multiplyLow(result, power, product, result);
+      }
+    }
+    result[tn-1] &= twoMask;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+/**
+ * The interfaces of the Reactive Streams protocol, with the same names,
+ * methods and rules as {@code java.util.concurrent.Flow} in Java 9, which is
+ * not available to this library since it targets Java 8. On Java 9 and later
+ * an adapter between the two is one method call per signal.
+ *
+ * A {@link Publisher} produces items for each {@link Subscriber} that
+ * subscribes to it. The subscriber receives a {@link Subscription} in
+ * {@link Subscriber#onSubscribe}, and the publisher calls
+ * {@link Subscriber#onNext} at most as many times as the subscriber has
+ * requested through it, so a slow subscriber is never sent more items than it
+ * asked for. Signals to one subscriber are never concurrent.
+ */
+public final class Flow {
+  private Flow() {
+  }
+
+  /**
+   * A producer of items received by subscribers.
+   */
+  public interface Publisher<T> {
+    /**
+     * Add {@code subscriber}, which is then sent
+     * {@link Subscriber#onSubscribe}, or {@link Subscriber#onError} if it
+     * cannot be added.
+     * @throws NullPointerException If {@code subscriber == null}.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items.
+   */
+  public interface Subscriber<T> {
+    /**
+     * Called before any other signal. No items are sent until they are
+     * requested through {@code subscription}.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, at most as often as requested.
+     */
+    void onNext(T item);
+
+    /**
+     * Called when the publisher or subscription fails. No further signals
+     * follow.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called when there are no more items. No further signals follow.
+     */
+    void onComplete();
+  }
+
+  /**
+   * The link between a publisher and one of its subscribers.
+   */
+  public interface Subscription {
+    /**
+     * Add {@code n} items to the demand of the subscriber. A non-positive
+     * {@code n} fails the subscription with an
+     * {@link IllegalArgumentException}.
+     */
+    void request(long n);
+
+    /**
+     * Stop sending items, possibly after some already in flight.
+     */
+    void cancel();
+  }
+
+  /**
+   * A stage that is both a subscriber and a publisher.
+   */
+  public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+  }
+}
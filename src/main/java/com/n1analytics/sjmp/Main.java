@@ -317,6 +317,228 @@ public class Main {
     //System.out.format("%d %d\n", total1, total2);
   }
   
+  /**
+   * Time each {@link MontgomeryStrategy} for multiplication and squaring over
+   * a range of modulus sizes. Used to choose the defaults in
+   * {@link Modulus#defaultMultiplyStrategy} and
+   * {@link Modulus#defaultSquareStrategy}. Prints one line per size and
+   * operation with the mean time in nanoseconds for each strategy.
+   */
+  public static void timeMontgomeryStrategies() {
+    final int[] sizes = new int[] { 4, 8, 12, 16, 24, 32, 48, 64, 96, 128 };
+    final MontgomeryStrategy[] strategies = MontgomeryStrategy.values();
+    final Random random = new Random();
+    final int operations = 1 << 22; // Limb-multiplications per measurement
+    for(int round = 0; round < 3; ++round) {
+      System.out.format("%6s %8s", "limbs", "op");
+      for(MontgomeryStrategy strategy : strategies)
+        System.out.format(" %10s", strategy);
+      System.out.println();
+      for(int size : sizes) {
+        int[] m = new int[size];
+        int[] a = new int[size];
+        for(int i = 0; i < size; ++i) {
+          m[i] = random.nextInt();
+          a[i] = random.nextInt();
+        }
+        m[0] |= 1;
+        m[size-1] |= 0x80000000;
+        a[size-1] &= 0x7FFFFFFF;
+        final int iterations = Math.max(1, operations / (size * size));
+        for(int op = 0; op < 2; ++op) {
+          System.out.format("%6d %8s", size, op == 0 ? "multiply" : "square");
+          for(MontgomeryStrategy strategy : strategies) {
+            Modulus modulus = Modulus.valueOf(m, strategy, strategy);
+            int[] x = a.clone();
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; ++i) {
+              if(op == 0)
+                modulus.multiplyReduce(x, a);
+              else
+                modulus.squareReduce(x);
+            }
+            long time = System.nanoTime() - start;
+            System.out.format(" %10.1f", (double)time / iterations);
+          }
+          System.out.println();
+        }
+      }
+      System.out.println();
+    }
+  }
+  
+  public static void timeLazyReduction() {
+    // Compare powMod with strict Montgomery reduction against lazy reduction
+    // (Modulus.valueOf(m, true)), with a full-length exponent.
+    final int[] sizes = new int[] { 4, 8, 16, 32, 48, 64, 96, 128 };
+    final Random random = new Random();
+    final int operations = 1 << 24; // Limb-multiplications per measurement
+    for(int round = 0; round < 3; ++round) {
+      System.out.format("%6s %10s %10s\n", "limbs", "strict", "lazy");
+      for(int size : sizes) {
+        int[] m = new int[size];
+        int[] a = new int[size];
+        int[] e = new int[size];
+        int[] r = new int[size];
+        for(int i = 0; i < size; ++i) {
+          m[i] = random.nextInt();
+          a[i] = random.nextInt();
+          e[i] = random.nextInt();
+        }
+        m[0] |= 1;
+        m[size-1] |= 0x80000000;
+        a[size-1] &= 0x7FFFFFFF;
+        final int iterations = Math.max(1, operations / (size * size * size * 40));
+        System.out.format("%6d", size);
+        for(int lazy = 0; lazy < 2; ++lazy) {
+          Modulus modulus = Modulus.valueOf(m, lazy == 1);
+          long start = System.nanoTime();
+          for(int i = 0; i < iterations; ++i)
+            modulus.powMod(a, e, r);
+          long time = System.nanoTime() - start;
+          System.out.format(" %10.1f", (double)time / iterations / 1000.0);
+        }
+        System.out.println();
+      }
+      System.out.println();
+    }
+  }
+  
+  public static void timeSelect() {
+    // Compare the interleaved table used by Modulus.select against a table of
+    // separately allocated entries scanned entry by entry.
+    final int[] sizes = new int[] { 8, 32, 64, 128 };
+    final int entries = 16;
+    final Random random = new Random();
+    final int operations = 1 << 26; // Limb reads per measurement
+    for(int round = 0; round < 3; ++round) {
+      System.out.format("%6s %10s %12s\n", "limbs", "separate", "interleaved");
+      for(int size : sizes) {
+        final int[][] separate = new int[entries][size];
+        final int[] interleaved = new int[entries * size];
+        for(int i = 0; i < entries; ++i)
+          for(int j = 0; j < size; ++j)
+            interleaved[j * entries + i] = separate[i][j] = random.nextInt();
+        final int[] result = new int[size];
+        final int iterations = operations / (entries * size);
+        int check = 0;
+        
+        long start = System.nanoTime();
+        for(int n = 0; n < iterations; ++n) {
+          final int index = n & (entries - 1);
+          for(int j = 0; j < size; ++j)
+            result[j] = 0;
+          for(int i = 0; i < entries; ++i) {
+            final int mask = (((index-i)|(i-index)) >>> 31)-1;
+            for(int j = 0; j < size; ++j)
+              result[j] |= separate[i][j] & mask;
+          }
+          check ^= result[0];
+        }
+        long time0 = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for(int n = 0; n < iterations; ++n) {
+          Modulus.select(n & (entries - 1), interleaved, result);
+          check ^= result[0];
+        }
+        long time1 = System.nanoTime() - start;
+        System.out.format(
+          "%6d %10.1f %12.1f %s\n",
+          size,
+          (double)time0 / iterations,
+          (double)time1 / iterations,
+          check == 0 ? "" : " ");
+      }
+      System.out.println();
+    }
+  }
+  
+  public static void timeMontgomeryTransform() {
+    // Compare transforming into the Montgomery domain by long division with
+    // a Montgomery multiplication by R^2.
+    final int[] sizes = new int[] { 32, 64, 128 };
+    final Random random = new Random();
+    final int operations = 1 << 24; // Limb-multiplications per measurement
+    for(int round = 0; round < 3; ++round) {
+      System.out.format("%6s %10s %10s\n", "limbs", "division", "r2");
+      for(int size : sizes) {
+        int[] m = new int[size];
+        int[] a = new int[size];
+        for(int i = 0; i < size; ++i) {
+          m[i] = random.nextInt();
+          a[i] = random.nextInt();
+        }
+        m[0] |= 1;
+        m[size-1] |= 0x80000000;
+        a[size-1] &= 0x7FFFFFFF;
+        Modulus modulus = Modulus.valueOf(m);
+        final int iterations = Math.max(1, operations / (size * size));
+        int[] x = a.clone();
+        
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; ++i)
+          modulus.montgomeryTransformByDivision(x);
+        long time0 = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; ++i)
+          modulus.montgomeryTransform(x);
+        long time1 = System.nanoTime() - start;
+        System.out.format(
+          "%6d %10.1f %10.1f\n",
+          size,
+          (double)time0 / iterations,
+          (double)time1 / iterations);
+      }
+      System.out.println();
+    }
+  }
+  
+  public static void timeDivRem() {
+    // Compare Operations.mod (half-limb steps) with Operations.divRem (full
+    // limb steps with a 3/2 reciprocal) for a 2n-limb dividend and an n-limb
+    // normalised divisor.
+    final int[] sizes = new int[] { 32, 64, 128 };
+    final Random random = new Random();
+    final int operations = 1 << 24; // Limb-multiplications per measurement
+    for(int round = 0; round < 3; ++round) {
+      System.out.format("%6s %10s %10s\n", "limbs", "mod", "divRem");
+      for(int size : sizes) {
+        int[] d = new int[size];
+        int[] n = new int[2 * size];
+        for(int i = 0; i < size; ++i)
+          d[i] = random.nextInt();
+        for(int i = 0; i < 2 * size; ++i)
+          n[i] = random.nextInt();
+        d[size-1] |= 0x80000000;
+        final int iterations = Math.max(1, operations / (size * size));
+        int[] x = new int[2 * size];
+        int[] scratch = new int[size + 1];
+        int[] quotient = new int[size + 1];
+        int[] remainder = new int[size];
+        
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; ++i) {
+          System.arraycopy(n, 0, x, 0, n.length);
+          Operations.mod(x, d, scratch);
+        }
+        long time0 = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; ++i)
+          Operations.divRem(n, d, quotient, remainder);
+        long time1 = System.nanoTime() - start;
+        System.out.format(
+          "%6d %10.1f %10.1f\n",
+          size,
+          (double)time0 / iterations,
+          (double)time1 / iterations);
+      }
+      System.out.println();
+    }
+  }
+  
 	public static void main(String[] args) {
     final long LONG_MASK = 0xFFFFFFFFL;
     System.out.println("Sleep");
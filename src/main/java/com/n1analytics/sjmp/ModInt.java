@@ -0,0 +1,320 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * An immutable residue modulo a {@link Modulus}, with arithmetic backed by the
+ * {@code Modulus} operations.
+ *
+ * Every operation allocates its result and nothing else: the scratch space
+ * needed by the {@code Modulus} operations comes from a {@link Modulus#fork}
+ * that is created once per thread and per {@code Modulus}, so {@code ModInt}
+ * values can be shared freely between threads.
+ *
+ * Values bound to different {@code Modulus} objects may be combined if the
+ * moduli are equal; otherwise the binary operations throw
+ * {@link IllegalArgumentException}.
+ */
+public final class ModInt {
+
+  /**
+   * The per-thread forks of each {@code Modulus}. Weakly keyed (by identity,
+   * since {@code Modulus} does not override {@code equals}) so that a
+   * {@code Modulus} which is no longer used can be collected.
+   */
+  private static final ThreadLocal<Map<Modulus, Modulus>> FORKS =
+    new ThreadLocal<Map<Modulus, Modulus>>() {
+      @Override
+      protected Map<Modulus, Modulus> initialValue() {
+        return new WeakHashMap<Modulus, Modulus>();
+      }
+    };
+
+  /**
+   * The modulus this value was created with. Never used directly for
+   * arithmetic since it may be in use by another thread.
+   */
+  private final Modulus modulus;
+
+  /**
+   * The value, less than the modulus and with the modulus' length.
+   */
+  private final int[] value;
+
+  private ModInt(final Modulus modulus, final int[] value) {
+    this.modulus = modulus;
+    this.value = value;
+  }
+
+  /**
+   * Return this thread's fork of {@code modulus}.
+   */
+  private static Modulus local(final Modulus modulus) {
+    final Map<Modulus, Modulus> forks = FORKS.get();
+    Modulus fork = forks.get(modulus);
+    if(fork == null) {
+      fork = modulus.fork();
+      forks.put(modulus, fork);
+    }
+    return fork;
+  }
+
+  /**
+   * Construct the residue of {@code value} modulo {@code modulus}.
+   * @param modulus The modulus. Not modified.
+   * @param value Any integer, which is reduced modulo the modulus.
+   * @throws NullPointerException If either argument is null.
+   */
+  public static ModInt valueOf(final Modulus modulus, final BigInteger value)
+    throws NullPointerException
+  {
+    if(modulus == null)
+      throw new NullPointerException("modulus must not be null");
+    if(value == null)
+      throw new NullPointerException("value must not be null");
+    final BigInteger reduced = value.mod(modulus.toBigInteger());
+    return new ModInt(
+      modulus,
+      Convert.fromBigInteger(reduced, new int[modulus.length()]));
+  }
+
+  /**
+   * Construct the residue of {@code value} modulo {@code modulus}.
+   * @param modulus The modulus. Not modified.
+   * @param value Any integer, which is reduced modulo the modulus.
+   * @throws NullPointerException If {@code modulus == null}.
+   */
+  public static ModInt valueOf(final Modulus modulus, final long value) throws
+    NullPointerException
+  {
+    return valueOf(modulus, BigInteger.valueOf(value));
+  }
+
+  /**
+   * Construct a residue from a copy of a little-endian int array.
+   * @param modulus The modulus. Not modified.
+   * @param value A value less than the modulus with at most
+   * {@code modulus.length()} limbs. Not retained.
+   * @throws IllegalArgumentException If {@code value} is not less than the
+   * modulus.
+   * @throws NullPointerException If either argument is null.
+   */
+  public static ModInt valueOf(final Modulus modulus, final int[] value) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    if(modulus == null)
+      throw new NullPointerException("modulus must not be null");
+    if(value == null)
+      throw new NullPointerException("value must not be null");
+    final int n = modulus.length();
+    for(int i = n; i < value.length; ++i)
+      if(value[i] != 0)
+        throw new IllegalArgumentException("value must be less than the modulus");
+    final int[] v = Arrays.copyOf(value, n);
+    final int[] m = modulus.limbs();
+    long borrow = 0L;
+    for(int i = 0; i < n; ++i)
+      borrow = ((v[i] & MASK32) - (m[i] & MASK32) + borrow) >> 32;
+    if(borrow == 0L)
+      throw new IllegalArgumentException("value must be less than the modulus");
+    return new ModInt(modulus, v);
+  }
+
+  /**
+   * @return The modulus this value was created with. Like any
+   * {@code Modulus} it is not thread-safe.
+   */
+  public Modulus modulus() {
+    return modulus;
+  }
+
+  /**
+   * Compare the limbs of two moduli in constant-time for their length.
+   */
+  private static boolean sameModulus(final Modulus a, final Modulus b) {
+    if(a == b)
+      return true;
+    final int[] x = a.limbs();
+    final int[] y = b.limbs();
+    if(x.length != y.length)
+      return false;
+    int difference = 0;
+    for(int i = 0; i < x.length; ++i)
+      difference |= x[i] ^ y[i];
+    return difference == 0;
+  }
+
+  private Modulus check(final ModInt other) {
+    if(!sameModulus(other.modulus, modulus))
+      throw new IllegalArgumentException("operands have different moduli");
+    return local(modulus);
+  }
+
+  /**
+   * @return {@code this + other mod m}.
+   * @throws IllegalArgumentException If {@code other} has a different modulus.
+   */
+  public ModInt add(final ModInt other) throws IllegalArgumentException {
+    final int[] result = new int[value.length];
+    check(other).addMod(value, other.value, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return {@code this - other mod m}.
+   * @throws IllegalArgumentException If {@code other} has a different modulus.
+   */
+  public ModInt sub(final ModInt other) throws IllegalArgumentException {
+    final int[] result = new int[value.length];
+    check(other).subMod(value, other.value, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return {@code -this mod m}.
+   */
+  public ModInt neg() {
+    final int[] result = new int[value.length];
+    local(modulus).negMod(value, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return {@code this * other mod m}.
+   * @throws IllegalArgumentException If {@code other} has a different modulus.
+   */
+  public ModInt mul(final ModInt other) throws IllegalArgumentException {
+    final int[] result = new int[value.length];
+    check(other).multiplyMod(value, other.value, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return {@code this^2 mod m}.
+   */
+  public ModInt square() {
+    final int[] result = new int[value.length];
+    local(modulus).squareMod(value, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * Raise this value to the power {@code exponent}, taking time that depends
+   * only on the number of limbs of the exponent.
+   * @param exponent A non-negative exponent.
+   * @return {@code this^exponent mod m}.
+   * @throws IllegalArgumentException If {@code exponent} is negative.
+   * @throws NullPointerException If {@code exponent == null}.
+   */
+  public ModInt pow(final BigInteger exponent) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    if(exponent == null)
+      throw new NullPointerException("exponent must not be null");
+    if(exponent.signum() < 0)
+      throw new IllegalArgumentException("exponent must be non-negative");
+    final int[] e = Convert.fromBigInteger(
+      exponent,
+      new int[Math.max(1, (exponent.bitLength() + 31) / 32)]);
+    final int[] result = new int[value.length];
+    local(modulus).powMod(value, e, result);
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return {@code this^exponent mod m}.
+   * @throws IllegalArgumentException If {@code exponent} is negative.
+   */
+  public ModInt pow(final long exponent) throws IllegalArgumentException {
+    return pow(BigInteger.valueOf(exponent));
+  }
+
+  /**
+   * @return {@code this^-1 mod m}. Constant-time for odd moduli (see
+   * {@link Modulus#invertMod}).
+   * @throws ArithmeticException If this value is not invertible.
+   */
+  public ModInt inv() throws ArithmeticException {
+    final int[] result = new int[value.length];
+    if(!local(modulus).invertMod(value, result))
+      throw new ArithmeticException("value is not invertible");
+    return new ModInt(modulus, result);
+  }
+
+  /**
+   * @return Whether this value is zero.
+   */
+  public boolean isZero() {
+    int bits = 0;
+    for(int limb : value)
+      bits |= limb;
+    return bits == 0;
+  }
+
+  /**
+   * @return The value as an integer in the range [0, m).
+   */
+  public BigInteger toBigInteger() {
+    return Convert.toBigInteger(value);
+  }
+
+  /**
+   * @return A copy of the value as a little-endian int array of the modulus'
+   * length.
+   */
+  public int[] toArray() {
+    return value.clone();
+  }
+
+  /**
+   * Two values are equal if they have equal moduli and equal residues. The
+   * comparison of the residues is constant-time.
+   */
+  @Override
+  public boolean equals(final Object other) {
+    if(!(other instanceof ModInt))
+      return false;
+    final ModInt that = (ModInt)other;
+    if(!sameModulus(that.modulus, modulus))
+      return false;
+    int difference = 0;
+    for(int i = 0; i < value.length; ++i)
+      difference |= value[i] ^ that.value[i];
+    return difference == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(value);
+  }
+
+  @Override
+  public String toString() {
+    return toBigInteger().toString();
+  }
+}
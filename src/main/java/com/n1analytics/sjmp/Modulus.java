@@ -19,33 +19,67 @@ License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
 package com.n1analytics.sjmp;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
 
 import static com.n1analytics.sjmp.Constants.MASK32;
 import static com.n1analytics.sjmp.Operations.*;
 
-// NOTE this is not a general-purpose modulus class. It only works for moduli
-//      which are odd (least significant bit == 1) and normalised (most
-//      significant bit of most significant limb == 1). This is fine for the
-//      applications we have in mind.
-// TODO work out which implementation of square to use. Also attempt to fuse
-//      square with montgomeryReduce like we did with multiplyReduce.
+// NOTE this class only works for odd moduli (least significant bit == 1).
+//      Moduli which are not normalised (most significant bit of most
+//      significant limb == 0) are shifted internally for division. Even moduli
+//      are handled by the EvenModulus subclass, which is what valueOf returns
+//      for them.
+// TODO attempt to fuse square with montgomeryReduce like we did with
+//      multiplyReduce. The square* variants below are superseded by
+//      Operations.square (see squareReduceSOS).
 // TODO also implement divide (see commit
 //      14f8a930806fade10f0a723b1ddfdc11e0914782 for an untested implementation)
-public class Modulus {
+// NOTE a Modulus object is not thread-safe since the Montgomery operations use
+//      its scratch space. Use fork() to obtain a copy for another thread that
+//      shares all of the precomputed values.
+public class Modulus implements Cloneable {
   
   /**
    * The modulus in little-endian format. Each element of the array is treated
    * as an unsigned 32-bit integer. The modulus is assumed to be odd (ie. {@code
-   * modulus[0] & 1 != 0}) and normalised (i.e.
-   * {@code modulus[modulus.length-1] & 0x80000000 != 0}).
+   * modulus[0] & 1 != 0}) and to have no leading zero limbs (i.e.
+   * {@code modulus[modulus.length-1] != 0}).
    */
-  private final int[] modulus;
+  protected final int[] modulus;
 
   /**
-   * The modulus left-shifted by 16. Has length equal to modulus.length + 1.
+   * The normalised modulus left-shifted by 16. Has length equal to
+   * modulus.length + 1.
    */
   private final int[] modulusShift16;
   
+  /**
+   * The number of bits the modulus is shifted left by to normalise it for
+   * division, in the range [0, 32).
+   */
+  private final int normalisationShift;
+  
+  /**
+   * The modulus shifted left by {@link #normalisationShift} bits, so that the
+   * most significant bit of its most significant limb is set. The same array
+   * as {@link #modulus} if the modulus is already normalised.
+   */
+  private final int[] normalisedModulus;
+  
+  /**
+   * The Montgomery representation of 1, i.e. R mod modulus where
+   * R = 2^(32*modulus.length). A {@link SolinasModulus} sets R = 1.
+   */
+  protected final int[] montgomeryIdentity;
+  
   /**
    * An approximate 1-limb inverse of the modulus.
    */
@@ -54,33 +88,151 @@ public class Modulus {
   /**
    * The value {@code -modulus^{-1} mod 2^32}.
    */
-  private final int montgomeryNegativeInverse;
+  protected final int montgomeryNegativeInverse;
+  
+  /**
+   * R^2 mod modulus where R = 2^(32*modulus.length). Used to transform values
+   * into the Montgomery domain with a single {@link #multiplyReduce}.
+   */
+  protected final int[] montgomerySquare;
   
   /**
    * Miscellaneous scratch space. Typically used by the Montgomery operations.
+   * Only reassigned by {@link #fork}.
+   */
+  protected int[] scratch;
+  
+  /**
+   * modulus.length + 1 limbs of scratch space for the second step of
+   * {@link #modByDivision} when the modulus is not normalised, and null
+   * otherwise. Separate from {@link #scratch} since that is reduced with
+   * {@code modByDivision}. Only reassigned by {@link #fork}.
+   */
+  private int[] divisionScratch;
+  
+  /**
+   * The strategy used by {@link #multiplyReduce}.
+   */
+  private final MontgomeryStrategy multiplyStrategy;
+  
+  /**
+   * The strategy used by {@link #squareReduce}.
+   */
+  private final MontgomeryStrategy squareStrategy;
+  
+  /**
+   * If set, {@link #powMod} uses {@link #multiplyReduceLazy} and
+   * {@link #squareReduceLazy} and only fully reduces the final result.
+   */
+  private final boolean lazyReduction;
+  
+  /**
+   * A multiple of the order of the multiplicative group, left-shifted by
+   * {@link #orderShift} bits so that its most significant bit is set, or null
+   * if none is known. Only assigned by {@link #withGroupOrder}.
+   */
+  private int[] orderShifted;
+  
+  /**
+   * The number of bits the group order was shifted by to normalise it.
+   */
+  private int orderShift;
+  
+  /**
+   * Used by {@link #multiplyMod} and {@link #squareMod} for moduli of at
+   * least {@link #BARRETT_THRESHOLD} limbs, and null otherwise. Only
+   * reassigned by {@link #fork}.
    */
-  private final int[] scratch;
+  private Barrett barrett;
     
   private static final int MONTGOMERY_POWERS_SIZE = 2; // TODO 4?
+  
+  /**
+   * Moduli with fewer limbs than this square using CIOS, larger moduli square
+   * using SOS. CIOS is the fastest multiplication at all measured sizes.
+   */
+  private static final int DEFAULT_STRATEGY_THRESHOLD = 32;
+  
+  /**
+   * Moduli with fewer limbs than this multiply with a Montgomery round trip in
+   * {@link #multiplyMod}, larger moduli use Barrett reduction. As measured by
+   * the {@code multiplyMod*} benchmarks of {@code BenchmarkRunner} the two are
+   * level at 16 limbs and Barrett is about a third faster from 64 limbs.
+   */
+  protected static final int BARRETT_THRESHOLD = 16;
   static { assert MONTGOMERY_POWERS_SIZE >= 2; }
   
   protected Modulus(int[] modulus) {
+    this(modulus, false);
+  }
+  
+  protected Modulus(int[] modulus, boolean lazyReduction) {
+    this(
+      modulus,
+      defaultMultiplyStrategy(modulus.length),
+      defaultSquareStrategy(modulus.length),
+      lazyReduction);
+  }
+  
+  protected Modulus(
+    int[] modulus,
+    MontgomeryStrategy multiplyStrategy,
+    MontgomeryStrategy squareStrategy)
+  {
+    this(modulus, multiplyStrategy, squareStrategy, false);
+  }
+  
+  protected Modulus(
+    int[] modulus,
+    MontgomeryStrategy multiplyStrategy,
+    MontgomeryStrategy squareStrategy,
+    boolean lazyReduction)
+  {
+    this(modulus, multiplyStrategy, squareStrategy, lazyReduction, false);
+  }
+  
+  /**
+   * @param unitRadix If set, R = 1 rather than 2^(32*modulus.length), so the
+   * Montgomery identity and square are both 1 and are not calculated. For
+   * subclasses which override {@link #multiplyReduce} and
+   * {@link #squareReduce} to reduce products directly (see
+   * {@link SolinasModulus}).
+   */
+  protected Modulus(
+    int[] modulus,
+    MontgomeryStrategy multiplyStrategy,
+    MontgomeryStrategy squareStrategy,
+    boolean lazyReduction,
+    boolean unitRadix)
+  {
     assert modulus != null;
     assert modulus.length > 0;
+    assert multiplyStrategy != null;
+    assert squareStrategy != null;
     assert (modulus[0] & 1) != 0; // Odd
-    assert modulus[modulus.length-1] < 0; // Highest bit is set
+    assert modulus[modulus.length-1] != 0; // No leading zero limbs
     
     this.modulus = modulus;
     
-    // modulusShift16 = modulus << 16
-    modulusShift16 = new int[modulus.length + 1];
-    modulusShift16[0] = modulus[0] << 16;
-    for(int i = 1; i < modulus.length; ++i)
-      modulusShift16[i] = (modulus[i-1] >>> 16) | (modulus[i] << 16);
-    modulusShift16[modulus.length] = modulus[modulus.length-1] >>> 16;
+    // normalisedModulus = modulus << normalisationShift
+    normalisationShift = Integer.numberOfLeadingZeros(modulus[modulus.length-1]);
+    if(normalisationShift == 0) {
+      normalisedModulus = modulus;
+    } else {
+      normalisedModulus = new int[modulus.length];
+      shiftLeft(modulus, normalisationShift, normalisedModulus);
+    }
+    final int[] d = normalisedModulus;
+    
+    // modulusShift16 = normalisedModulus << 16
+    modulusShift16 = new int[d.length + 1];
+    modulusShift16[0] = d[0] << 16;
+    for(int i = 1; i < d.length; ++i)
+      modulusShift16[i] = (d[i-1] >>> 16) | (d[i] << 16);
+    modulusShift16[d.length] = d[d.length-1] >>> 16;
 
-    // A one-limb under-approximation of the modulus inverse
-    final int mtop = modulus[modulus.length-1];
+    // A one-limb under-approximation of the normalised modulus inverse
+    final int mtop = d[d.length-1];
     modulusInverse = (int)(((((~mtop) & MASK32) << 32) | MASK32) / (mtop & MASK32));
 
     // -modulus^{-1} mod 2^32
@@ -88,6 +240,54 @@ public class Modulus {
     
     // Scratch space for various Montgomery functions
     scratch = new int[2 * modulus.length];
+    divisionScratch = normalisationShift == 0 ? null : new int[modulus.length + 1];
+    
+    this.multiplyStrategy = multiplyStrategy;
+    this.squareStrategy = squareStrategy;
+    this.lazyReduction = lazyReduction;
+    
+    montgomeryIdentity = new int[modulus.length + 1];
+    montgomerySquare = new int[modulus.length];
+    if(unitRadix) {
+      montgomeryIdentity[0] = 1;
+      montgomerySquare[0] = 1;
+    } else {
+      // R mod modulus. If the modulus is normalised this is just R - modulus.
+      montgomeryIdentity[modulus.length] = 1;
+      modByDivision(montgomeryIdentity);
+      
+      // R^2 mod modulus = ((R mod modulus) << (32 * modulus.length)) mod
+      // modulus
+      for(int i = 0; i < modulus.length; ++i)
+        montgomerySquare[i] = montgomeryIdentity[i];
+      montgomeryTransformByDivision(montgomerySquare);
+    }
+    
+    barrett = modulus.length < BARRETT_THRESHOLD ? null : new Barrett(modulus);
+  }
+  
+  /**
+   * The fastest {@link MontgomeryStrategy} for multiplication, as measured by
+   * {@code Main.timeMontgomeryStrategies}.
+   * @param length The number of limbs in the modulus.
+   */
+  protected static final MontgomeryStrategy defaultMultiplyStrategy(
+    final int length)
+  {
+    return MontgomeryStrategy.CIOS;
+  }
+  
+  /**
+   * The fastest {@link MontgomeryStrategy} for squaring, as measured by
+   * {@code Main.timeMontgomeryStrategies}.
+   * @param length The number of limbs in the modulus.
+   */
+  protected static final MontgomeryStrategy defaultSquareStrategy(
+    final int length)
+  {
+    return length < DEFAULT_STRATEGY_THRESHOLD
+      ? MontgomeryStrategy.CIOS
+      : MontgomeryStrategy.SOS;
   }
   
   /**
@@ -97,58 +297,215 @@ public class Modulus {
    * integer with 32-bit unsigned limbs. That is {@code modulus[0] +
    * modulus[1] * 2^32 + ... + modulus[modulus.length-1] * 2^(32*(length-1))}
    * where each element {@code modulus[i]} is interpreted as an unsigned 32-bit
-   * integer. The modulus must be odd (modulus[0] & 1 != 0) and normalised
-   * (modulus[modulus.length-1] & 0x80000000 != 0).
+   * integer. The modulus must be positive and may contain leading zero limbs,
+   * which are dropped. Even moduli are supported by an {@link EvenModulus}.
    * 
    * A defensive copy of {@code modulus} is made.
    * 
    * @param modulus The value of the modulus.
    * @return A Modulus object. 
    * @throws NullPointerException If {@code modulus == null}.
-   * @throws IllegalArgumentException If {@code modulus.length == 0}.
-   * @throws IllegalArgumentException If modulus is an even number (i.e. if
-   * {@code modulus[0] % 2 == 0})
-   * @throws IllegalArgumentException If modulus is not normalised (i.e. if
-   * {@code modulus[modulus.length-1] & 0x80000000 == 0}).
+   * @throws IllegalArgumentException If {@code modulus} is zero.
    */
   public static final Modulus valueOf(final int[] modulus) throws
     IllegalArgumentException,
     NullPointerException
+  {
+    return newInstance(toModulusArray(modulus), false);
+  }
+  
+  /**
+   * Construct a new {@code Modulus} object from a copy of {@code modulus},
+   * optionally using lazy ("almost Montgomery") reduction in
+   * {@link #powMod}.
+   * 
+   * With lazy reduction the intermediate results of an exponentiation are
+   * only kept below 2^(32*n), where n is the number of limbs in the modulus,
+   * rather than below the modulus. The conditional subtraction that ends each
+   * multiplication is then one pass over the limbs instead of two, which
+   * is small next to the multiplication itself; see
+   * {@code Main.timeLazyReduction}. The result of {@link #powMod} is always
+   * fully reduced.
+   * 
+   * See {@link #valueOf(int[])} for the requirements on {@code modulus}.
+   * 
+   * @param modulus The value of the modulus.
+   * @param lazyReduction Whether to use lazy reduction.
+   * @return A Modulus object.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is invalid.
+   */
+  public static final Modulus valueOf(
+    final int[] modulus,
+    final boolean lazyReduction) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    return newInstance(toModulusArray(modulus), lazyReduction);
+  }
+  
+  /**
+   * Construct a new {@code Modulus} object from a copy of {@code modulus}
+   * that uses the specified Montgomery strategies rather than the defaults.
+   * 
+   * See {@link #valueOf(int[])} for the requirements on {@code modulus},
+   * which must also be odd.
+   * 
+   * @param modulus The value of the modulus.
+   * @param multiplyStrategy The strategy used to multiply.
+   * @param squareStrategy The strategy used to square.
+   * @return A Modulus object.
+   * @throws NullPointerException If any argument is {@code null}.
+   * @throws IllegalArgumentException If {@code modulus} is invalid or even.
+   */
+  public static final Modulus valueOf(
+    final int[] modulus,
+    final MontgomeryStrategy multiplyStrategy,
+    final MontgomeryStrategy squareStrategy) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    if(multiplyStrategy == null)
+      throw new NullPointerException("multiplyStrategy must not be null");
+    if(squareStrategy == null)
+      throw new NullPointerException("squareStrategy must not be null");
+    return new Modulus(
+      requireOdd(toModulusArray(modulus)),
+      multiplyStrategy,
+      squareStrategy);
+  }
+  
+  /**
+   * Construct a new {@code Modulus} object for {@code modulus}.
+   * 
+   * @param modulus The value of the modulus.
+   * @return A Modulus object.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is not positive.
+   */
+  public static final Modulus valueOf(final BigInteger modulus) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    return newInstance(toModulusArray(modulus), false);
+  }
+  
+  /**
+   * Return a copy of this object that shares all of its precomputed values
+   * but has its own scratch space, so that it can be used concurrently with
+   * this object. Costs one allocation of twice the modulus length.
+   * 
+   * @return A Modulus object of the same class that behaves identically.
+   */
+  public Modulus fork() {
+    final Modulus copy;
+    try {
+      copy = (Modulus)super.clone();
+    } catch(CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+    copy.scratch = new int[scratch.length];
+    if(divisionScratch != null)
+      copy.divisionScratch = new int[divisionScratch.length];
+    if(barrett != null)
+      copy.barrett = barrett.fork();
+    return copy;
+  }
+  
+  /**
+   * Construct the fastest available {@code Modulus} implementation for a
+   * validated modulus. Even moduli use an {@link EvenModulus}, and odd moduli
+   * of a special form (e.g. 2^255 - 19) a {@link SolinasModulus}. Other odd
+   * moduli of 32, 64, 96 and 128 limbs (e.g. 1024, 2048, 3072 and 4096 bits)
+   * use kernels generated at build time (see {@code src/main/template}) which are
+   * specialised to the number of limbs. All other sizes use the generic
+   * implementation.
+   * @param modulus A valid modulus. Not copied.
+   * @param lazyReduction Whether {@link #powMod} uses lazy reduction.
+   * @return A Modulus object.
+   */
+  protected static final Modulus newInstance(
+    final int[] modulus,
+    final boolean lazyReduction)
+  {
+    if((modulus[0] & 1) == 0)
+      return new EvenModulus(modulus, lazyReduction);
+    final Modulus solinas = SolinasModulus.fromSpecialForm(modulus, lazyReduction);
+    if(solinas != null)
+      return solinas;
+    switch(modulus.length) {
+    case 32:
+      return new Modulus1024(modulus, lazyReduction);
+    case 64:
+      return new Modulus2048(modulus, lazyReduction);
+    case 96:
+      return new Modulus3072(modulus, lazyReduction);
+    case 128:
+      return new Modulus4096(modulus, lazyReduction);
+    default:
+      return new Modulus(modulus, lazyReduction);
+    }
+  }
+  
+  /**
+   * Check that {@code modulus} is a valid modulus and make a defensive copy
+   * without leading zero limbs.
+   * @param modulus The value of the modulus.
+   * @return A copy of {@code modulus}.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is zero.
+   */
+  protected static final int[] toModulusArray(final int[] modulus) throws
+    IllegalArgumentException,
+    NullPointerException
   {
     if(modulus == null)
       throw new NullPointerException("modulus must not be null");
-    if(modulus.length == 0)
-      throw new IllegalArgumentException("modulus must not be empty");
-    if((modulus[0] & 1) == 0)
-      throw new IllegalArgumentException("modulus must be odd");
-    if((modulus[modulus.length-1] & 0x80000000) == 0)
-      throw new IllegalArgumentException("modulus must be normalised");
-    return new Modulus(modulus.clone());
+    int length = modulus.length;
+    while(length > 0 && modulus[length-1] == 0)
+      --length;
+    if(length == 0)
+      throw new IllegalArgumentException("modulus must be positive");
+    final int[] m = new int[length];
+    for(int i = 0; i < length; ++i)
+      m[i] = modulus[i];
+    return m;
   }
   
-  public static final Modulus valueOf(final BigInteger modulus) {
+  /**
+   * Check that {@code modulus} is a valid modulus and convert it to a
+   * little-endian array of ints without leading zero limbs.
+   * @param modulus The value of the modulus.
+   * @return The little-endian representation of {@code modulus}.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is not positive.
+   */
+  protected static final int[] toModulusArray(final BigInteger modulus) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
     if(modulus == null)
       throw new NullPointerException("modulus must not be null");
     if(modulus.signum() <= 0)
       throw new IllegalArgumentException("modulus must be positive");
-    if(!modulus.testBit(0))
+    return Convert.fromBigInteger(
+      modulus,
+      new int[(modulus.bitLength() + 31) / 32]);
+  }
+  
+  /**
+   * Check that a validated modulus is odd, as required by the Montgomery
+   * operations.
+   * @param modulus A validated modulus.
+   * @return {@code modulus}.
+   * @throws IllegalArgumentException If {@code modulus} is even.
+   */
+  protected static final int[] requireOdd(final int[] modulus) throws
+    IllegalArgumentException
+  {
+    if((modulus[0] & 1) == 0)
       throw new IllegalArgumentException("modulus must be odd");
-    if(modulus.bitLength() % 32 != 0)
-      throw new IllegalArgumentException("modulus must be normalised");
-    
-    // Convert the big-endian representation of modulus to a little-endian
-    // array of ints.
-    int size = modulus.bitLength() / 32;
-    int[] m = new int[size];
-    byte[] b = modulus.toByteArray();
-    for(int i = b.length, j = 0; i > 0; i -= 4, ++j) {
-      m[j] = (b[i-1] & 0xFF)
-        | ((b[i-2] & 0xFF) << 8)
-        | ((b[i-3] & 0xFF) << 16)
-        | ((b[i-4] & 0xFF) << 24);
-    }
-    
-    return new Modulus(m);
+    return modulus;
   }
   
   /**
@@ -191,19 +548,60 @@ public class Modulus {
     return overflow < 0;
   }
   
-  public final void mod(final int[] value) {
+  /**
+   * Reduce {@code value} modulo the modulus in place. The limbs of
+   * {@code value} above the length of the modulus are set to zero.
+   * 
+   * This method takes constant-time with respect to {@code value.length}.
+   * @param value A little-endian number.
+   */
+  public void mod(final int[] value) {
+    modByDivision(value);
+  }
+  
+  /**
+   * {@link #mod} by long division. Unlike {@code mod} this cannot be
+   * overridden, so it is safe to call during construction.
+   * @param value A little-endian number.
+   */
+  protected final void modByDivision(final int[] value) {
     assert value != null;
     
     // Shortcut (note we only need constant-time for operands of the same length)
     if(value.length < modulus.length)
       return;
-        
+    
+    // value = value mod (m << s), which is congruent to value mod m but may
+    // be up to 2^s times too big
+    divideNormalised(value);
+    if(normalisationShift == 0)
+      return;
+    
+    // ((value << s) mod (m << s)) >> s = value mod m, in a fixed one limb
+    // longer buffer rather than by shifting a dividend of any length
+    final int[] t = divisionScratch;
+    final int mn = modulus.length;
+    final int s = normalisationShift;
+    t[0] = value[0] << s;
+    for(int i = 1; i < mn; ++i)
+      t[i] = (value[i] << s) | (value[i-1] >>> (32 - s));
+    t[mn] = value[mn-1] >>> (32 - s);
+    divideNormalised(t);
+    for(int i = 0; i < mn; ++i)
+      value[i] = (t[i] >>> s) | (t[i+1] << (32 - s));
+  }
+  
+  /**
+   * Reduce {@code value} modulo {@link #normalisedModulus} in place.
+   * @param value A little-endian number at least as long as the modulus.
+   */
+  private final void divideNormalised(final int[] value) {
     // Numerator (dividend)
     final int[] n = value;
     final int nn = n.length;
     
     // Denominator (divisor)
-    final int[] d = modulus;
+    final int[] d = normalisedModulus;
     final int dn = d.length;
     final long dInv = modulusInverse & MASK32;
     
@@ -277,26 +675,32 @@ public class Modulus {
    * @return
    */
   protected final void calculateMontgomeryIdentity(final int[] result) {
-    // Calculate 2^(32*n) mod m where m = modulus and n = modulus.length. This
-    // is equivalent to 2^(32*n) - m, since 2^(32*n) > m since the highest bit
-    // of m is set. The procedure below/ is equivalent to
-    // subtract(new int[modulus.length], 1L, modulus, 0L, result)
-    // but avoids explicitly representing the first argument.
+    // 2^(32*n) mod m where m = modulus and n = modulus.length, calculated once
+    // during construction
     assert result.length >= modulus.length;
-    long overflow = 0L;
-    for(int i = 0; i < modulus.length; ++i) {
-      overflow -= modulus[i] & MASK32;
-      result[i] = (int)overflow;
-      overflow >>= 32;
-    }
-    assert overflow == -1L;
+    for(int i = 0; i < modulus.length; ++i)
+      result[i] = montgomeryIdentity[i];
   }
   
-  // Transform a value into the montgomery domain
-  // TODO is this necessary if we have calculateMontgomeryPowers?
+  /**
+   * Transform a value into the Montgomery domain, i.e. set
+   * {@code value = value * R mod modulus} where R = 2^(32*modulus.length).
+   * Performed as a Montgomery multiplication by the precomputed R^2.
+   * @param value A value less than the modulus.
+   */
   protected final void montgomeryTransform(final int[] value) {
+    assert value.length == modulus.length;
+    multiplyReduce(value, montgomerySquare);
+  }
+  
+  /**
+   * {@link #montgomeryTransform} by shifting and long division. Used to
+   * calculate R^2 during construction, and kept for comparison in
+   * {@link Main#timeMontgomeryTransform}.
+   * @param value A value less than the modulus.
+   */
+  protected final void montgomeryTransformByDivision(final int[] value) {
     assert (modulus[0] & 1) == 1; // Must be odd
-    assert (modulus[modulus.length-1] & 0x80000000) != 0; // Must be normalised
     assert value.length <= modulus.length;
     // TODO assert value < modulus
     
@@ -307,7 +711,7 @@ public class Modulus {
     }
     
     // (v << (32 * mn)) % m
-    mod(scratch); // TODO barret reduction?
+    modByDivision(scratch); // TODO barret reduction?
     
     // ((v << (32 * mn)) % m) & ((1 << (32 * mn + 1)) - 1)
     for(int i = 0; i < modulus.length; ++i)
@@ -315,9 +719,67 @@ public class Modulus {
   }
   
   // Reduce a value in the montgomery domain
-  protected final void montgomeryReduce(final int[] value) {
+  protected void montgomeryReduce(final int[] value) {
+    //assert value.length == 2 * modulus.length;
+    final int[] v = value;
+    final int mn = modulus.length;
+    
+    montgomeryReduceOverflows(v);
+    
+    // Shift right and integrate overflows, check if we need to subtract modulus
+    // TODO integrate maskedSubtract
+    long overflow = 0L;
+    long borrow = 0L;
+    for(int i = 0; i < mn; ++i) {
+      overflow += (v[i] & MASK32) + (v[i+mn] & MASK32);
+      v[i] = (int)overflow;
+      v[i+mn] = 0;
+      overflow >>>= 32;
+    
+      borrow += (v[i] & MASK32) - (modulus[i] & MASK32);
+      borrow >>= 32;
+    }
+    //assert overflow == 0L || overflow == 1L;
+    //assert borrow == 0L || borrow == -1L;
+    // Subtract the modulus unless the value is less than it. The value is at
+    // most the modulus when the input came from the lazy operations, so this
+    // must also subtract when the value equals the modulus.
+    final long mask = ~borrow | -overflow;
+    maskedSubtract(mn, v, 0, modulus, 0, (int)mask);
+    //assert isLessThanModulus(value);
+  }
+  
+  /**
+   * Like {@link #montgomeryReduce}, except that the result is only reduced
+   * below 2^(32*n) rather than below the modulus. The input must be less than
+   * 2^(32*n) * modulus.
+   */
+  protected void montgomeryReduceLazy(final int[] value) {
+    final int[] v = value;
+    final int mn = modulus.length;
+    
+    montgomeryReduceOverflows(v);
+    
+    // Shift right and integrate overflows. The result is less than
+    // 2^(32*mn) + modulus, so subtract the modulus only if it overflowed.
+    long overflow = 0L;
+    for(int i = 0; i < mn; ++i) {
+      overflow += (v[i] & MASK32) + (v[i+mn] & MASK32);
+      v[i] = (int)overflow;
+      v[i+mn] = 0;
+      overflow >>>= 32;
+    }
+    maskedSubtract(mn, v, 0, modulus, 0, -(int)overflow);
+  }
+  
+  /**
+   * The reduction loop shared by {@link #montgomeryReduce} and
+   * {@link #montgomeryReduceLazy}. Adds a multiple of the modulus to
+   * {@code value} so that its low n limbs are zero, and stores the overflows
+   * from each row in those low limbs instead.
+   */
+  private final void montgomeryReduceOverflows(final int[] value) {
     //assert (modulus[0] & 0x00000001) != 0; // Odd number
-    //assert (modulus[modulus.length - 1] & 0x80000000) != 0; // MSB is set
     //assert value.length == 2 * modulus.length;
     
     final int[] v = value;
@@ -338,82 +800,238 @@ public class Modulus {
       //assert v[i] == 0;
       v[i] = (int)overflow;
     }
-    
-    // Shift right and integrate overflows, check if we need to subtract modulus
-    // TODO integrate maskedSubtract
-    long overflow = 0L;
-    long mask = 0L;
-    for(int i = 0; i < mn; ++i) {
-      overflow += (v[i] & MASK32) + (v[i+mn] & MASK32);
-      v[i] = (int)overflow;
-      v[i+mn] = 0;
-      overflow >>>= 32;
-    
-      mask += (modulus[i] & MASK32) - (v[i] & MASK32);
-      mask >>= 32;
-    }
-    mask -= overflow;
-    //assert overflow == 0L || overflow == 1L;
-    //assert mask == 0L || mask == -1L;
-    //assert overflow == 0L || mask == -1L;
-    maskedSubtract(mn, v, 0, modulus, 0, (int)mask);
-    //assert isLessThanModulus(value);
-    
-    // TODO do we really need the result to be mod modulus or can it just be
-    //      less than the next power of two???
   }
   
-  protected final void calculateMontgomeryPowers(int[] base, int[][] result) {
+  /**
+   * Calculate the Montgomery representations of {@code base^0, ...,
+   * base^(k-1)} into an interleaved table, where
+   * {@code k = table.length / modulus.length}. Limb {@code j} of power
+   * {@code i} is stored at {@code table[j * k + i]}, so that the k values of
+   * each limb are adjacent. See {@link #select}.
+   * @param base A value less than the modulus.
+   * @param table The table of powers, of length a multiple of the modulus
+   * length.
+   */
+  protected final void calculateMontgomeryPowers(
+    final int[] base,
+    final int[] table)
+  {
     assert base.length == modulus.length;
     assert isLessThanModulus(base);
+    assert table.length % modulus.length == 0;
     
-    if(result.length < 1)
+    final int mn = modulus.length;
+    final int k = table.length / mn;
+    if(k < 1)
       return;
     
     // Calculate montgomery representation of base^0
-    calculateMontgomeryIdentity(result[0]);
+    final int[] power = new int[mn];
+    calculateMontgomeryIdentity(power);
+    for(int j = 0; j < mn; ++j)
+      table[j * k] = power[j];
     
-    if(result.length < 2)
+    if(k < 2)
       return;
-
+    
     // Calculate montgomery representation of base^1
-    for(int i = 0; i < modulus.length; ++i)
-      result[1][i] = base[i];
-    montgomeryTransform(result[1]);
-
+    long time = SjmpMetrics.start();
+    final int[] base1 = base.clone();
+    montgomeryTransform(base1);
+    time = SjmpMetrics.record(SjmpMetrics.Phase.TRANSFORM, time);
+    for(int j = 0; j < mn; ++j)
+      table[j * k + 1] = power[j] = base1[j];
+    
     // Calculate montgomery representation of base^i for i > 1
-    for(int i = 2; i < result.length; ++i) {
-      multiply(result[1], result[i-1], scratch);
+    for(int i = 2; i < k; ++i) {
+      multiply(base1, power, scratch);
       montgomeryReduce(scratch);
-      for(int j = 0; j < modulus.length; ++j)
-        result[i][j] = scratch[j];
+      for(int j = 0; j < mn; ++j)
+        table[j * k + i] = power[j] = scratch[j];
     }
+    SjmpMetrics.record(SjmpMetrics.Phase.PRECOMPUTE, time);
   }
+
   
   /**
    * Multiply the {@code multiplicand} by {@code multiplier}, perform a
    * Montgomery reduction, and place the result in the {@code multiplicand}.
+   * The {@code multiplicand} and {@code multiplier} may be the same array.
    * @param multiplicand
    * @param multiplier
    */
-  protected final void multiplyReduce(
+  protected void multiplyReduce(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    switch(multiplyStrategy) {
+    case SOS:
+      multiplyReduceSOS(multiplicand, multiplier);
+      break;
+    case CIOS:
+      multiplyReduceCIOS(multiplicand, multiplier);
+      break;
+    default:
+      multiplyReduceFIOS(multiplicand, multiplier);
+    }
+  }
+  
+  /**
+   * {@link #multiplyReduce} using {@link MontgomeryStrategy#SOS}.
+   */
+  protected final void multiplyReduceSOS(
     final int[] multiplicand,
     final int[] multiplier)
   {
-    // NOTE these length assertions could probably be relaxed
     assert multiplicand != null;
     assert multiplier != null;
     assert multiplicand.length == modulus.length;
     assert multiplier.length == modulus.length;
     
-    // Perform a simultaneous multiplication and Mongomery reduction.
+    multiply(multiplicand, multiplier, scratch);
+    montgomeryReduce(scratch);
+    for(int i = 0; i < modulus.length; ++i)
+      multiplicand[i] = scratch[i];
+  }
+  
+  /**
+   * {@link #multiplyReduce} using {@link MontgomeryStrategy#CIOS}.
+   */
+  protected final void multiplyReduceCIOS(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
     final long MASK = 0xFFFFFFFFL;
     final int[] a = multiplicand;
-    final int[] b = multiplier;
     final int[] m = modulus;
     final int[] s = scratch;
     final int length = m.length;
-    final long m0inv = montgomeryNegativeInverse & MASK;
+    final long top = multiplyReduceCIOSUnreduced(multiplicand, multiplier);
+    
+    // The result s + top * 2^(32*length) is less than 2 * modulus, so
+    // subtract the modulus if the result is at least the modulus.
+    long overflow = 0L;
+    for(int i = 0; i < length; ++i) {
+      overflow += (s[i] & MASK) - (m[i] & MASK);
+      s[i+length] = (int)overflow;
+      overflow >>= 32;
+    }
+    overflow += top;
+    final int mask0 = (int)overflow;
+    final int mask1 = ((int)(overflow >>> 63))-1;
+    for(int i = 0; i < length; ++i)
+      a[i] = (s[i] & mask0) | (s[i+length] & mask1);
+  }
+  
+  /**
+   * Like {@link #multiplyReduce}, except that the result is only reduced
+   * below 2^(32*n) rather than below the modulus, where n is the number of
+   * limbs in the modulus. The operands need only be less than 2^(32*n).
+   * Always uses {@link MontgomeryStrategy#CIOS}: the conditional subtraction
+   * is a single pass that writes the result, where the strict version
+   * subtracts into the scratch space and then selects in a second pass.
+   * @param multiplicand
+   * @param multiplier
+   */
+  protected void multiplyReduceLazy(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    final int[] a = multiplicand;
+    final int[] m = modulus;
+    final int[] s = scratch;
+    final int length = m.length;
+    final long top = multiplyReduceCIOSUnreduced(multiplicand, multiplier);
+    
+    // The result s + top * 2^(32*length) is less than 2^(32*length) + modulus,
+    // so subtract the modulus only if the result overflowed. The subtraction
+    // writes straight into the multiplicand, in one pass.
+    final long mask = -top & MASK32;
+    long borrow = 0L;
+    for(int i = 0; i < length; ++i) {
+      borrow += (s[i] & MASK32) - (m[i] & mask);
+      a[i] = (int)borrow;
+      borrow >>= 32;
+    }
+  }
+  
+  /**
+   * The multiplication and reduction loop shared by
+   * {@link #multiplyReduceCIOS} and {@link #multiplyReduceLazy}. Leaves the
+   * low n limbs of the unreduced result in the scratch space and returns the
+   * top limb, which is either 0 or 1.
+   */
+  private final long multiplyReduceCIOSUnreduced(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    assert multiplicand != null;
+    assert multiplier != null;
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    
+    final long MASK = 0xFFFFFFFFL;
+    final int[] a = multiplicand;
+    final int[] b = multiplier;
+    final int[] m = modulus;
+    final int[] s = scratch;
+    final int length = m.length;
+    final long m0inv = montgomeryNegativeInverse & MASK;
+    
+    // The running total is s[0, ..., length-1] + top * 2^(32*length) where
+    // top is at most 33 bits.
+    long top = 0L;
+    for(int i = 0; i < length; ++i)
+      s[i] = 0;
+    for(int i = 0; i < length; ++i) {
+      // s += a * b[i]
+      final long multiplierLimb = b[i] & MASK;
+      long overflow = 0L;
+      for(int j = 0; j < length; ++j) {
+        overflow += (s[j] & MASK) + multiplierLimb * (a[j] & MASK);
+        s[j] = (int)overflow;
+        overflow >>>= 32;
+      }
+      top += overflow;
+      
+      // s = (s + m * reducer) / 2^32
+      final long reducer = ((s[0] & MASK) * m0inv) & MASK;
+      overflow = ((s[0] & MASK) + reducer * (m[0] & MASK)) >>> 32;
+      for(int j = 1; j < length; ++j) {
+        overflow += (s[j] & MASK) + reducer * (m[j] & MASK);
+        s[j-1] = (int)overflow;
+        overflow >>>= 32;
+      }
+      overflow += top & MASK;
+      s[length-1] = (int)overflow;
+      top = (top >>> 32) + (overflow >>> 32);
+    }
+    assert top == 0L || top == 1L;
+    return top;
+  }
+
+  
+  /**
+   * {@link #multiplyReduce} using {@link MontgomeryStrategy#FIOS}.
+   */
+  protected final void multiplyReduceFIOS(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    // NOTE these length assertions could probably be relaxed
+    assert multiplicand != null;
+    assert multiplier != null;
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    
+    // Perform a simultaneous multiplication and Mongomery reduction.
+    final long MASK = 0xFFFFFFFFL;
+    final int[] a = multiplicand;
+    final int[] b = multiplier;
+    final int[] m = modulus;
+    final int[] s = scratch;
+    final int length = m.length;
+    final long m0inv = montgomeryNegativeInverse & MASK;
     for(int i = 0; i < s.length; ++i)
       s[i] = 0;
     for(int i = 0; i < length; ++i) {
@@ -465,23 +1083,117 @@ public class Modulus {
    * the result in the {@code multiplicand}.
    * @param multiplicand
    */
-  protected final void squareReduce(final int[] multiplicand) {
-    multiplyReduce(multiplicand, multiplicand); // TODO optimise
+  protected void squareReduce(final int[] multiplicand) {
+    switch(squareStrategy) {
+    case SOS:
+      squareReduceSOS(multiplicand);
+      break;
+    case CIOS:
+      multiplyReduceCIOS(multiplicand, multiplicand);
+      break;
+    default:
+      multiplyReduceFIOS(multiplicand, multiplicand);
+    }
+  }
+  
+  /**
+   * Like {@link #squareReduce}, except that the result is only reduced below
+   * 2^(32*n) rather than below the modulus. See {@link #multiplyReduceLazy}.
+   * @param multiplicand
+   */
+  protected void squareReduceLazy(final int[] multiplicand) {
+    if(squareStrategy != MontgomeryStrategy.SOS) {
+      multiplyReduceLazy(multiplicand, multiplicand);
+      return;
+    }
+    Operations.square(multiplicand, scratch);
+    montgomeryReduceLazy(scratch);
+    for(int i = 0; i < modulus.length; ++i)
+      multiplicand[i] = scratch[i];
   }
   
-  protected final void select(
+  /**
+   * {@link #squareReduce} using {@link MontgomeryStrategy#SOS}.
+   */
+  protected final void squareReduceSOS(final int[] multiplicand) {
+    assert multiplicand != null;
+    assert multiplicand.length == modulus.length;
+    
+    Operations.square(multiplicand, scratch);
+    montgomeryReduce(scratch);
+    for(int i = 0; i < modulus.length; ++i)
+      multiplicand[i] = scratch[i];
+  }
+  
+  /**
+   * Constant-time table lookup. Set {@code result} to entry {@code index} of
+   * an interleaved {@code table} built by {@link #calculateMontgomeryPowers}.
+   * 
+   * Every entry is read for every limb, and since the entries of a limb are
+   * adjacent the same contiguous region of memory (one 64-byte cache line per
+   * limb for a 16 entry table) is scanned in the same order whatever the
+   * index.
+   * @param index The index of the entry to select.
+   * @param table An interleaved table of {@code table.length / result.length}
+   * entries.
+   * @param result The selected entry.
+   */
+  protected static final void select(
     final int index,
-    final int[][] table,
+    final int[] table,
     final int[] result)
   {
-    for(int i = 0; i < result.length; ++i)
-      result[i] = 0;
-    for(int i = 0; i < table.length; ++i) {
+    assert table.length % result.length == 0;
+    final int k = table.length / result.length;
+    if(k == 16) {
+      select16(index, table, result);
+      return;
+    }
+    final int[] masks = new int[k];
+    for(int i = 0; i < k; ++i) {
       // mask == 0x00000000 if i != index
       // mask == 0xFFFFFFFF if i == index
-      final int mask = (((index-i)|(i-index)) >>> 31)-1;
-      for(int j = 0; j < result.length; ++j)
-        result[j] |= table[i][j] & mask;
+      masks[i] = (((index-i)|(i-index)) >>> 31)-1;
+    }
+    for(int j = 0, offset = 0; j < result.length; ++j, offset += k) {
+      int value = 0;
+      for(int i = 0; i < k; ++i)
+        value |= table[offset + i] & masks[i];
+      result[j] = value;
+    }
+  }
+  
+  /**
+   * {@link #select} for the 16 entry tables used by {@link #powMod}, with the
+   * masks held in locals and the gather unrolled as a tree of ORs.
+   */
+  private static final void select16(
+    final int index,
+    final int[] t,
+    final int[] result)
+  {
+    final int m0 = ((index|-index) >>> 31)-1;
+    final int m1 = (((index-1)|(1-index)) >>> 31)-1;
+    final int m2 = (((index-2)|(2-index)) >>> 31)-1;
+    final int m3 = (((index-3)|(3-index)) >>> 31)-1;
+    final int m4 = (((index-4)|(4-index)) >>> 31)-1;
+    final int m5 = (((index-5)|(5-index)) >>> 31)-1;
+    final int m6 = (((index-6)|(6-index)) >>> 31)-1;
+    final int m7 = (((index-7)|(7-index)) >>> 31)-1;
+    final int m8 = (((index-8)|(8-index)) >>> 31)-1;
+    final int m9 = (((index-9)|(9-index)) >>> 31)-1;
+    final int m10 = (((index-10)|(10-index)) >>> 31)-1;
+    final int m11 = (((index-11)|(11-index)) >>> 31)-1;
+    final int m12 = (((index-12)|(12-index)) >>> 31)-1;
+    final int m13 = (((index-13)|(13-index)) >>> 31)-1;
+    final int m14 = (((index-14)|(14-index)) >>> 31)-1;
+    final int m15 = (((index-15)|(15-index)) >>> 31)-1;
+    for(int j = 0, o = 0; j < result.length; ++j, o += 16) {
+      result[j] =
+        (((t[o]    & m0)  | (t[o+1]  & m1))  | ((t[o+2]  & m2)  | (t[o+3]  & m3)))  |
+        (((t[o+4]  & m4)  | (t[o+5]  & m5))  | ((t[o+6]  & m6)  | (t[o+7]  & m7)))  |
+        (((t[o+8]  & m8)  | (t[o+9]  & m9))  | ((t[o+10] & m10) | (t[o+11] & m11))) |
+        (((t[o+12] & m12) | (t[o+13] & m13)) | ((t[o+14] & m14) | (t[o+15] & m15)));
     }
   }
   
@@ -676,7 +1388,863 @@ public class Modulus {
     b[bLength - 1] = (int)overflow;
   }
 
-  protected final void powMod(
+  /**
+   * @return The number of limbs in the modulus, which is the length of the
+   * values taken by the public operations of this class.
+   */
+  public int length() {
+    return modulus.length;
+  }
+  
+  /**
+   * @return The value of the modulus.
+   */
+  public BigInteger toBigInteger() {
+    return Convert.toBigInteger(modulus);
+  }
+  
+  /**
+   * @return The limbs of the modulus, with length {@link #length()}. Shared,
+   * so callers must not modify it.
+   */
+  int[] limbs() {
+    return modulus;
+  }
+  
+  /**
+   * Set {@code result = value^-1 mod m} if {@code value} is invertible.
+   * 
+   * Uses the constant-time binary extended GCD of Niels Moller (as in GMP's
+   * {@code mpn_sec_invert}): 64 iterations per limb of the modulus, each of
+   * which performs the same masked subtractions, swaps and halvings whatever
+   * the values. Only the returned flag depends on {@code value}.
+   * 
+   * @param value A value less than the modulus, with the modulus' length.
+   * @param result Holds the inverse, or an unspecified value if
+   * {@code value} is not invertible. Has the modulus' length and may be the
+   * same array as {@code value}.
+   * @return Whether {@code value} is invertible, i.e. coprime to the modulus.
+   */
+  public boolean invertMod(final int[] value, final int[] result) {
+    assert value.length == modulus.length;
+    assert result.length == modulus.length;
+    assert isLessThanModulus(value);
+    
+    final int[] m = modulus;
+    final int n = m.length;
+    
+    // Invariants: a = u * value and b = v * value (mod m), b is odd
+    final int[] a = value.clone();
+    final int[] b = m.clone();
+    final int[] u = new int[n];
+    final int[] v = new int[n];
+    u[0] = 1;
+    
+    // (m + 1) / 2, for halving modulo m
+    final int[] halfM = new int[n];
+    shiftRight(m, 1, halfM);
+    Operations.add(halfM, u); // u is one
+    
+    for(int iteration = 64 * n; iteration > 0; --iteration) {
+      // If a is odd: a = a - b, and if that borrowed then b = old a and
+      // a = -a, i.e. a = |a - b| and b = min(a, b)
+      final int odd = -(a[0] & 1);
+      final int swap = maskedSubtract(n, a, 0, b, 0, odd);
+      maskedAdd(n, b, 0, a, 0, swap);
+      long carry = swap & 1;
+      for(int i = 0; i < n; ++i) {
+        carry += (a[i] ^ swap) & MASK32;
+        a[i] = (int)carry;
+        carry >>>= 32;
+      }
+      for(int i = 0; i < n; ++i) {
+        final int t = (u[i] ^ v[i]) & swap;
+        u[i] ^= t;
+        v[i] ^= t;
+      }
+      
+      // u = u - v mod m, matching a
+      final int borrow = maskedSubtract(n, u, 0, v, 0, odd);
+      maskedAdd(n, u, 0, m, 0, borrow);
+      
+      // a = a / 2 and u = u / 2 mod m
+      shiftRight(a, 1, a);
+      final int uOdd = -(u[0] & 1);
+      shiftRight(u, 1, u);
+      maskedAdd(n, u, 0, halfM, 0, uOdd);
+    }
+    
+    // b is now gcd(value, m) and v its coefficient
+    int notOne = b[0] ^ 1;
+    for(int i = 1; i < n; ++i)
+      notOne |= b[i];
+    for(int i = 0; i < n; ++i)
+      result[i] = v[i];
+    return notOne == 0;
+  }
+  
+  /**
+   * Set {@code results[i] = values[i]^-1 mod m} for every {@code i}, with a
+   * single inversion (Montgomery's trick).
+   * 
+   * With c_i = values[0] * ... * values[i], the inverse of c_(k-1) gives
+   * values[k-1]^-1 = c_(k-1)^-1 * c_(k-2), and c_(k-2)^-1 = c_(k-1)^-1 *
+   * values[k-1], and so on down to values[0]. The prefix products are built
+   * in {@code results} and all products are Montgomery multiplications whose
+   * factors of R^-1 cancel, so the batch costs one {@link #invertMod} and
+   * 3(k-1) Montgomery multiplications. Its running time depends only on the
+   * number and length of the values.
+   * 
+   * @param values Values less than the modulus, each with the modulus'
+   * length. Not modified.
+   * @param results Holds the inverses. Each array has the modulus' length and
+   * must not be any of the arrays in {@code values}.
+   * @return Whether every value is invertible. If not, all of
+   * {@code results} are unspecified; use {@link #invertMod} to find the
+   * values that are not invertible.
+   */
+  public final boolean invertBatch(final int[][] values, final int[][] results) {
+    assert values.length == results.length;
+    return invertBatch(values, results, 0, values.length);
+  }
+  
+  /**
+   * {@link #invertBatch(int[][], int[][])} for the entries
+   * {@code [offset, offset + length)} of {@code values} and {@code results}.
+   */
+  protected boolean invertBatch(
+    final int[][] values,
+    final int[][] results,
+    final int offset,
+    final int length)
+  {
+    if(length == 0)
+      return true;
+    final int n = modulus.length;
+    final int end = offset + length;
+    
+    // results[i] = c_i * R^-(i - offset)
+    Convert.copy(values[offset], results[offset]);
+    for(int i = offset + 1; i < end; ++i) {
+      assert results[i] != values[i];
+      Convert.copy(results[i-1], results[i]);
+      multiplyReduce(results[i], values[i]);
+    }
+    
+    // t = c_i^-1 * R^(i - offset), starting with i = end - 1
+    final int[] t = new int[n];
+    final boolean invertible = invertMod(results[end-1], t);
+    for(int i = end - 1; i > offset; --i) {
+      Convert.copy(t, results[i]);
+      multiplyReduce(results[i], results[i-1]);
+      multiplyReduce(t, values[i]);
+    }
+    Convert.copy(t, results[offset]);
+    return invertible;
+  }
+  
+  /**
+   * {@link #invertBatch(int[][], int[][])} split into chunks that are
+   * inverted in parallel on the common fork/join pool, each with its own
+   * {@link #fork} of this modulus. Each chunk costs one inversion, so chunks
+   * should be large enough that the inversion is a small part of their cost.
+   * 
+   * @param chunkSize The number of values per chunk. Must be positive.
+   * @return Whether every value is invertible.
+   */
+  public final boolean invertBatch(
+    final int[][] values,
+    final int[][] results,
+    final int chunkSize)
+  {
+    assert values.length == results.length;
+    assert chunkSize > 0;
+    final List<InvertBatchTask> tasks = new ArrayList<InvertBatchTask>();
+    for(int offset = 0; offset < values.length; offset += chunkSize)
+      tasks.add(new InvertBatchTask(
+        this,
+        values,
+        results,
+        offset,
+        Math.min(chunkSize, values.length - offset)));
+    boolean invertible = true;
+    for(InvertBatchTask task : ForkJoinTask.invokeAll(tasks))
+      invertible &= task.join();
+    return invertible;
+  }
+  
+  /**
+   * One chunk of a parallel {@link #invertBatch(int[][], int[][], int)}.
+   */
+  private static final class InvertBatchTask extends RecursiveTask<Boolean> {
+    private static final long serialVersionUID = 1L;
+
+    private final Modulus modulus;
+    private final int[][] values;
+    private final int[][] results;
+    private final int offset;
+    private final int length;
+    
+    InvertBatchTask(
+      final Modulus modulus,
+      final int[][] values,
+      final int[][] results,
+      final int offset,
+      final int length)
+    {
+      this.modulus = modulus;
+      this.values = values;
+      this.results = results;
+      this.offset = offset;
+      this.length = length;
+    }
+    
+    @Override
+    protected Boolean compute() {
+      return modulus.fork().invertBatch(values, results, offset, length);
+    }
+  }
+  
+  /**
+   * Set {@code result = values[0] * ... * values[k-1] mod m}, or 1 mod m if
+   * there are no values.
+   * 
+   * The product is built with Montgomery multiplications without converting
+   * the values into the Montgomery domain: each multiplication adds a factor
+   * of R^-1, so the product of k values is off by R^-(k-1) however the
+   * multiplications are grouped. That is corrected once at the end with a
+   * multiplication by R^k mod m, found by an exponentiation with a
+   * (log k)-bit exponent. The product costs k Montgomery multiplications
+   * plus the exponentiation, and its running time depends only on the number
+   * and length of the values.
+   * 
+   * @param values Values less than the modulus, each with the modulus'
+   * length. Not modified.
+   * @param result Holds the product. Has the modulus' length and may be one
+   * of the arrays in {@code values}.
+   */
+  public final void product(final int[][] values, final int[] result) {
+    final int[] t = new int[result.length];
+    productUnreduced(values, 0, values.length, t);
+    productCorrect(values.length, t, result);
+  }
+  
+  /**
+   * {@link #product(int[][], int[])} as a tree of fork/join tasks on the
+   * common pool: ranges of at most {@code chunkSize} values are multiplied
+   * by a {@link #fork} of this modulus each, and the partial products
+   * combined pairwise as the tasks complete. Idle workers steal the
+   * unstarted halves of larger ranges, so the load balances itself.
+   * 
+   * @param chunkSize The largest number of values multiplied by one task.
+   * Must be positive.
+   */
+  public final void product(
+    final int[][] values,
+    final int[] result,
+    final int chunkSize)
+  {
+    assert chunkSize > 0;
+    final int[] t;
+    if(values.length == 0) {
+      t = new int[result.length];
+      productUnreduced(values, 0, 0, t);
+    } else {
+      t = new ProductTask(this, values, 0, values.length, chunkSize).invoke();
+    }
+    productCorrect(values.length, t, result);
+  }
+  
+  /**
+   * Set {@code result} to the product of the entries
+   * {@code [offset, offset + length)} of {@code values} times R^-(length-1),
+   * which is R mod m if {@code length == 0}. {@code result} must not be any
+   * of those entries but the first.
+   */
+  protected void productUnreduced(
+    final int[][] values,
+    final int offset,
+    final int length,
+    final int[] result)
+  {
+    if(length == 0) {
+      calculateMontgomeryIdentity(result);
+      return;
+    }
+    Convert.copy(values[offset], result);
+    for(int i = offset + 1; i < offset + length; ++i) {
+      assert result != values[i];
+      multiplyReduce(result, values[i]);
+    }
+  }
+  
+  /**
+   * Multiply two results of {@link #productUnreduced} into
+   * {@code multiplicand}, so that their factors of R^-1 add up.
+   */
+  protected void productCombine(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    multiplyReduce(multiplicand, multiplier);
+  }
+  
+  /**
+   * Set {@code result} to the product of {@code count} values given the
+   * result of {@link #productUnreduced} for all of them.
+   */
+  protected void productCorrect(
+    final long count,
+    final int[] value,
+    final int[] result)
+  {
+    // R^count mod m, then value * R^count * R^-1 = product
+    final int[] exponent = new int[] { (int)count, (int)(count >>> 32) };
+    final int[] identity = new int[result.length];
+    calculateMontgomeryIdentity(identity);
+    powMod(identity, exponent, result);
+    multiplyReduce(result, value);
+  }
+  
+  /**
+   * One range of a parallel {@link #product(int[][], int[], int)}.
+   */
+  private static final class ProductTask extends RecursiveTask<int[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final Modulus modulus;
+    private final int[][] values;
+    private final int offset;
+    private final int length;
+    private final int chunkSize;
+    
+    ProductTask(
+      final Modulus modulus,
+      final int[][] values,
+      final int offset,
+      final int length,
+      final int chunkSize)
+    {
+      this.modulus = modulus;
+      this.values = values;
+      this.offset = offset;
+      this.length = length;
+      this.chunkSize = chunkSize;
+    }
+    
+    @Override
+    protected int[] compute() {
+      final Modulus fork = modulus.fork();
+      if(length <= chunkSize) {
+        final int[] result = new int[fork.length()];
+        fork.productUnreduced(values, offset, length, result);
+        return result;
+      }
+      final int half = length / 2;
+      final ProductTask right = new ProductTask(
+        modulus, values, offset + half, length - half, chunkSize);
+      right.fork();
+      final int[] left = new ProductTask(
+        modulus, values, offset, half, chunkSize).compute();
+      fork.productCombine(left, right.join());
+      return left;
+    }
+  }
+  
+  /**
+   * A {@link Collector} of the product modulo m of a stream of values less
+   * than the modulus, each with the modulus' length, or 1 mod m for an empty
+   * stream. Like {@link #product(int[][], int[])}, the values are multiplied
+   * without converting them into the Montgomery domain and the product is
+   * corrected once by the finisher. Each container of a parallel stream works
+   * on its own {@link #fork}. The values are not modified.
+   */
+  public final Collector<int[], ?, int[]> productCollector() {
+    return Collector.of(
+      new Supplier<ProductContainer>() {
+        @Override
+        public ProductContainer get() {
+          return new ProductContainer(fork());
+        }
+      },
+      new BiConsumer<ProductContainer, int[]>() {
+        @Override
+        public void accept(final ProductContainer container, final int[] value) {
+          container.add(value);
+        }
+      },
+      new BinaryOperator<ProductContainer>() {
+        @Override
+        public ProductContainer apply(
+          final ProductContainer left,
+          final ProductContainer right)
+        {
+          return left.combine(right);
+        }
+      },
+      new Function<ProductContainer, int[]>() {
+        @Override
+        public int[] apply(final ProductContainer container) {
+          return container.finish();
+        }
+      },
+      Collector.Characteristics.UNORDERED);
+  }
+  
+  /**
+   * The mutable container of {@link #productCollector}: the result of
+   * {@link #productUnreduced} for the values added so far.
+   */
+  private static final class ProductContainer {
+    private final Modulus modulus;
+    private final int[] value;
+    private long count;
+    
+    ProductContainer(final Modulus modulus) {
+      this.modulus = modulus;
+      this.value = new int[modulus.length()];
+    }
+    
+    void add(final int[] x) {
+      assert x.length == value.length;
+      if(count == 0)
+        Convert.copy(x, value);
+      else
+        modulus.productCombine(value, x);
+      ++count;
+    }
+    
+    ProductContainer combine(final ProductContainer other) {
+      if(other.count == 0)
+        return this;
+      if(count == 0)
+        return other;
+      modulus.productCombine(value, other.value);
+      count += other.count;
+      return this;
+    }
+    
+    int[] finish() {
+      final int[] result = new int[value.length];
+      if(count == 0)
+        modulus.productUnreduced(new int[0][], 0, 0, value);
+      modulus.productCorrect(count, value, result);
+      return result;
+    }
+  }
+  
+  /**
+   * Set {@code result = augend + addend mod m}. See
+   * {@link #addMod(int[], int, int[], int, int[], int)}.
+   */
+  public final void addMod(
+    final int[] augend,
+    final int[] addend,
+    final int[] result)
+  {
+    addMod(augend, 0, addend, 0, result, 0);
+  }
+  
+  /**
+   * Set {@code result = augend + addend mod m}, where each operand is the
+   * sub-array of the modulus' length starting at the given offset.
+   * 
+   * Both the sum and the sum minus the modulus are calculated in a single
+   * pass and the result is selected by masking, so this method will take
+   * constant-time with respect to the length of the modulus.
+   * 
+   * @param augend A value less than the modulus.
+   * @param addend A value less than the modulus.
+   * @param result Holds the sum. May be the same sub-array as either operand
+   * but must not otherwise overlap them.
+   */
+  public void addMod(
+    final int[] augend,
+    final int augendOffset,
+    final int[] addend,
+    final int addendOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    addMod(
+      modulus,
+      augend,
+      augendOffset,
+      addend,
+      addendOffset,
+      result,
+      resultOffset,
+      scratch);
+  }
+  
+  /**
+   * Set {@code result = minuend - subtrahend mod m}. See
+   * {@link #subMod(int[], int, int[], int, int[], int)}.
+   */
+  public final void subMod(
+    final int[] minuend,
+    final int[] subtrahend,
+    final int[] result)
+  {
+    subMod(minuend, 0, subtrahend, 0, result, 0);
+  }
+  
+  /**
+   * Set {@code result = minuend - subtrahend mod m}, where each operand is the
+   * sub-array of the modulus' length starting at the given offset.
+   * 
+   * Both the difference and the difference plus the modulus are calculated in
+   * a single pass and the result is selected by masking, so this method will
+   * take constant-time with respect to the length of the modulus.
+   * 
+   * @param minuend A value less than the modulus.
+   * @param subtrahend A value less than the modulus.
+   * @param result Holds the difference. May be the same sub-array as either
+   * operand but must not otherwise overlap them.
+   */
+  public void subMod(
+    final int[] minuend,
+    final int minuendOffset,
+    final int[] subtrahend,
+    final int subtrahendOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    subMod(
+      modulus,
+      minuend,
+      minuendOffset,
+      subtrahend,
+      subtrahendOffset,
+      result,
+      resultOffset,
+      scratch);
+  }
+  
+  /**
+   * Set {@code result = -value mod m}. See
+   * {@link #negMod(int[], int, int[], int)}.
+   */
+  public final void negMod(final int[] value, final int[] result) {
+    negMod(value, 0, result, 0);
+  }
+  
+  /**
+   * Set {@code result = -value mod m}, i.e. {@code m - value} unless
+   * {@code value} is zero, where each operand is the sub-array of the
+   * modulus' length starting at the given offset. This method will take
+   * constant-time with respect to the length of the modulus.
+   * 
+   * @param value A value less than the modulus.
+   * @param result Holds the negation. May be the same sub-array as
+   * {@code value} but must not otherwise overlap it.
+   */
+  public void negMod(
+    final int[] value,
+    final int valueOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    negMod(modulus, value, valueOffset, result, resultOffset);
+  }
+  
+  /**
+   * {@link #addMod} modulo {@code m}, using {@code temp} (of at least the
+   * length of {@code m}) for the sum minus the modulus.
+   */
+  protected static final void addMod(
+    final int[] m,
+    final int[] augend,
+    final int augendOffset,
+    final int[] addend,
+    final int addendOffset,
+    final int[] result,
+    final int resultOffset,
+    final int[] temp)
+  {
+    final int length = m.length;
+    assert augendOffset >= 0 && augendOffset + length <= augend.length;
+    assert addendOffset >= 0 && addendOffset + length <= addend.length;
+    assert resultOffset >= 0 && resultOffset + length <= result.length;
+    assert temp.length >= length;
+    
+    // result = augend + addend and temp = result - m
+    long carry = 0L;
+    long borrow = 0L;
+    for(int i = 0; i < length; ++i) {
+      carry += (augend[augendOffset + i] & MASK32)
+        + (addend[addendOffset + i] & MASK32);
+      borrow += (carry & MASK32) - (m[i] & MASK32);
+      result[resultOffset + i] = (int)carry;
+      temp[i] = (int)borrow;
+      carry >>>= 32;
+      borrow >>= 32;
+    }
+    
+    // Keep the sum if it is less than m, i.e. if subtracting m borrowed past
+    // the carry out of the addition
+    borrow += carry;
+    final int mask0 = (int)borrow;
+    final int mask1 = ~mask0;
+    for(int i = 0; i < length; ++i)
+      result[resultOffset + i] =
+        (result[resultOffset + i] & mask0) | (temp[i] & mask1);
+  }
+  
+  /**
+   * {@link #subMod} modulo {@code m}, using {@code temp} (of at least the
+   * length of {@code m}) for the difference plus the modulus.
+   */
+  protected static final void subMod(
+    final int[] m,
+    final int[] minuend,
+    final int minuendOffset,
+    final int[] subtrahend,
+    final int subtrahendOffset,
+    final int[] result,
+    final int resultOffset,
+    final int[] temp)
+  {
+    final int length = m.length;
+    assert minuendOffset >= 0 && minuendOffset + length <= minuend.length;
+    assert subtrahendOffset >= 0
+      && subtrahendOffset + length <= subtrahend.length;
+    assert resultOffset >= 0 && resultOffset + length <= result.length;
+    assert temp.length >= length;
+    
+    // result = minuend - subtrahend and temp = result + m
+    long borrow = 0L;
+    long carry = 0L;
+    for(int i = 0; i < length; ++i) {
+      borrow += (minuend[minuendOffset + i] & MASK32)
+        - (subtrahend[subtrahendOffset + i] & MASK32);
+      carry += (borrow & MASK32) + (m[i] & MASK32);
+      result[resultOffset + i] = (int)borrow;
+      temp[i] = (int)carry;
+      borrow >>= 32;
+      carry >>>= 32;
+    }
+    
+    // Add m back if the subtraction borrowed
+    final int mask1 = (int)borrow;
+    final int mask0 = ~mask1;
+    for(int i = 0; i < length; ++i)
+      result[resultOffset + i] =
+        (result[resultOffset + i] & mask0) | (temp[i] & mask1);
+  }
+  
+  /**
+   * {@link #negMod} modulo {@code m}.
+   */
+  protected static final void negMod(
+    final int[] m,
+    final int[] value,
+    final int valueOffset,
+    final int[] result,
+    final int resultOffset)
+  {
+    final int length = m.length;
+    assert valueOffset >= 0 && valueOffset + length <= value.length;
+    assert resultOffset >= 0 && resultOffset + length <= result.length;
+    
+    // result = m - value, and zero if value is zero
+    long borrow = 0L;
+    int nonZero = 0;
+    for(int i = 0; i < length; ++i) {
+      final int v = value[valueOffset + i];
+      nonZero |= v;
+      borrow += (m[i] & MASK32) - (v & MASK32);
+      result[resultOffset + i] = (int)borrow;
+      borrow >>= 32;
+    }
+    final int mask = -((nonZero | -nonZero) >>> 31);
+    for(int i = 0; i < length; ++i)
+      result[resultOffset + i] &= mask;
+  }
+  
+  /**
+   * Set {@code result = multiplicand * multiplier mod m}, with all values in
+   * the ordinary (not Montgomery) representation. This is the operation to use
+   * for a one-off product, e.g. adding two Paillier ciphertexts modulo n^2.
+   * 
+   * Moduli shorter than {@link #BARRETT_THRESHOLD} limbs use a Montgomery
+   * multiplication followed by a Montgomery multiplication by R^2 mod m, which
+   * cancels the factor R^-1 introduced by the first. Longer moduli use Barrett
+   * reduction, which needs about half as many limb-multiplications. Either
+   * way this method will take constant-time with respect to the length of the
+   * modulus.
+   * 
+   * @param multiplicand A value less than the modulus, with the modulus'
+   * length.
+   * @param multiplier A value less than the modulus, with the modulus' length.
+   * @param result Holds the product. Has the modulus' length and may be the
+   * same array as either operand.
+   */
+  public void multiplyMod(
+    final int[] multiplicand,
+    final int[] multiplier,
+    final int[] result)
+  {
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    assert result.length == modulus.length;
+    assert isLessThanModulus(multiplicand);
+    assert isLessThanModulus(multiplier);
+    
+    if(barrett != null) {
+      barrett.multiplyMod(multiplicand, multiplier, result);
+      return;
+    }
+    if(result == multiplier) {
+      multiplyReduce(result, multiplicand);
+    } else {
+      for(int i = 0; i < result.length; ++i)
+        result[i] = multiplicand[i];
+      multiplyReduce(result, multiplier);
+    }
+    multiplyReduce(result, montgomerySquare);
+  }
+  
+  /**
+   * Set {@code result = value^2 mod m}. See {@link #multiplyMod}.
+   * 
+   * @param value A value less than the modulus, with the modulus' length.
+   * @param result Holds the square. Has the modulus' length and may be the
+   * same array as {@code value}.
+   */
+  public void squareMod(final int[] value, final int[] result) {
+    assert value.length == modulus.length;
+    assert result.length == modulus.length;
+    assert isLessThanModulus(value);
+    
+    if(barrett != null) {
+      barrett.squareMod(value, result);
+      return;
+    }
+    for(int i = 0; i < result.length; ++i)
+      result[i] = value[i];
+    squareReduce(result);
+    multiplyReduce(result, montgomerySquare);
+  }
+  
+  /**
+   * Return a {@link #fork} of this modulus that knows a multiple of the order
+   * of the multiplicative group (e.g. phi(m) or lambda(m)). Exponents longer
+   * than the order are then reduced modulo the order before
+   * {@link #powMod}, so that the work it does is bounded by the length of
+   * the order rather than the length of the exponent. The fork keeps this
+   * modulus' implementation, including the fixed-size and special-form
+   * reductions chosen by {@link #valueOf(int[])}.
+   * 
+   * The reduction is only valid for bases which are coprime to the modulus.
+   * 
+   * @param order A multiple of the order of the multiplicative group, in
+   * little-endian format. May contain leading zero limbs. Not modified.
+   * @return A fork of this modulus which reduces exponents modulo
+   * {@code order}.
+   * @throws NullPointerException If {@code order == null}.
+   * @throws IllegalArgumentException If {@code order} is zero.
+   */
+  public Modulus withGroupOrder(final int[] order) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    if(order == null)
+      throw new NullPointerException("order must not be null");
+    int length = order.length;
+    while(length > 0 && order[length-1] == 0)
+      --length;
+    if(length == 0)
+      throw new IllegalArgumentException("order must be positive");
+    
+    // orderShifted = order << orderShift
+    final Modulus copy = fork();
+    copy.orderShift = Integer.numberOfLeadingZeros(order[length-1]);
+    copy.orderShifted = new int[length];
+    final int[] o = new int[length];
+    for(int i = 0; i < length; ++i)
+      o[i] = order[i];
+    shiftLeft(o, copy.orderShift, copy.orderShifted);
+    return copy;
+  }
+  
+  /**
+   * {@link #withGroupOrder(int[])} for an order given as a
+   * {@code BigInteger}.
+   * 
+   * @param order A multiple of the order of the multiplicative group.
+   * @return A fork of this modulus which reduces exponents modulo
+   * {@code order}.
+   * @throws NullPointerException If {@code order == null}.
+   * @throws IllegalArgumentException If {@code order <= 0}.
+   */
+  public Modulus withGroupOrder(final BigInteger order) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    if(order == null)
+      throw new NullPointerException("order must not be null");
+    if(order.signum() <= 0)
+      throw new IllegalArgumentException("order must be positive");
+    return withGroupOrder(Convert.fromBigInteger(
+      order,
+      new int[1 + (order.bitLength() - 1) / 32]));
+  }
+  
+  /**
+   * Reduce an exponent before it is used by {@link #powMod}. Without a group
+   * order (see {@link #withGroupOrder}) {@code exponent} is returned
+   * unchanged, as it is when it is no longer than the order. Otherwise a new
+   * array with the length of the order is returned.
+   * 
+   * This method takes constant-time with respect to the pair
+   * {@code (exponent.length, order.length)} and does not modify
+   * {@code exponent}.
+   * 
+   * @param exponent A little-endian exponent.
+   * @return An exponent equivalent to {@code exponent} for every base coprime
+   * to the modulus.
+   */
+  protected final int[] reduceExponent(final int[] exponent) {
+    assert exponent != null;
+    if(orderShifted == null)
+      return exponent;
+    final int on = orderShifted.length;
+    final int en = exponent.length;
+    if(en <= on)
+      return exponent;
+
+    // shifted = exponent << orderShift
+    final int[] shifted = new int[en + 1];
+    shifted[en] = shiftLeft(exponent, orderShift, shifted);
+
+    // shifted = (exponent << orderShift) mod (order << orderShift)
+    //         = (exponent mod order) << orderShift
+    Operations.mod(shifted, orderShifted, new int[on + 1]);
+
+    // reduced = shifted >> orderShift
+    final int[] reduced = new int[on];
+    shiftRight(shifted, orderShift, reduced);
+    return reduced;
+  }
+  
+  /**
+   * Set {@code result = base^exponent mod m}. Uses a fixed 4-bit window over
+   * a table of powers read with {@link #select}, so it takes time that
+   * depends only on the lengths of the modulus and the exponent. The exponent
+   * is first reduced by the group order, if one is known (see
+   * {@link #withGroupOrder}).
+   * 
+   * For performance reasons, this method provides no error checking aside
+   * from assertions.
+   * 
+   * @param base A value less than the modulus, with the modulus' length.
+   * @param exponent A little-endian exponent of at least one limb. Not
+   * modified.
+   * @param result Holds the power. Has the modulus' length and must not be
+   * {@code base}.
+   */
+  public void powMod(
     final int[] base,
     final int[] exponent,
     final int[] result)
@@ -685,37 +2253,49 @@ public class Modulus {
     assert base.length == modulus.length; // TODO necessary?
     assert result.length == modulus.length; 
     
-    final int[] e = exponent;
+    final long start = SjmpMetrics.start();
+    final int[] e = reduceExponent(exponent);
     final int[] m = modulus;
-    final int en = exponent.length;
+    final int en = e.length;
     final int mn = modulus.length;
 
-    // TODO can we reduce large exponents?
     // TODO tune window size
     
     // Calculate powers of `base` in their montgomery representation
     final int wn = 4;
     final int wmask = 0xF;
-    final int[][] powers = new int[1 << wn][modulus.length];
+    final int[] powers = new int[(1 << wn) * modulus.length];
     final int[] power = new int[modulus.length];
     calculateMontgomeryPowers(base, powers);    
     //assert 32 % wn == 0;
 
     // Sliding window exponentiation
+    long time = SjmpMetrics.start();
     int exponentWindow = (e[en-1] >>> (32 - wn)) & wmask;
-    for(int i = 0; i < mn; ++i)
-      result[i] = powers[exponentWindow][i];
+    select(exponentWindow, powers, result);
     for(int i = en - 1; i >= 0; --i) {
       int jStart = (i == en - 1) ? 32 - 2 * wn : 32 - wn;
       for(int j = jStart; j >= 0; j -= wn) {
-        for(int k = 0; k < wn; ++k)
-          squareReduce(result);
+        if(lazyReduction) {
+          for(int k = 0; k < wn; ++k)
+            squareReduceLazy(result);
+        } else {
+          for(int k = 0; k < wn; ++k)
+            squareReduce(result);
+        }
         exponentWindow = (e[i] >>> j) & wmask;
         select(exponentWindow, powers, power);
-        multiplyReduce(result, power);
+        if(lazyReduction)
+          multiplyReduceLazy(result, power);
+        else
+          multiplyReduce(result, power);
       }
     }
     
+    // Transform out of the Montgomery domain. This also fully reduces the
+    // result when lazy reduction was used, since montgomeryReduce of any value
+    // less than 2^(32*mn) is less than the modulus.
+    time = SjmpMetrics.record(SjmpMetrics.Phase.EXPONENTIATE, time);
     for(int i = 0; i < mn; ++i) {
       scratch[i] = result[i];
       scratch[i + mn] = 0;
@@ -723,5 +2303,9 @@ public class Modulus {
     montgomeryReduce(scratch);
     for(int i = 0; i < mn; ++i)
       result[i] = scratch[i];
+    SjmpMetrics.record(SjmpMetrics.Phase.REDUCE, time);
+    
+    final long windows = (32L / wn) * en - 1;
+    SjmpMetrics.recordPowMod(mn, wn * windows, windows, start);
   }
 }
@@ -0,0 +1,200 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of {@link Modulus} objects keyed by the value of
+ * the modulus, so that the precomputation done when constructing a
+ * {@code Modulus} is only done once for moduli that are used repeatedly (e.g.
+ * the public keys of a service's clients).
+ *
+ * When the cache is full the least recently used modulus is evicted.
+ *
+ * Since a {@code Modulus} is not thread-safe, the {@code get} methods return a
+ * {@link Modulus#fork} of the cached object. The fork shares all of the
+ * precomputed values and only allocates its own scratch space.
+ */
+public final class ModulusCache {
+
+  /**
+   * The maximum number of moduli held by the cache.
+   */
+  private final int capacity;
+
+  /**
+   * The cached moduli in least to most recently used order. Guarded by
+   * {@code this}.
+   */
+  private final LinkedHashMap<Key, Modulus> moduli;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Construct an empty cache.
+   * @param capacity The maximum number of moduli held by the cache.
+   * @throws IllegalArgumentException If {@code capacity < 1}.
+   */
+  public ModulusCache(final int capacity) throws IllegalArgumentException {
+    if(capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+    this.capacity = capacity;
+    this.moduli = new LinkedHashMap<Key, Modulus>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, Modulus> eldest) {
+        return size() > ModulusCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * Return a {@code Modulus} for {@code modulus}, constructing and caching it
+   * if it is not already cached. See {@link Modulus#valueOf(int[])} for the
+   * requirements on {@code modulus}.
+   *
+   * @param modulus The value of the modulus. Not retained.
+   * @return A Modulus object for the sole use of the caller.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is invalid.
+   */
+  public Modulus get(final int[] modulus) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    return get(new Key(Modulus.toModulusArray(modulus)));
+  }
+
+  /**
+   * Return a {@code Modulus} for {@code modulus}, constructing and caching it
+   * if it is not already cached. See {@link Modulus#valueOf(BigInteger)} for
+   * the requirements on {@code modulus}.
+   *
+   * @param modulus The value of the modulus.
+   * @return A Modulus object for the sole use of the caller.
+   * @throws NullPointerException If {@code modulus == null}.
+   * @throws IllegalArgumentException If {@code modulus} is invalid.
+   */
+  public Modulus get(final BigInteger modulus) throws
+    IllegalArgumentException,
+    NullPointerException
+  {
+    return get(new Key(Modulus.toModulusArray(modulus)));
+  }
+
+  private Modulus get(final Key key) {
+    Modulus cached;
+    synchronized(this) {
+      cached = moduli.get(key);
+    }
+    if(cached != null) {
+      hits.increment();
+      return cached.fork();
+    }
+
+    // Construct outside the lock so that a miss does not stall other callers.
+    // Concurrent misses on the same modulus may each construct it, in which
+    // case the first to be cached is kept.
+    misses.increment();
+    final Modulus created = Modulus.newInstance(key.modulus, false);
+    synchronized(this) {
+      cached = moduli.get(key);
+      if(cached == null) {
+        moduli.put(key, created);
+        cached = created;
+      }
+    }
+    return cached.fork();
+  }
+
+  /**
+   * @return The maximum number of moduli held by the cache.
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return The number of moduli currently held by the cache.
+   */
+  public synchronized int size() {
+    return moduli.size();
+  }
+
+  /**
+   * @return The number of calls to {@code get} that found the modulus cached.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return The number of calls to {@code get} that constructed the modulus.
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return {@code hits() / (hits() + misses())}, or zero if {@code get} has
+   * not been called.
+   */
+  public double hitRate() {
+    final long h = hits.sum();
+    final long total = h + misses.sum();
+    return total == 0L ? 0.0 : (double)h / total;
+  }
+
+  /**
+   * Remove all moduli from the cache. The hit and miss counts are kept.
+   */
+  public synchronized void clear() {
+    moduli.clear();
+  }
+
+  /**
+   * A modulus value with its hash code computed once.
+   */
+  private static final class Key {
+    private final int[] modulus;
+    private final int hash;
+
+    Key(final int[] modulus) {
+      this.modulus = modulus;
+      this.hash = Arrays.hashCode(modulus);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Key && Arrays.equals(modulus, ((Key)other).modulus);
+    }
+  }
+}
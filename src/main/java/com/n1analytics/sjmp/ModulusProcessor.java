@@ -0,0 +1,561 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link Flow.Processor} that applies modular arithmetic to a stream of
+ * values less than a {@link Modulus}, for example to encrypt, re-randomise or
+ * combine ciphertexts as they arrive.
+ *
+ * Items are gathered into micro-batches of at most {@code batchSize} values,
+ * and up to {@code parallelism} batches are processed at once on an
+ * {@link Executor}, each thread working on its own {@link Modulus#fork}. A
+ * batch is started as soon as a slot is free, so batches are small when the
+ * stream is slow and fill up when the executor is the bottleneck. The results
+ * are published in the order of the items.
+ *
+ * The processor holds at most {@code 2 * batchSize * parallelism} items,
+ * counting those waiting for a batch, those being processed and results not
+ * yet requested downstream. It requests more from upstream only as results
+ * are delivered, so a slow subscriber slows the publisher instead of growing
+ * a queue. The processor supports a single subscriber.
+ *
+ * Subclasses implement {@link #process}, and {@link #complete} if they
+ * publish anything when the stream ends. {@link #power}, {@link #rerandomize}
+ * and {@link #product} cover the common cases.
+ */
+public abstract class ModulusProcessor
+  implements Flow.Processor<int[], int[]>
+{
+  /**
+   * A batch of items and, once processed, its results.
+   */
+  private static final class Batch {
+    final int[][] items;
+    int[][] results;
+    int position;
+
+    Batch(final int[][] items) {
+      this.items = items;
+    }
+  }
+
+  private final Modulus modulus;
+
+  /**
+   * The value of the modulus, with {@code modulus.length()} limbs.
+   */
+  private final int[] value;
+
+  private final Executor executor;
+  private final int batchSize;
+  private final int parallelism;
+  private final long capacity;
+
+  /**
+   * The fork of {@link #modulus} used by each thread of the executor.
+   */
+  private final ThreadLocal<Modulus> forks;
+
+  // The state of the stream, guarded by this
+  private Flow.Subscription upstream;
+  private Flow.Subscriber<? super int[]> downstream;
+  private boolean subscribed;
+  private final ArrayDeque<int[]> pending = new ArrayDeque<int[]>();
+  private final ArrayDeque<Batch> batches = new ArrayDeque<Batch>();
+  private int running;
+  private long demand;
+  private long credit;
+  private boolean upstreamDone;
+  private boolean completed;
+  private boolean cancelled;
+  private boolean draining;
+  private Throwable error;
+
+  /**
+   * @param modulus The modulus. It is only forked.
+   * @param executor The executor that processes the batches.
+   * @param batchSize The largest number of items in one batch.
+   * @param parallelism The largest number of batches processed at once.
+   * @throws IllegalArgumentException If {@code batchSize <= 0} or
+   * {@code parallelism <= 0}.
+   * @throws NullPointerException If {@code modulus} or {@code executor} is
+   * null.
+   */
+  protected ModulusProcessor(
+    final Modulus modulus,
+    final Executor executor,
+    final int batchSize,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(modulus == null)
+      throw new NullPointerException("modulus must not be null");
+    if(executor == null)
+      throw new NullPointerException("executor must not be null");
+    if(batchSize <= 0)
+      throw new IllegalArgumentException("batchSize must be strictly positive");
+    if(parallelism <= 0)
+      throw new IllegalArgumentException(
+        "parallelism must be strictly positive");
+    this.modulus = modulus;
+    this.value = Convert.fromBigInteger(
+      modulus.toBigInteger(),
+      new int[modulus.length()]);
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+    this.capacity = 2L * batchSize * parallelism;
+    this.forks = new ThreadLocal<Modulus>() {
+      @Override
+      protected Modulus initialValue() {
+        return modulus.fork();
+      }
+    };
+  }
+
+  /**
+   * Process one batch. Called concurrently for different batches, each with
+   * the fork of the modulus owned by the calling thread.
+   * @param modulus A fork of the modulus, for this thread only.
+   * @param items The items of the batch, each less than the modulus with the
+   * modulus' length. They may be modified.
+   * @return The results to publish for the batch, possibly none.
+   */
+  protected abstract int[][] process(Modulus modulus, int[][] items);
+
+  /**
+   * Called once after every batch has been processed and the stream has
+   * completed.
+   * @return The results to publish after those of the last batch.
+   */
+  protected int[][] complete() {
+    return new int[0][];
+  }
+
+  /**
+   * @return The modulus this processor was constructed with.
+   */
+  public Modulus modulus() {
+    return modulus;
+  }
+
+  /**
+   * A processor that publishes {@code item^exponent mod m} for each item,
+   * for example to encrypt with a public exponent.
+   * @param modulus The modulus.
+   * @param exponent A little-endian exponent of at least one limb.
+   * @param executor The executor that processes the batches.
+   * @param batchSize The largest number of items in one batch.
+   * @param parallelism The largest number of batches processed at once.
+   * @throws IllegalArgumentException If {@code exponent} is empty,
+   * {@code batchSize <= 0} or {@code parallelism <= 0}.
+   * @throws NullPointerException If any argument is null.
+   */
+  public static ModulusProcessor power(
+    final Modulus modulus,
+    final int[] exponent,
+    final Executor executor,
+    final int batchSize,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    final int[] e = AsyncModulus.checkExponent(exponent);
+    return new ModulusProcessor(modulus, executor, batchSize, parallelism) {
+      @Override
+      protected int[][] process(final Modulus modulus, final int[][] items) {
+        final int[][] results = new int[items.length][];
+        for(int i = 0; i < items.length; ++i) {
+          results[i] = new int[items[i].length];
+          modulus.powMod(items[i], e, results[i]);
+        }
+        return results;
+      }
+    };
+  }
+
+  /**
+   * A processor that publishes {@code item * r^exponent mod m} for each
+   * item, with a fresh {@code r} drawn uniformly from [1, m) for every item.
+   * With {@code m = n^2} and {@code exponent = n} this re-randomises Paillier
+   * ciphertexts.
+   * @param modulus The modulus.
+   * @param exponent A little-endian exponent of at least one limb.
+   * @param random The source of the {@code r}s, used concurrently. Should be
+   * a {@link java.security.SecureRandom} for cryptographic use.
+   * @param executor The executor that processes the batches.
+   * @param batchSize The largest number of items in one batch.
+   * @param parallelism The largest number of batches processed at once.
+   * @throws IllegalArgumentException If {@code exponent} is empty,
+   * {@code batchSize <= 0} or {@code parallelism <= 0}.
+   * @throws NullPointerException If any argument is null.
+   */
+  public static ModulusProcessor rerandomize(
+    final Modulus modulus,
+    final int[] exponent,
+    final Random random,
+    final Executor executor,
+    final int batchSize,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    final int[] e = AsyncModulus.checkExponent(exponent);
+    if(random == null)
+      throw new NullPointerException("random must not be null");
+    final BigInteger m = modulus.toBigInteger();
+    return new ModulusProcessor(modulus, executor, batchSize, parallelism) {
+      @Override
+      protected int[][] process(final Modulus modulus, final int[][] items) {
+        final int[][] results = new int[items.length][];
+        final int[] r = new int[modulus.length()];
+        final int[] t = new int[r.length];
+        for(int i = 0; i < items.length; ++i) {
+          BigInteger x;
+          do {
+            x = new BigInteger(m.bitLength(), random);
+          } while(x.signum() == 0 || x.compareTo(m) >= 0);
+          Convert.fromBigInteger(x, r);
+          modulus.powMod(r, e, t);
+          results[i] = new int[r.length];
+          modulus.multiplyMod(items[i], t, results[i]);
+        }
+        return results;
+      }
+    };
+  }
+
+  /**
+   * A processor that publishes a single item when the stream completes: the
+   * product of all items modulo m, or 1 mod m if there were none. With
+   * {@code m = n^2} this adds Paillier ciphertexts.
+   * @param modulus The modulus.
+   * @param executor The executor that processes the batches.
+   * @param batchSize The largest number of items in one batch.
+   * @param parallelism The largest number of batches processed at once.
+   * @throws IllegalArgumentException If {@code batchSize <= 0} or
+   * {@code parallelism <= 0}.
+   * @throws NullPointerException If any argument is null.
+   */
+  public static ModulusProcessor product(
+    final Modulus modulus,
+    final Executor executor,
+    final int batchSize,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(modulus == null)
+      throw new NullPointerException("modulus must not be null");
+    final int[] accumulator = Convert.fromBigInteger(
+      BigInteger.ONE.mod(modulus.toBigInteger()),
+      new int[modulus.length()]);
+    return new ModulusProcessor(modulus, executor, batchSize, parallelism) {
+      @Override
+      protected int[][] process(final Modulus modulus, final int[][] items) {
+        final int[] partial = items[0];
+        for(int i = 1; i < items.length; ++i)
+          modulus.multiplyMod(partial, items[i], partial);
+        synchronized(accumulator) {
+          modulus.multiplyMod(accumulator, partial, accumulator);
+        }
+        return new int[0][];
+      }
+
+      @Override
+      protected int[][] complete() {
+        synchronized(accumulator) {
+          return new int[][] { accumulator.clone() };
+        }
+      }
+    };
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super int[]> subscriber) {
+    if(subscriber == null)
+      throw new NullPointerException("subscriber must not be null");
+    final boolean accepted;
+    synchronized(this) {
+      accepted = !subscribed;
+      subscribed = true;
+    }
+    if(!accepted) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      subscriber.onError(new IllegalStateException(
+        "ModulusProcessor supports only one subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(final long n) {
+        if(n <= 0) {
+          fail(new IllegalArgumentException("n must be strictly positive"));
+          return;
+        }
+        synchronized(ModulusProcessor.this) {
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        drain();
+      }
+
+      @Override
+      public void cancel() {
+        final Flow.Subscription subscription;
+        synchronized(ModulusProcessor.this) {
+          cancelled = true;
+          upstreamDone = true;
+          pending.clear();
+          batches.clear();
+          subscription = upstream;
+        }
+        if(subscription != null)
+          subscription.cancel();
+      }
+    });
+    // Publish nothing, not even a terminal signal, before onSubscribe returns
+    synchronized(this) {
+      downstream = subscriber;
+    }
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    if(subscription == null)
+      throw new NullPointerException("subscription must not be null");
+    final boolean accepted;
+    synchronized(this) {
+      accepted = upstream == null && !upstreamDone;
+      if(accepted)
+        upstream = subscription;
+    }
+    if(accepted)
+      subscription.request(capacity);
+    else
+      subscription.cancel();
+  }
+
+  @Override
+  public void onNext(final int[] item) {
+    if(item == null)
+      throw new NullPointerException("item must not be null");
+    final int[] copy;
+    try {
+      copy = AsyncModulus.checkValue(value, item, "item");
+    } catch(IllegalArgumentException e) {
+      fail(e);
+      return;
+    }
+    final List<Batch> started;
+    synchronized(this) {
+      if(upstreamDone)
+        return;
+      pending.add(copy);
+      started = start();
+    }
+    execute(started);
+  }
+
+  @Override
+  public void onError(final Throwable throwable) {
+    if(throwable == null)
+      throw new NullPointerException("throwable must not be null");
+    synchronized(this) {
+      if(upstreamDone)
+        return;
+      upstreamDone = true;
+      pending.clear();
+      if(error == null)
+        error = throwable;
+    }
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    synchronized(this) {
+      upstreamDone = true;
+    }
+    drain();
+  }
+
+  /**
+   * Fail the stream with {@code throwable}, cancelling the upstream
+   * subscription.
+   */
+  private void fail(final Throwable throwable) {
+    final Flow.Subscription subscription;
+    synchronized(this) {
+      if(error == null)
+        error = throwable;
+      upstreamDone = true;
+      pending.clear();
+      subscription = upstream;
+    }
+    if(subscription != null)
+      subscription.cancel();
+    drain();
+  }
+
+  /**
+   * Take batches from the pending items while there are free slots. Must be
+   * called holding the lock, and the batches returned passed to
+   * {@link #execute} after releasing it.
+   */
+  private List<Batch> start() {
+    List<Batch> started = null;
+    while(running < parallelism && !pending.isEmpty() && !cancelled) {
+      final int[][] items = new int[Math.min(batchSize, pending.size())][];
+      for(int i = 0; i < items.length; ++i)
+        items[i] = pending.poll();
+      final Batch batch = new Batch(items);
+      batches.add(batch);
+      ++running;
+      if(started == null)
+        started = new ArrayList<Batch>();
+      started.add(batch);
+    }
+    return started;
+  }
+
+  private void execute(final List<Batch> started) {
+    if(started == null)
+      return;
+    for(final Batch batch : started) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            process(batch);
+          }
+        });
+      } catch(RejectedExecutionException e) {
+        fail(e);
+      }
+    }
+  }
+
+  private void process(final Batch batch) {
+    int[][] results = null;
+    Throwable failure = null;
+    try {
+      results = process(forks.get(), batch.items);
+    } catch(RuntimeException e) {
+      failure = e;
+    }
+    final List<Batch> started;
+    synchronized(this) {
+      --running;
+      batch.results = results;
+      started = start();
+    }
+    if(failure != null)
+      fail(failure);
+    execute(started);
+    drain();
+  }
+
+  /**
+   * Publish whatever results, errors or completion the subscriber is ready
+   * for, and request more items from upstream for every item whose results
+   * have all been published. Only one thread drains at a time; the others
+   * return straight away, leaving their changes to the thread draining.
+   */
+  private void drain() {
+    synchronized(this) {
+      if(draining)
+        return;
+      draining = true;
+    }
+    for(;;) {
+      final Flow.Subscriber<? super int[]> subscriber;
+      final Flow.Subscription subscription;
+      int[] item = null;
+      Throwable failure = null;
+      boolean done = false;
+      long request = 0L;
+      synchronized(this) {
+        subscriber = downstream;
+        subscription = upstream;
+        if(subscriber == null || cancelled) {
+          draining = false;
+          return;
+        }
+        // Discard the head batches whose results have all been published
+        while(!batches.isEmpty()
+          && batches.peek().results != null
+          && batches.peek().position == batches.peek().results.length)
+          credit += batches.poll().items.length;
+        final Batch head = batches.peek();
+        if(error != null) {
+          failure = error;
+          cancelled = true;
+          batches.clear();
+        } else if(head != null && head.results != null && demand > 0L) {
+          item = head.results[head.position++];
+          --demand;
+        } else if(head == null && pending.isEmpty() && upstreamDone) {
+          if(!completed) {
+            completed = true;
+            final Batch last = new Batch(new int[0][]);
+            last.results = complete();
+            batches.add(last);
+            continue;
+          }
+          done = true;
+          cancelled = true;
+        }
+        if(!upstreamDone) {
+          request = credit;
+          credit = 0L;
+        }
+        if(item == null && failure == null && !done)
+          draining = false;
+      }
+      if(request > 0L && subscription != null)
+        subscription.request(request);
+      if(failure != null) {
+        subscriber.onError(failure);
+        return;
+      }
+      if(done) {
+        subscriber.onComplete();
+        return;
+      }
+      if(item == null)
+        return;
+      subscriber.onNext(item);
+    }
+  }
+}
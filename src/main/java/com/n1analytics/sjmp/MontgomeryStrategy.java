@@ -0,0 +1,50 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+/**
+ * The ways in which the multiplication and the Montgomery reduction in
+ * {@link Modulus#multiplyReduce} and {@link Modulus#squareReduce} can be
+ * interleaved. The names follow Koc, Acar and Kaliski, "Analyzing and
+ * Comparing Montgomery Multiplication Algorithms" (1996).
+ *
+ * All strategies produce identical results and are constant-time with
+ * respect to the length of the modulus. They differ only in speed, which
+ * depends on the number of limbs and on the JVM.
+ */
+public enum MontgomeryStrategy {
+  /**
+   * Separated Operand Scanning. The full double-length product is computed
+   * first and then reduced. When squaring, the product is computed with a
+   * dedicated squaring that only calculates each cross product once.
+   */
+  SOS,
+
+  /**
+   * Coarsely Integrated Operand Scanning. For each limb of the multiplier
+   * the partial product is accumulated in one pass and reduced in a second.
+   */
+  CIOS,
+
+  /**
+   * Finely Integrated Operand Scanning. For each limb of the multiplier the
+   * partial product is accumulated and reduced in a single pass.
+   */
+  FIOS
+}
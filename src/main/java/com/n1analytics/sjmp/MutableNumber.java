@@ -19,8 +19,25 @@ License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
 package com.n1analytics.sjmp;
 
 import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-// NOTE work in progress
+/**
+ * A non-negative integer of a fixed number of limbs that is updated in place.
+ *
+ * The limbs are held in a backing array whose length is the capacity. Only
+ * the low {@link #size} limbs are part of the number and the limbs above them
+ * are always zero, so changing the size with {@link #resize} only allocates
+ * when the capacity grows. Arithmetic is modulo {@code 2^(32*size())} unless
+ * a {@link Modulus} is given, in which case the number must have the length of
+ * the modulus. An accumulator that is updated with {@link #add},
+ * {@link #addMod} or {@link #multiplyMod} allocates nothing per step, as long
+ * as the other operands' capacities equal their sizes; the capacity of an
+ * operand is never changed.
+ *
+ * Like {@link Modulus}, a {@code MutableNumber} is not thread-safe.
+ */
 public class MutableNumber {
   private static final long MASK32 = 0xFFFFFFFFL;
   
@@ -29,12 +46,22 @@ public class MutableNumber {
     '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
   };
   
-  protected final int[] value;
+  /**
+   * The backing array. Its length is the capacity and the limbs from
+   * {@link #size} upwards are zero.
+   */
+  protected int[] value;
+  
+  /**
+   * The number of limbs. Always in the range [1, value.length].
+   */
+  protected int size;
 
   protected MutableNumber(final int[] value) {
     assert value != null;
     assert value.length > 0;
     this.value = value;
+    this.size = value.length;
   }
   
   /**
@@ -100,140 +127,221 @@ public class MutableNumber {
     // Value as a big-endian byte array
     byte[] bv = value.toByteArray();
     
-    if(bv.length > 4 * size)
+    // BigInteger adds a leading zero byte when the top bit is set
+    int offset = 0;
+    while(offset < bv.length - 1 && bv[offset] == 0)
+      ++offset;
+    if(bv.length - offset > 4 * size)
       throw new IllegalArgumentException("value is too large for the specified number of limbs");
     
-    // Convert the byte array to a little-endian int array
-    int[] iv = new int[size];
-    for(int i = bv.length, j = 0; i > 0; i -= 4, ++j) {
-      int limb = 0;
-      switch(i) {
-      default:
-        limb |= ((bv[i-4] & 0xFF) << 24);
-        // Drop through
-      case 3:
-        limb |= ((bv[i-3] & 0xFF) << 16);
-        // Drop through
-      case 2:
-        limb |= ((bv[i-2] & 0xFF) << 8);
-        // Drop through
-      case 1:
-        limb |= (bv[i-1] & 0xFF);
-      }
-      iv[j] = limb;
-    }
-    
-    return new MutableNumber(iv);
+    MutableNumber result = withCapacity(size, size);
+    result.setBytes(bv, offset, bv.length - offset);
+    result.resize(size);
+    return result;
+  }
+  
+  /**
+   * Construct a MutableNumber from an unsigned big-endian byte array, using
+   * the minimal number of limbs.
+   * @param bytes The big-endian bytes. Not retained.
+   * @return
+   * @throws NullPointerException If {@code bytes == null}
+   */
+  public static MutableNumber valueOf(final byte[] bytes) throws
+    NullPointerException
+  {
+    if(bytes == null)
+      throw new NullPointerException("bytes must not be null");
+    MutableNumber result = withCapacity(1, 1);
+    result.setBytes(bytes, 0, bytes.length);
+    return result;
+  }
+  
+  /**
+   * Construct a MutableNumber from a string of decimal digits, using the
+   * minimal number of limbs.
+   * @param digits A non-empty string of the digits {@code 0} to {@code 9}.
+   * @return
+   * @throws NullPointerException If {@code digits == null}
+   * @throws NumberFormatException If {@code digits} is empty or contains a
+   * character other than a decimal digit.
+   */
+  public static MutableNumber valueOfDecimal(final String digits) throws
+    NullPointerException,
+    NumberFormatException
+  {
+    MutableNumber result = withCapacity(1, 1);
+    result.setDecimal(digits);
+    return result;
+  }
+  
+  /**
+   * Construct a MutableNumber equal to zero.
+   * @param size The number of limbs.
+   * @param capacity The number of limbs that can be used before
+   * {@link #resize} needs to allocate.
+   * @return
+   * @throws IllegalArgumentException If {@code size <= 0} or
+   * {@code capacity < size}.
+   */
+  public static MutableNumber withCapacity(final int size, final int capacity)
+    throws IllegalArgumentException
+  {
+    if(size <= 0)
+      throw new IllegalArgumentException("size must be strictly positive");
+    if(capacity < size)
+      throw new IllegalArgumentException("capacity must be at least size");
+    MutableNumber result = new MutableNumber(new int[capacity]);
+    result.size = size;
+    return result;
   }
   
   /**
    * @return The number of limbs.
    */
-  public final int size() { return value.length; }
+  public final int size() { return size; }
+  
+  /**
+   * @return The number of limbs that can be used before {@link #resize} needs
+   * to allocate.
+   */
+  public final int capacity() { return value.length; }
   
   /**
    * Access a single limb.
    * @param i The index of the limb.
    * @return The limb at index {@code i}.
    */
-  public final int limb(int i) { return value[i]; }
+  public final int limb(int i) {
+    assert i >= 0 && i < size;
+    return value[i];
+  }
+  
+  /**
+   * Make sure that the capacity is at least {@code capacity} limbs. Does not
+   * change the value or the size.
+   * @param capacity The minimum capacity.
+   */
+  public final void ensureCapacity(final int capacity) {
+    if(capacity > value.length)
+      value = Arrays.copyOf(value, capacity);
+  }
+  
+  /**
+   * Reduce the capacity to the size.
+   */
+  public final void trimToSize() {
+    if(value.length > size)
+      value = Arrays.copyOf(value, size);
+  }
+  
+  /**
+   * Change the number of limbs in place. Growing zero-extends the value and
+   * only allocates if {@code size > capacity()}; shrinking reduces the value
+   * modulo {@code 2^(32*size)} and never allocates.
+   * @param size The new number of limbs.
+   * @throws IllegalArgumentException If {@code size <= 0}
+   */
+  public final void resize(final int size) throws IllegalArgumentException {
+    if(size <= 0)
+      throw new IllegalArgumentException("size must be strictly positive");
+    ensureCapacity(size);
+    for(int i = size; i < this.size; ++i)
+      value[i] = 0;
+    this.size = size;
+  }
+  
+  /**
+   * Set {@code this = other}, resizing {@code this} to the size of
+   * {@code other}.
+   */
+  public final void set(final MutableNumber other) {
+    resize(other.size);
+    System.arraycopy(other.value, 0, value, 0, size);
+  }
+  
+  /**
+   * @return The backing array with its capacity trimmed to the size, as the
+   * {@link Modulus} operations require of their result. Only allocates the
+   * first time a number with spare capacity is used as a result.
+   */
+  private int[] result() {
+    trimToSize();
+    return value;
+  }
+  
+  /**
+   * @return The limbs as an array of length {@link #size}, as the
+   * {@link Modulus} operations require of their operands. This is the backing
+   * array unless the capacity exceeds the size, in which case it is a copy,
+   * so the capacity of an operand is never changed.
+   */
+  private int[] operand() {
+    return value.length == size ? value : Arrays.copyOf(value, size);
+  }
   
   protected final void assertSameSize(MutableNumber other) {
-    assertSameSize(other.value);
+    assert size == other.size;
   }
   
   protected final void assertSameSize(int[] other) {
-    assert value.length == other.length;
+    assert size == other.length;
   }
   
   protected final void assertDoubleSize(MutableNumber other) {
-    assertDoubleSize(other.value);
+    assert 2 * size == other.size;
   }
   
   protected final void assertDoubleSize(int[] other) {
-    assert 2 * value.length == other.length;
+    assert 2 * size == other.length;
   }
   
   protected final void assertHalfSize(MutableNumber other) {
-    assertHalfSize(other.value);
+    assert size == 2 * other.size;
   }
   
   protected final void assertHalfSize(int[] other) {
-    assert value.length == 2 * other.length;
+    assert size == 2 * other.length;
   }
   
   protected final void checkSameSize(MutableNumber other) {
-    checkSameSize(other.value);
+    if(size != other.size)
+      throw new IllegalArgumentException();
   }
   
   protected final void checkSameSize(int[] other) {
-    if(value.length != other.length)
+    if(size != other.length)
       throw new IllegalArgumentException();
   }
   
   protected final void checkDoubleSize(MutableNumber other) {
-    checkDoubleSize(other.value);
+    if(2 * size != other.size)
+      throw new IllegalArgumentException();
   }
   
   protected final void checkDoubleSize(int[] other) {
-    if(2 * value.length != other.length)
+    if(2 * size != other.length)
       throw new IllegalArgumentException();
   }
   
   protected final void checkHalfSize(MutableNumber other) {
-    checkHalfSize(other.value);
+    if(size != 2 * other.size)
+      throw new IllegalArgumentException();
   }
   
   protected final void checkHalfSize(int[] other) {
-    if(value.length != 2 * other.length)
+    if(size != 2 * other.length)
       throw new IllegalArgumentException();
   }
   
   /**
    * Clone this number. Any changes to either {@code this} or the return value
-   * will not affect the other.
+   * will not affect the other. The clone has the same capacity.
    */
   public final MutableNumber clone() {
-    return new MutableNumber(value.clone());
-  }
-  
-  /**
-   * Representation of this MutableNumber as a space-separated, little-endian
-   * list of 32-bit hexadecimal numbers.
-   */
-  public final String toString() {
-    char[] s = new char[8 * size() + size() - 1];
-    for(int vi = 0, si = 0; vi < size(); ++vi) {
-      if(vi > 0)
-        s[si++] = ' ';
-      final int v = value[vi];
-      s[si++] = DIGITS[(v >>> 28) & 0xF];
-      s[si++] = DIGITS[(v >>> 24) & 0xF];
-      s[si++] = DIGITS[(v >>> 20) & 0xF];
-      s[si++] = DIGITS[(v >>> 16) & 0xF];
-      s[si++] = DIGITS[(v >>> 12) & 0xF];
-      s[si++] = DIGITS[(v >>> 8) & 0xF];
-      s[si++] = DIGITS[(v >>> 4) & 0xF];
-      s[si++] = DIGITS[v & 0xF];
-    }
-    return new String(s);
-  }
-  
-  /**
-   * @return Representation of this MutableNumber as a BigInteger.
-   */
-  public final BigInteger toBigInteger() {
-    boolean isZero = true;
-    byte[] v = new byte[4 * size()];
-    for(int i = 0, j = 4 * size(); i < size(); ++i) {
-      if(value[i] != 0)
-        isZero = false;
-      v[--j] = (byte)value[i];
-      v[--j] = (byte)(value[i] >>> 8);
-      v[--j] = (byte)(value[i] >>> 16);
-      v[--j] = (byte)(value[i] >>> 24);
-    }
-    return new BigInteger(isZero ? 0 : 1, v);
+    MutableNumber result = new MutableNumber(value.clone());
+    result.size = size;
+    return result;
   }
   
   // TODO how to do compareto?
@@ -246,11 +354,16 @@ public class MutableNumber {
    * other}, or {@code 1} if {@code this > other}.
    */
   public final int compare(MutableNumber other) {
-    return compare(other.value);
+    assertSameSize(other);
+    return compareLimbs(other.value);
   }
   
   protected final int compare(int[] other) {
     assertSameSize(other);
+    return compareLimbs(other);
+  }
+  
+  private int compareLimbs(int[] other) {
     long overflow0 = 0L;
     long overflow1 = 0L;
     long size = size();
@@ -258,7 +371,7 @@ public class MutableNumber {
       long a = value[i] & MASK32;
       long b = other[i] & MASK32;
       overflow0 = (overflow0 + a - b) >> 32;
-      overflow1 = (overflow1 + a - b) >> 32;
+      overflow1 = (overflow1 + b - a) >> 32;
     }
     assert
       (overflow0 == -1L && overflow1 ==  0L) ||
@@ -268,7 +381,8 @@ public class MutableNumber {
   }
   
   public final int add(MutableNumber other) {
-    return add(other.value);
+    assertSameSize(other);
+    return addLimbs(other.value);
   }
   
   /**
@@ -279,6 +393,10 @@ public class MutableNumber {
    */
   protected final int add(int[] other) {
     assertSameSize(other);
+    return addLimbs(other);
+  }
+  
+  private int addLimbs(int[] other) {
     long overflow = 0L;
     final int size = size();
     for(int i = 0; i < size; ++i) {
@@ -291,7 +409,8 @@ public class MutableNumber {
   }
   
   public final int subtract(MutableNumber other) {
-    return subtract(other.value);
+    assertSameSize(other);
+    return subtractLimbs(other.value);
   }
   
   /**
@@ -302,6 +421,10 @@ public class MutableNumber {
    */
   protected final int subtract(int[] other) {
     assertSameSize(other);
+    return subtractLimbs(other);
+  }
+  
+  private int subtractLimbs(int[] other) {
     long overflow = 0L;
     final int size = size();
     for(int i = 0; i < size; ++i) {
@@ -313,13 +436,28 @@ public class MutableNumber {
     return (int)overflow;
   }
   
+  /**
+   * Set {@code result = this * other}, resizing {@code result} to twice the
+   * size of {@code this}.
+   * @param other A {@code MutableNumber} with the same number of limbs as
+   * {@code this}.
+   * @param result Holds the product. Must not be {@code this} or
+   * {@code other}.
+   */
   public final void multiply(MutableNumber other, MutableNumber result) {
-    multiply(other.value, result.value);
+    assertSameSize(other);
+    assert result != this && result != other;
+    result.resize(2 * size);
+    multiplyLimbs(other.value, result.value);
   }
   
   protected final void multiply(int[] other, int[] result) {
     assertSameSize(other);
     assertDoubleSize(result);
+    multiplyLimbs(other, result);
+  }
+  
+  private void multiplyLimbs(int[] other, int[] result) {
     int size = size();
     long overflow = 0L;
     long limb = value[0] & MASK32;
@@ -352,4 +490,282 @@ public class MutableNumber {
     }
     return (int)overflow;
   }
+  
+  /**
+   * Set {@code this = (this << shift) mod 2^(32*size())}.
+   * 
+   * This method will take constant-time with respect to the pair
+   * {@code (size(), shift)}.
+   * @param shift The number of bits to shift by. Must be non-negative.
+   */
+  public final void shiftLeft(final int shift) {
+    assert shift >= 0;
+    final int limbs = shift >>> 5;
+    final int bits = shift & 31;
+    // mask == 0x00000000 if bits == 0, since x >>> 32 == x in Java
+    final int mask = -((bits | -bits) >>> 31);
+    for(int i = size - 1; i >= 0; --i) {
+      final int j = i - limbs;
+      final int high = j >= 0 ? value[j] : 0;
+      final int low = j > 0 ? value[j-1] : 0;
+      value[i] = (high << bits) | ((low >>> (32 - bits)) & mask);
+    }
+  }
+  
+  /**
+   * Set {@code this = this >>> shift}.
+   * 
+   * This method will take constant-time with respect to the pair
+   * {@code (size(), shift)}.
+   * @param shift The number of bits to shift by. Must be non-negative.
+   */
+  public final void shiftRight(final int shift) {
+    assert shift >= 0;
+    final int limbs = shift >>> 5;
+    final int bits = shift & 31;
+    // mask == 0x00000000 if bits == 0, since x << 32 == x in Java
+    final int mask = -((bits | -bits) >>> 31);
+    for(int i = 0; i < size; ++i) {
+      final long j = (long)i + limbs;
+      final int low = j < size ? value[(int)j] : 0;
+      final int high = j + 1 < size ? value[(int)j+1] : 0;
+      value[i] = (low >>> bits) | ((high << (32 - bits)) & mask);
+    }
+  }
+  
+  /**
+   * Reduce {@code this} modulo {@code modulus} in place and resize it to the
+   * length of the modulus. The capacity is trimmed to the size, which the
+   * modular operations below require, so they never allocate afterwards.
+   * 
+   * This method takes constant-time with respect to {@code size()}.
+   * @param modulus The modulus. Not modified other than its workspace.
+   */
+  public final void mod(final Modulus modulus) {
+    final int n = modulus.length();
+    if(size < n)
+      resize(n);
+    // The limbs above the size are zero so they don't affect the result
+    modulus.mod(value);
+    resize(n);
+    trimToSize();
+  }
+  
+  /**
+   * Set {@code this = this + other mod m}. Both numbers must be less than the
+   * modulus and have its length (see {@link #mod}).
+   */
+  public final void addMod(final MutableNumber other, final Modulus modulus) {
+    assertSameSize(other);
+    assert size == modulus.length();
+    modulus.addMod(result(), other.operand(), value);
+  }
+  
+  /**
+   * Set {@code this = this - other mod m}. Both numbers must be less than the
+   * modulus and have its length (see {@link #mod}).
+   */
+  public final void subtractMod(
+    final MutableNumber other,
+    final Modulus modulus)
+  {
+    assertSameSize(other);
+    assert size == modulus.length();
+    modulus.subMod(result(), other.operand(), value);
+  }
+  
+  /**
+   * Set {@code this = this * other mod m}. Both numbers must be less than the
+   * modulus and have its length (see {@link #mod}). {@code other} may be
+   * {@code this}.
+   */
+  public final void multiplyMod(
+    final MutableNumber other,
+    final Modulus modulus)
+  {
+    assertSameSize(other);
+    assert size == modulus.length();
+    modulus.multiplyMod(result(), other.operand(), value);
+  }
+  
+  /**
+   * Set {@code this = this^2 mod m}. This number must be less than the modulus
+   * and have its length (see {@link #mod}).
+   */
+  public final void squareMod(final Modulus modulus) {
+    assert size == modulus.length();
+    modulus.squareMod(result(), value);
+  }
+  
+  /**
+   * Set {@code this = this^exponent mod m}. This number must be less than the
+   * modulus and have its length (see {@link #mod}).
+   * 
+   * This method takes constant-time with respect to {@code exponent.size()}.
+   * @param exponent The exponent, which may be {@code this}. Not modified
+   * unless it is {@code this}.
+   * @param modulus The modulus. Not modified other than its workspace.
+   */
+  public final void powMod(
+    final MutableNumber exponent,
+    final Modulus modulus)
+  {
+    assert size == modulus.length();
+    // Modulus.powMod reads the exponent and the base after it starts writing
+    // the result, so neither may share the backing array with it.
+    final int[] e = exponent == this ? value.clone() : exponent.operand();
+    final int[] power = new int[size];
+    modulus.powMod(result(), e, power);
+    System.arraycopy(power, 0, value, 0, size);
+  }
+  
+  /**
+   * Set {@code this} to the number with the big-endian unsigned bytes
+   * {@code bytes[offset, offset + length)}, resizing it to the minimal number
+   * of limbs.
+   * @throws IndexOutOfBoundsException If the range is not within
+   * {@code bytes}.
+   */
+  public final void setBytes(
+    final byte[] bytes,
+    final int offset,
+    final int length)
+  {
+    if(offset < 0 || length < 0 || offset > bytes.length - length)
+      throw new IndexOutOfBoundsException();
+    resize(Math.max(1, (length + 3) / 4));
+    for(int i = 0; i < size; ++i)
+      value[i] = 0;
+    for(int i = 0; i < length; ++i) {
+      final int b = length - 1 - i;
+      value[i >>> 2] |= (bytes[offset + b] & 0xFF) << (8 * (i & 3));
+    }
+  }
+  
+  /**
+   * Set {@code this} to the number with the next {@code length} big-endian
+   * unsigned bytes of {@code buffer}, resizing it to the minimal number of
+   * limbs.
+   * @throws IndexOutOfBoundsException If {@code length < 0}.
+   * @throws BufferUnderflowException If fewer than {@code length}
+   * bytes remain.
+   */
+  public final void setBytes(final ByteBuffer buffer, final int length) {
+    if(length < 0)
+      throw new IndexOutOfBoundsException();
+    if(buffer.remaining() < length)
+      throw new BufferUnderflowException();
+    resize(Math.max(1, (length + 3) / 4));
+    for(int i = 0; i < size; ++i)
+      value[i] = 0;
+    for(int i = length - 1; i >= 0; --i)
+      value[i >>> 2] |= (buffer.get() & 0xFF) << (8 * (i & 3));
+  }
+  
+  /**
+   * Write this number as {@code 4 * size()} big-endian unsigned bytes.
+   * @param bytes Holds the bytes.
+   * @param offset The index of the first (most significant) byte.
+   */
+  public final void toByteArray(final byte[] bytes, final int offset) {
+    for(int i = 0, j = offset + 4 * size; i < size; ++i) {
+      bytes[--j] = (byte)value[i];
+      bytes[--j] = (byte)(value[i] >>> 8);
+      bytes[--j] = (byte)(value[i] >>> 16);
+      bytes[--j] = (byte)(value[i] >>> 24);
+    }
+  }
+  
+  /**
+   * @return This number as {@code 4 * size()} big-endian unsigned bytes.
+   */
+  public final byte[] toByteArray() {
+    byte[] bytes = new byte[4 * size];
+    toByteArray(bytes, 0);
+    return bytes;
+  }
+  
+  /**
+   * Write this number to {@code buffer} as {@code 4 * size()} big-endian
+   * unsigned bytes, regardless of the byte order of the buffer.
+   */
+  public final void toByteBuffer(final ByteBuffer buffer) {
+    for(int i = size - 1; i >= 0; --i) {
+      buffer.put((byte)(value[i] >>> 24));
+      buffer.put((byte)(value[i] >>> 16));
+      buffer.put((byte)(value[i] >>> 8));
+      buffer.put((byte)value[i]);
+    }
+  }
+  
+  /**
+   * Set {@code this} to the number with the decimal digits {@code digits},
+   * resizing it to the minimal number of limbs.
+   * @param digits A non-empty string of the digits {@code 0} to {@code 9}.
+   * @throws NullPointerException If {@code digits == null}
+   * @throws NumberFormatException If {@code digits} is empty or contains a
+   * character other than a decimal digit.
+   */
+  public final void setDecimal(final String digits) throws
+    NullPointerException,
+    NumberFormatException
+  {
+    final int[] v = Convert.fromDecimalString(digits);
+    resize(v.length);
+    System.arraycopy(v, 0, value, 0, size);
+  }
+  
+  /**
+   * @return This number in decimal, without leading zeros.
+   */
+  public final String toDecimalString() {
+    return Convert.toDecimalString(value, size);
+  }
+  
+  /**
+   * @return This number in lower case hexadecimal, without leading zeros.
+   */
+  public final String toHexString() {
+    // The limbs above the size are zero
+    return Convert.toHexString(value);
+  }
+  
+  /**
+   * Representation of this MutableNumber as a space-separated, little-endian
+   * list of 32-bit hexadecimal numbers.
+   */
+  public final String toString() {
+    char[] s = new char[8 * size() + size() - 1];
+    for(int vi = 0, si = 0; vi < size(); ++vi) {
+      if(vi > 0)
+        s[si++] = ' ';
+      final int v = value[vi];
+      s[si++] = DIGITS[(v >>> 28) & 0xF];
+      s[si++] = DIGITS[(v >>> 24) & 0xF];
+      s[si++] = DIGITS[(v >>> 20) & 0xF];
+      s[si++] = DIGITS[(v >>> 16) & 0xF];
+      s[si++] = DIGITS[(v >>> 12) & 0xF];
+      s[si++] = DIGITS[(v >>> 8) & 0xF];
+      s[si++] = DIGITS[(v >>> 4) & 0xF];
+      s[si++] = DIGITS[v & 0xF];
+    }
+    return new String(s);
+  }
+  
+  /**
+   * @return Representation of this MutableNumber as a BigInteger.
+   */
+  public final BigInteger toBigInteger() {
+    boolean isZero = true;
+    byte[] v = new byte[4 * size()];
+    for(int i = 0, j = 4 * size(); i < size(); ++i) {
+      if(value[i] != 0)
+        isZero = false;
+      v[--j] = (byte)value[i];
+      v[--j] = (byte)(value[i] >>> 8);
+      v[--j] = (byte)(value[i] >>> 16);
+      v[--j] = (byte)(value[i] >>> 24);
+    }
+    return new BigInteger(isZero ? 0 : 1, v);
+  }
 }
@@ -875,6 +875,63 @@ public class Operations {
     }
   }
   
+  /**
+   * Square {@code value} and store the result in {@code result}.
+   * 
+   * Each cross product {@code value[i] * value[j]} with {@code i != j} is only
+   * calculated once, so this takes roughly half as many limb multiplications
+   * as {@code multiply(value, value, result)}.
+   * 
+   * This method will take constant-time with respect to {@code value.length}.
+   * 
+   * For performance reasons, this method provides no error checking aside from
+   * assertions.
+   * 
+   * @param value The number to square.
+   * @param result Holds the result. Must have length greater than or equal to
+   * twice the length of {@code value}. Must not be the same array as
+   * {@code value}.
+   */
+  public static final void square(final int[] value, final int[] result) {
+    assert value != null;
+    assert result != null;
+    assert value != result;
+    assert 2 * value.length <= result.length;
+    final int length = value.length;
+    
+    // Cross products value[i] * value[j] for i < j
+    for(int i = 0; i < 2 * length; ++i)
+      result[i] = 0;
+    for(int i = 0; i < length - 1; ++i) {
+      final long valueLimb = value[i] & MASK32;
+      long overflow = 0L;
+      for(int j = i + 1; j < length; ++j) {
+        overflow += valueLimb * (value[j] & MASK32) + (result[i + j] & MASK32);
+        result[i + j] = (int)overflow;
+        overflow >>>= 32;
+      }
+      result[i + length] = (int)overflow;
+    }
+    
+    // Double the cross products and add the squares value[i] * value[i]
+    long overflow = 0L;
+    int shiftIn = 0;
+    for(int i = 0; i < length; ++i) {
+      final long valueLimb = value[i] & MASK32;
+      final long product = valueLimb * valueLimb;
+      final int low = result[2 * i];
+      final int high = result[2 * i + 1];
+      overflow += (((low << 1) | shiftIn) & MASK32) + (product & MASK32);
+      result[2 * i] = (int)overflow;
+      overflow >>>= 32;
+      overflow += (((high << 1) | (low >>> 31)) & MASK32) + (product >>> 32);
+      result[2 * i + 1] = (int)overflow;
+      overflow >>>= 32;
+      shiftIn = high >>> 31;
+    }
+    assert overflow == 0L;
+  }
+  
   /**
    * Multiply {@code multiplicand} by {@code multiplierLimb}, add to
    * {@code augend} and return a carry.
@@ -1049,6 +1106,70 @@ public class Operations {
     return overflow;
   }
   
+  /**
+   * Set {@code result = (value << shift) mod 2^(32*result.length)}, returning
+   * the bits shifted out of the top of {@code value}.
+   * 
+   * This method will take constant-time with respect to the pair
+   * {@code (value.length, result.length)}.
+   * 
+   * @param value The number to shift.
+   * @param shift The number of bits to shift by, in the range [0, 32).
+   * @param result Holds the result. Must be at least as long as {@code value}
+   * and may be the same array.
+   * @return The top {@code shift} bits of {@code value}.
+   */
+  public static final int shiftLeft(
+    final int[] value,
+    final int shift,
+    final int[] result)
+  {
+    assert value != null;
+    assert result != null;
+    assert shift >= 0 && shift < 32;
+    assert result.length >= value.length;
+    // mask == 0x00000000 if shift == 0, since x >>> 32 == x in Java
+    final int mask = -((shift | -shift) >>> 31);
+    int carry = 0;
+    for(int i = 0; i < value.length; ++i) {
+      final int v = value[i];
+      result[i] = (v << shift) | carry;
+      carry = (v >>> (32 - shift)) & mask;
+    }
+    for(int i = value.length; i < result.length; ++i)
+      result[i] = 0;
+    return carry;
+  }
+  
+  /**
+   * Set {@code result = (value >>> shift) mod 2^(32*result.length)}.
+   * 
+   * This method will take constant-time with respect to the pair
+   * {@code (value.length, result.length)}.
+   * 
+   * @param value The number to shift.
+   * @param shift The number of bits to shift by, in the range [0, 32).
+   * @param result Holds the result. May be the same array as {@code value}.
+   */
+  public static final void shiftRight(
+    final int[] value,
+    final int shift,
+    final int[] result)
+  {
+    assert value != null;
+    assert result != null;
+    assert shift >= 0 && shift < 32;
+    // mask == 0x00000000 if shift == 0, since x << 32 == x in Java
+    final int mask = -((shift | -shift) >>> 31);
+    final int n = Math.min(value.length, result.length);
+    for(int i = 0; i < n; ++i) {
+      final int high = (i + 1 < value.length) ? value[i+1] : 0;
+      result[i] = (value[i] >>> shift) | ((high << (32 - shift)) & mask);
+    }
+    for(int i = n; i < result.length; ++i)
+      result[i] = 0;
+  }
+  
   public static final void mod(
     final int[] dividend,
     final int[] divisor,
@@ -1123,4 +1244,264 @@ public class Operations {
     for(int i = dn; i < nn; ++i)
       n[i] = 0;
   }
+  
+  /**
+   * Calculate the reciprocal of the two-limb divisor {@code (d1, d0)} used by
+   * {@link #divide3By2}, i.e. floor((2^96 - 1) / (d1 * 2^32 + d0)) - 2^32.
+   * Algorithm 6 of Moller and Granlund, "Improved division by invariant
+   * integers" (2011), with the corrections applied via masking.
+   * 
+   * @param d1 The high limb of the divisor. The top bit must be set.
+   * @param d0 The low limb of the divisor.
+   * @return The reciprocal.
+   */
+  public static final int invert3By2(final int d1, final int d0) {
+    assert (d1 & 0x80000000) != 0;
+    final long d1Long = d1 & MASK32;
+    final long d0Long = d0 & MASK32;
+    long v = invert(d1) & MASK32;
+    
+    // p = d1 * v + d0 mod 2^32, decrementing v while the product overflows
+    long p = (d1Long * v) & MASK32;
+    p += d0Long;
+    long mask = -(p >>> 32); // -1 if p overflowed
+    p &= MASK32;
+    v += mask;
+    final long ge = ((p - d1Long) >>> 63) - 1; // -1 if p >= d1
+    v += mask & ge;
+    p -= d1Long & mask & ge;
+    p = (p - (d1Long & mask)) & MASK32;
+    
+    // p = p + high(v * d0), decrementing v while the product overflows
+    final long t = v * d0Long;
+    final long t1 = t >>> 32;
+    final long t0 = t & MASK32;
+    p += t1;
+    mask = -(p >>> 32);
+    p &= MASK32;
+    v += mask;
+    // (p, t0) >= (d1, d0)
+    final long pt = (p << 32) | t0;
+    final long d = (d1Long << 32) | d0Long;
+    v += mask & ~borrow(pt, d);
+    return (int)v;
+  }
+  
+  /**
+   * Return -1 if {@code x < y} and 0 otherwise, treating both as unsigned
+   * 64-bit integers.
+   */
+  private static final long borrow(final long x, final long y) {
+    return ((~x & y) | (~(x ^ y) & (x - y))) >> 63;
+  }
+  
+  /**
+   * Divide the three-limb number {@code (u2, u1, u0)} by the two-limb divisor
+   * {@code d = (d1, d0)}, where {@code (u2, u1) < (d1, d0)}. Algorithm 5 of
+   * Moller and Granlund with the adjustments applied via masking.
+   * 
+   * @param u2 The high limb of the dividend.
+   * @param u1 The middle limb of the dividend.
+   * @param u0 The low limb of the dividend.
+   * @param d The divisor {@code (d1 << 32) | d0}. The top bit must be set.
+   * @param v The reciprocal calculated by {@link #invert3By2}.
+   * @return The one-limb quotient.
+   */
+  private static final int divide3By2(
+    final long u2,
+    final long u1,
+    final long u0,
+    final long d,
+    final long v)
+  {
+    final long d1 = d >>> 32;
+    final long d0 = d & MASK32;
+    
+    // (q1, q0) = v * u2 + (u2, u1), which fits in 64 bits
+    final long q = v * u2 + ((u2 << 32) | u1);
+    long q1 = q >>> 32;
+    final long q0 = q & MASK32;
+    
+    // r = (r1, u0) - q1 * d0 - d where r1 = u1 - q1 * d1 mod 2^32
+    final long r1 = (u1 - q1 * d1) & MASK32;
+    long r = ((r1 << 32) | u0) - q1 * d0 - d;
+    q1 = (q1 + 1) & MASK32;
+    
+    // if r1 >= q0 then q1 -= 1 and r += d
+    long mask = (((r >>> 32) - q0) >>> 63) - 1;
+    q1 += mask;
+    r += d & mask;
+    
+    // if r >= d then q1 += 1 (unlikely)
+    mask = ~borrow(r, d);
+    q1 -= mask;
+    
+    return (int)q1;
+  }
+  
+  /**
+   * Divide {@code dividend} by the single limb {@code divisor}, store the
+   * quotient in {@code quotient} and return the remainder.
+   * 
+   * Uses one full limb of quotient per step with a precomputed reciprocal
+   * (Algorithm 4 of Moller and Granlund, "Improved division by invariant
+   * integers", 2011). This method will take constant-time with respect to
+   * the pair {@code (dividend.length, quotient.length)}.
+   * 
+   * @param dividend The number to divide. Not modified.
+   * @param divisor The divisor, treated as unsigned. Must not be zero.
+   * @param quotient Holds the quotient. Must be at least as long as
+   * {@code dividend} and may be the same array.
+   * @return The remainder, as an unsigned int.
+   */
+  public static final int divRem(
+    final int[] dividend,
+    final int divisor,
+    final int[] quotient)
+  {
+    assert dividend != null;
+    assert quotient != null;
+    assert divisor != 0;
+    assert quotient.length >= dividend.length;
+    
+    if(dividend.length == 0) {
+      for(int i = 0; i < quotient.length; ++i)
+        quotient[i] = 0;
+      return 0;
+    }
+    
+    // Normalise the divisor and shift the dividend as we go. The bits shifted
+    // out of the top of the dividend are the initial remainder.
+    final int s = Integer.numberOfLeadingZeros(divisor);
+    final int sMask = -((s | -s) >>> 31); // 0 if s == 0 since x >>> 32 == x
+    final long d = (divisor << s) & MASK32;
+    final long v = invert((int)d) & MASK32;
+    
+    long r = ((dividend[dividend.length-1] >>> (32 - s)) & sMask) & MASK32;
+    for(int i = dividend.length - 1; i >= 0; --i) {
+      final int low = i > 0 ? dividend[i-1] : 0;
+      final long u1 = r;
+      final long u0 = ((dividend[i] << s) | ((low >>> (32 - s)) & sMask)) & MASK32;
+      
+      // (q1, q0) = v * u1 + (u1, u0)
+      final long q = v * u1 + ((u1 << 32) | u0);
+      long q1 = ((q >>> 32) + 1) & MASK32;
+      final long q0 = q & MASK32;
+      r = (u0 - q1 * d) & MASK32;
+      
+      // if r > q0 then q1 -= 1 and r += d
+      long mask = (q0 - r) >> 63;
+      q1 += mask;
+      r = (r + (d & mask)) & MASK32;
+      
+      // if r >= d then q1 += 1 and r -= d (unlikely)
+      mask = ((r - d) >>> 63) - 1;
+      q1 -= mask;
+      r -= d & mask;
+      
+      quotient[i] = (int)q1;
+    }
+    for(int i = dividend.length; i < quotient.length; ++i)
+      quotient[i] = 0;
+    
+    // The remainder of the shifted dividend is the remainder shifted by s
+    return (int)(r >>> s);
+  }
+  
+  /**
+   * Divide {@code dividend} by {@code divisor}, storing the quotient and the
+   * remainder.
+   * 
+   * The divisor need not be normalised. Internally both operands are shifted
+   * so that the top bit of the divisor is set, and each step calculates a full
+   * limb of the quotient from the top three limbs of the partial remainder
+   * and the top two limbs of the divisor with a precomputed 3/2 reciprocal
+   * (Moller and Granlund, "Improved division by invariant integers", 2011).
+   * All corrections are applied via masking, so this method will take
+   * constant-time with respect to the lengths of its arguments.
+   * 
+   * @param dividend The number to divide. Not modified.
+   * @param divisor The number to divide by. The most significant limb must not
+   * be zero.
+   * @param quotient Holds the quotient. Must have length at least
+   * {@code dividend.length - divisor.length + 1}. May be null if only the
+   * remainder is required.
+   * @param remainder Holds the remainder. Must have length at least
+   * {@code divisor.length}. May be null if only the quotient is required.
+   */
+  public static final void divRem(
+    final int[] dividend,
+    final int[] divisor,
+    final int[] quotient,
+    final int[] remainder)
+  {
+    assert dividend != null;
+    assert divisor != null;
+    assert divisor.length > 0;
+    assert divisor[divisor.length-1] != 0;
+    assert quotient == null
+      || quotient.length >= Math.max(0, dividend.length - divisor.length + 1);
+    assert remainder == null || remainder.length >= divisor.length;
+    
+    final int nn = dividend.length;
+    final int dn = divisor.length;
+    
+    if(dn == 1) {
+      final int[] q = quotient != null ? quotient : new int[nn];
+      final int r = divRem(dividend, divisor[0], q);
+      if(remainder != null) {
+        remainder[0] = r;
+        for(int i = 1; i < remainder.length; ++i)
+          remainder[i] = 0;
+      }
+      return;
+    }
+    
+    // Normalise: d = divisor << s and n = dividend << s with an extra limb
+    final int s = Integer.numberOfLeadingZeros(divisor[dn-1]);
+    final int[] d = new int[dn];
+    shiftLeft(divisor, s, d);
+    final int[] n = new int[Math.max(nn, dn - 1) + 1];
+    n[nn] = shiftLeft(dividend, s, n);
+    
+    final long dTop = ((d[dn-1] & MASK32) << 32) | (d[dn-2] & MASK32);
+    final long v = invert3By2(d[dn-1], d[dn-2]) & MASK32;
+    
+    // One limb of quotient per step. The partial remainder is always less
+    // than the divisor times 2^32, so its top two limbs are at most the top two
+    // limbs of the divisor. When they are equal the quotient limb is 2^32 - 1;
+    // otherwise the 3/2 estimate is exact or one too big.
+    for(int j = n.length - dn - 1; j >= 0; --j) {
+      final long u2 = n[j+dn] & MASK32;
+      final long u1 = n[j+dn-1] & MASK32;
+      final long uTop = (u2 << 32) | u1;
+      final long x = uTop ^ dTop;
+      final int equal = (int)(((x - 1L) & ~x) >> 63); // -1 if uTop == dTop
+      int q = divide3By2(
+        u2 & ~equal,
+        u1 & ~equal,
+        n[j+dn-2] & MASK32,
+        dTop,
+        v);
+      q |= equal;
+      
+      // Subtract q times the divisor
+      final long top = u2 + multiplySubtract(dn, n, j, d, 0, q);
+      n[j+dn] = 0;
+      
+      // If that made the partial remainder negative then q was one too big
+      final int mask = (int)(top >> 32);
+      maskedAdd(dn, n, j, d, 0, mask);
+      q += mask;
+      
+      if(quotient != null)
+        quotient[j] = q;
+    }
+    
+    if(quotient != null)
+      for(int i = Math.max(0, n.length - dn); i < quotient.length; ++i)
+        quotient[i] = 0;
+    if(remainder != null)
+      shiftRight(n, s, remainder);
+  }
 }
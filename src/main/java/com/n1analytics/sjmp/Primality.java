@@ -0,0 +1,527 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * Probabilistic primality tests built on the {@link Modulus} operations.
+ *
+ * {@link #isProbablePrime(int[], int, Random)} runs the Baillie-PSW test
+ * (trial division, a Miller-Rabin round to base 2 and a strong Lucas test),
+ * which has no known counterexamples, followed by a number of Miller-Rabin
+ * rounds to random bases. The exponentiations and the Lucas ladder take
+ * constant-time with respect to the length of the candidate. The trial
+ * division, the choice of the Lucas parameter and the number of squarings in
+ * each Miller-Rabin round depend on the candidate, but only reveal small
+ * residues of it.
+ */
+public final class Primality {
+
+  /**
+   * The odd primes less than 2^14, used for trial division here and for
+   * sieving by {@link Sieve}.
+   */
+  static final int[] SMALL_PRIMES = smallPrimes(1 << 14);
+
+  /**
+   * Candidates less than this are decided by trial division alone.
+   */
+  private static final long TRIAL_DIVISION_LIMIT = (long)(1 << 14) * (1 << 14);
+
+  /**
+   * Trial division stops after the primes less than this, since beyond it the
+   * Miller-Rabin round costs less than the divisions it would avoid.
+   */
+  private static final int TRIAL_DIVISION_BOUND = 1 << 10;
+
+  private static final Random RANDOM = new SecureRandom();
+
+  private Primality() {}
+
+  private static int[] smallPrimes(final int bound) {
+    final boolean[] composite = new boolean[bound];
+    int count = 0;
+    for(int i = 3; i < bound; i += 2) {
+      if(composite[i])
+        continue;
+      ++count;
+      for(long j = (long)i * i; j < bound; j += 2 * i)
+        composite[(int)j] = true;
+    }
+    final int[] primes = new int[count];
+    for(int i = 3, j = 0; i < bound; i += 2)
+      if(!composite[i])
+        primes[j++] = i;
+    return primes;
+  }
+
+  /**
+   * @return {@code -1} if {@code a == b}, otherwise {@code 0}, in constant
+   * time.
+   */
+  private static int equal(final int[] a, final int[] b) {
+    int difference = 0;
+    for(int i = 0; i < a.length; ++i)
+      difference |= a[i] ^ b[i];
+    return ((difference | -difference) >> 31) ^ -1;
+  }
+
+  /**
+   * @return {@code -1} if {@code a == 0}, otherwise {@code 0}, in constant
+   * time.
+   */
+  private static int zero(final int[] a) {
+    int bits = 0;
+    for(int i = 0; i < a.length; ++i)
+      bits |= a[i];
+    return ((bits | -bits) >> 31) ^ -1;
+  }
+
+  /**
+   * Set {@code result = a} if {@code mask == -1}; leave it unchanged if
+   * {@code mask == 0}.
+   */
+  private static void select(final int mask, final int[] a, final int[] result) {
+    for(int i = 0; i < a.length; ++i)
+      result[i] ^= (result[i] ^ a[i]) & mask;
+  }
+
+  /**
+   * Run one round of the Miller-Rabin test on the modulus.
+   *
+   * With n - 1 = d * 2^s for odd d, n passes if {@code base^d == 1} or
+   * {@code base^(d * 2^r) == n - 1} for some {@code 0 <= r < s}. All s
+   * values are calculated and compared by masking, so only s affects the
+   * running time.
+   *
+   * @param modulus An odd modulus n greater than three. Only its workspace is
+   * modified.
+   * @param base A base in the range [2, n - 2], with the modulus' length.
+   * @return {@code false} if n is composite, {@code true} if it is a strong
+   * probable prime to {@code base}.
+   */
+  public static boolean millerRabin(final Modulus modulus, final int[] base) {
+    final int[] m = modulus.modulus;
+    final int n = m.length;
+    assert (m[0] & 1) == 1;
+    assert base.length == n;
+
+    final int[] one = new int[n];
+    one[0] = 1;
+    final int[] minusOne = m.clone();
+    minusOne[0] ^= 1;
+
+    // d = (n - 1) / 2^s
+    int s = 1;
+    while(s < 32 * n && ((minusOne[s >>> 5] >>> (s & 31)) & 1) == 0)
+      ++s;
+    final int[] d = new int[n];
+    shiftRight(minusOne, s, d);
+
+    final int[] x = new int[n];
+    modulus.powMod(base, d, x);
+    int probable = equal(x, one) | equal(x, minusOne);
+    for(int r = 1; r < s; ++r) {
+      modulus.squareMod(x, x);
+      probable |= equal(x, minusOne);
+    }
+    return probable != 0;
+  }
+
+  /**
+   * Run the strong Lucas probable prime test on the modulus, with the
+   * parameters of Selfridge's method A: D is the first of 5, -7, 9, -11, ...
+   * with Jacobi symbol (D/n) = -1, P = 1 and Q = (1 - D) / 4.
+   *
+   * With n + 1 = d * 2^s for odd d, n passes if {@code U_d == 0} or
+   * {@code V_(d * 2^r) == 0} for some {@code 0 <= r < s}. Only the V sequence
+   * is calculated, with a Montgomery ladder over every bit of d that keeps
+   * V_k, V_(k+1) and Q^k and selects by masking (four multiplications per
+   * bit). Since D is invertible, {@code U_d == 0} exactly when
+   * {@code 2 V_(d+1) == P V_d}. All the values are kept in the Montgomery
+   * domain, which the tests against zero don't need to leave.
+   *
+   * @param modulus An odd modulus n that is not a perfect square and is
+   * greater than the D that is found. Only its workspace is modified.
+   * @return {@code false} if n is composite, {@code true} if it is a strong
+   * Lucas probable prime.
+   */
+  public static boolean strongLucas(final Modulus modulus) {
+    final int[] m = modulus.modulus;
+    final int n = m.length;
+    assert (m[0] & 1) == 1;
+
+    // Choose D. Perfect squares have no D with (D/n) = -1, and if (D/n) = 0
+    // then D shares a factor with n.
+    int dAbs = 5;
+    int sign = 1;
+    for(int j; (j = jacobi(sign * dAbs, m)) != -1; ) {
+      if(j == 0)
+        return false;
+      dAbs += 2;
+      sign = -sign;
+      assert dAbs < 1 << 16;
+    }
+    final int[] q = residue((1 - sign * dAbs) / 4, m);
+    modulus.montgomeryTransform(q);
+
+    // d = (n + 1) / 2^s. n + 1 overflows n's limbs only if n = 2^(32n) - 1,
+    // which is divisible by 3.
+    final int[] plusOne = m.clone();
+    long carry = 1L;
+    for(int i = 0; i < n; ++i) {
+      carry += plusOne[i] & MASK32;
+      plusOne[i] = (int)carry;
+      carry >>>= 32;
+    }
+    assert carry == 0L;
+    int s = 1;
+    while(((plusOne[s >>> 5] >>> (s & 31)) & 1) == 0)
+      ++s;
+    final int[] d = new int[n];
+    shiftRight(plusOne, s, d);
+
+    // k = 0: V_0 = 2, V_1 = P = 1 and Q^0 = 1, in the Montgomery domain
+    final int[] v0 = new int[n];
+    final int[] v1 = new int[n];
+    final int[] qk = new int[n];
+    modulus.calculateMontgomeryIdentity(v1);
+    modulus.calculateMontgomeryIdentity(qk);
+    modulus.addMod(v1, v1, v0);
+    final int[] a = new int[n];
+    final int[] qa = new int[n];
+    final int[] t = new int[n];
+
+    for(int i = 32 * n - 1; i >= 0; --i) {
+      final int bit = -((d[i >>> 5] >>> (i & 31)) & 1);
+
+      // t = V_(2k+1) = V_k V_(k+1) - P Q^k
+      Convert.copy(v0, t);
+      modulus.multiplyReduce(t, v1);
+      modulus.subMod(t, qk, t);
+
+      // (a, qa) = (V_k, Q^k) if the bit is clear, or (V_(k+1), Q^(k+1)) if
+      // it is set, and then a = V_(2a) = a^2 - 2 qa
+      Convert.copy(qk, qa);
+      modulus.multiplyReduce(qa, q);
+      Convert.copy(v0, a);
+      select(bit, v1, a);
+      select(~bit, qk, qa);
+      modulus.multiplyReduce(a, a);
+      modulus.subMod(a, qa, a);
+      modulus.subMod(a, qa, a);
+
+      // k = 2k + bit
+      Convert.copy(a, v0);
+      select(bit, t, v0);
+      Convert.copy(t, v1);
+      select(bit, a, v1);
+      modulus.multiplyReduce(qk, qa);
+    }
+
+    // U_d == 0 if 2 V_(d+1) - P V_d == 0
+    modulus.addMod(v1, v1, t);
+    modulus.subMod(t, v0, t);
+    int probable = zero(t) | zero(v0);
+    for(int r = 1; r < s; ++r) {
+      modulus.multiplyReduce(v0, v0);
+      modulus.subMod(v0, qk, v0);
+      modulus.subMod(v0, qk, v0);
+      modulus.multiplyReduce(qk, qk);
+      probable |= zero(v0);
+    }
+    return probable != 0;
+  }
+
+  /**
+   * Set {@code result = value >>> shift} for any shift less than
+   * {@code 32 * value.length}.
+   */
+  private static void shiftRight(
+    final int[] value,
+    final int shift,
+    final int[] result)
+  {
+    final int limbs = shift >>> 5;
+    for(int i = 0; i < result.length; ++i)
+      result[i] = i + limbs < value.length ? value[i + limbs] : 0;
+    Operations.shiftRight(result, shift & 31, result);
+  }
+
+  /**
+   * @return {@code x mod m} for a small signed {@code x}, with m's length.
+   */
+  private static int[] residue(final int x, final int[] m) {
+    final int[] result = new int[m.length];
+    result[0] = Math.abs(x);
+    if(x < 0) {
+      final int[] mm = m.clone();
+      Operations.subtract(mm.length, mm, 0, result, 0);
+      return mm;
+    }
+    return result;
+  }
+
+  /**
+   * @return The remainder of {@code value} divided by a positive int.
+   */
+  private static int remainder(final int[] value, final int divisor) {
+    return Operations.divRem(value, divisor, new int[value.length]);
+  }
+
+  /**
+   * @return The Jacobi symbol (a/m) for an odd m.
+   */
+  static int jacobi(final int a, final int[] m) {
+    // (a/m) = (-1/m)^[a < 0] (|a|/m), and with |a| = 2^e * b for odd b,
+    // (2/m)^e (b/m), where (b/m) = (m/b) (-1)^((b-1)/2 * (m-1)/2)
+    final int m8 = m[0] & 7;
+    int result = 1;
+    int b = Math.abs(a);
+    if(a < 0 && (m8 & 3) == 3)
+      result = -result;
+    while((b & 1) == 0 && b != 0) {
+      b >>>= 1;
+      if(m8 == 3 || m8 == 5)
+        result = -result;
+    }
+    if(b == 0)
+      return 0;
+    if(b == 1)
+      return result;
+    if((b & 3) == 3 && (m8 & 3) == 3)
+      result = -result;
+    return result * jacobi(remainder(m, b), b);
+  }
+
+  /**
+   * @return The Jacobi symbol (a/b) for small non-negative a and odd b.
+   */
+  private static int jacobi(int a, int b) {
+    int result = 1;
+    while(a != 0) {
+      while((a & 1) == 0) {
+        a >>>= 1;
+        if((b & 7) == 3 || (b & 7) == 5)
+          result = -result;
+      }
+      final int t = a;
+      a = b;
+      b = t;
+      if((a & 3) == 3 && (b & 3) == 3)
+        result = -result;
+      a %= b;
+    }
+    return b == 1 ? result : 0;
+  }
+
+  /**
+   * @return {@code 0} if {@code value} has no odd prime factor less than
+   * {@code bound}, otherwise such a factor.
+   */
+  private static int smallFactor(final int[] value, final int bound) {
+    // Divide by products of primes that fit in 31 bits, then split the
+    // remainder of each product by each of its primes
+    for(int i = 0; i < SMALL_PRIMES.length && SMALL_PRIMES[i] < bound; ) {
+      long product = 1L;
+      int j = i;
+      while(j < SMALL_PRIMES.length && SMALL_PRIMES[j] < bound
+          && product * SMALL_PRIMES[j] < Integer.MAX_VALUE)
+        product *= SMALL_PRIMES[j++];
+      final int r = remainder(value, (int)product);
+      for(; i < j; ++i)
+        if(r % SMALL_PRIMES[i] == 0)
+          return SMALL_PRIMES[i];
+    }
+    return 0;
+  }
+
+  /**
+   * Set {@code result[i] = value mod primes[i]} for each of the first
+   * {@code result.length} primes.
+   */
+  static void residues(final int[] value, final int[] primes, final int[] result) {
+    for(int i = 0; i < result.length; ) {
+      long product = 1L;
+      int j = i;
+      while(j < result.length && product * primes[j] < Integer.MAX_VALUE)
+        product *= primes[j++];
+      final int r = remainder(value, (int)product);
+      for(; i < j; ++i)
+        result[i] = r % primes[i];
+    }
+  }
+
+  /**
+   * @return Whether n is a perfect square.
+   */
+  private static boolean isSquare(final BigInteger n) {
+    // Newton's method from above
+    BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + 1) / 2);
+    while(true) {
+      final BigInteger y = x.add(n.divide(x)).shiftRight(1);
+      if(y.compareTo(x) >= 0)
+        return x.multiply(x).equals(n);
+      x = y;
+    }
+  }
+
+  /**
+   * Test whether {@code candidate} is probably prime with the Baillie-PSW
+   * test followed by {@code rounds} Miller-Rabin rounds to random bases.
+   *
+   * @param candidate A little-endian number. Not modified.
+   * @param rounds The number of extra Miller-Rabin rounds. Each has a
+   * probability of at most 1/4 of passing a composite.
+   * @param random The source of the random bases.
+   * @return {@code false} if {@code candidate} is composite, {@code true} if
+   * it is probably prime.
+   */
+  public static boolean isProbablePrime(
+    final int[] candidate,
+    final int rounds,
+    final Random random)
+  {
+    assert candidate != null;
+    assert rounds >= 0;
+
+    // Drop leading zero limbs, so the Modulus has the candidate's length
+    int length = candidate.length;
+    while(length > 1 && candidate[length-1] == 0)
+      --length;
+    final int[] c = new int[length];
+    System.arraycopy(candidate, 0, c, 0, length);
+
+    if(length <= 2) {
+      final long value = length == 1
+        ? c[0] & MASK32
+        : ((c[1] & MASK32) << 32) | (c[0] & MASK32);
+      if(value >= 0 && value < TRIAL_DIVISION_LIMIT) {
+        if(value < 2)
+          return false;
+        if(value == 2)
+          return true;
+        if((value & 1) == 0)
+          return false;
+        for(int p : SMALL_PRIMES) {
+          if((long)p * p > value)
+            return true;
+          if(value % p == 0)
+            return false;
+        }
+        return true;
+      }
+    }
+    if((c[0] & 1) == 0)
+      return false;
+    if(smallFactor(c, TRIAL_DIVISION_BOUND) != 0)
+      return false;
+
+    final Modulus modulus = Modulus.valueOf(c);
+    final int[] base = new int[length];
+    base[0] = 2;
+    if(!millerRabin(modulus, base))
+      return false;
+    if(isSquare(Convert.toBigInteger(c)))
+      return false;
+    if(!strongLucas(modulus))
+      return false;
+
+    // Random bases in [2, n - 2]
+    final BigInteger n = Convert.toBigInteger(c);
+    final BigInteger range = n.subtract(BigInteger.valueOf(3));
+    for(int i = 0; i < rounds; ++i) {
+      BigInteger b;
+      do {
+        b = new BigInteger(range.bitLength(), random);
+      } while(b.compareTo(range) >= 0);
+      Convert.fromBigInteger(b.add(BigInteger.valueOf(2)), base);
+      if(!millerRabin(modulus, base))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * {@link #isProbablePrime(int[], int, Random)} with random bases from a
+   * shared {@link SecureRandom}.
+   * @throws IllegalArgumentException If {@code rounds < 0}.
+   * @throws NullPointerException If {@code candidate == null}.
+   */
+  public static boolean isProbablePrime(
+    final BigInteger candidate,
+    final int rounds)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(candidate == null)
+      throw new NullPointerException("candidate must not be null");
+    if(rounds < 0)
+      throw new IllegalArgumentException("rounds must be non-negative");
+    if(candidate.signum() <= 0)
+      return false;
+    return isProbablePrime(
+      Convert.fromBigInteger(
+        candidate,
+        new int[(candidate.bitLength() + 31) / 32]),
+      rounds,
+      RANDOM);
+  }
+
+  /**
+   * Test each of {@code candidates} with
+   * {@link #isProbablePrime(BigInteger, int)}, in parallel on the common
+   * fork/join pool.
+   * @return Whether each candidate is probably prime.
+   * @throws IllegalArgumentException If {@code rounds < 0}.
+   * @throws NullPointerException If {@code candidates} or any of its elements
+   * is null.
+   */
+  public static boolean[] isProbablePrime(
+    final BigInteger[] candidates,
+    final int rounds)
+    throws IllegalArgumentException, NullPointerException
+  {
+    if(candidates == null)
+      throw new NullPointerException("candidates must not be null");
+    if(rounds < 0)
+      throw new IllegalArgumentException("rounds must be non-negative");
+    final boolean[] results = new boolean[candidates.length];
+    final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    for(int i = 0; i < candidates.length; ++i) {
+      final int index = i;
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          results[index] = isProbablePrime(candidates[index], rounds);
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+    return results;
+  }
+}
@@ -0,0 +1,273 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * Generation of random probable primes and safe primes with an incremental
+ * sieve.
+ *
+ * A search starts from a random odd number x and keeps the residues of x
+ * modulo the odd primes less than 2^14 ({@link Primality#SMALL_PRIMES}).
+ * Each step adds two to x and to every residue, so a candidate with a small
+ * factor is rejected without any division. Only the survivors, about one in
+ * nine, are passed to a Miller-Rabin round to base 2 on a {@link Modulus}
+ * and then to {@link Primality#isProbablePrime(int[], int, Random)}.
+ *
+ * In safe-prime mode the search is over q, and p = 2q + 1 is sieved at the
+ * same time: q is rejected if {@code q mod r == 0} or
+ * {@code q mod r == (r - 1) / 2} (when r divides p) for any small prime r.
+ *
+ * Several searches from different random starts run in parallel on the
+ * common fork/join pool, and the first result found is returned. None of this
+ * is constant-time: the number of candidates tried reveals the distance from
+ * the random start to the prime, which is independent of the prime's value
+ * beyond it being the first in its interval.
+ */
+public final class Sieve {
+
+  /**
+   * The number of steps from one random start before choosing another, so
+   * that the search isn't biased too heavily towards primes after long gaps.
+   */
+  private static final int MAX_STEPS = 1 << 16;
+
+  private static final Random RANDOM = new SecureRandom();
+
+  private Sieve() {}
+
+  /**
+   * A single-threaded search from successive random starts.
+   */
+  private static final class Search extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int bits;
+    private final int rounds;
+    private final boolean safe;
+    private final Random random;
+    private final AtomicReference<BigInteger> found;
+
+    Search(
+      final int bits,
+      final int rounds,
+      final boolean safe,
+      final Random random,
+      final AtomicReference<BigInteger> found)
+    {
+      this.bits = bits;
+      this.rounds = rounds;
+      this.safe = safe;
+      this.random = random;
+      this.found = found;
+    }
+
+    @Override
+    protected void compute() {
+      // The search is over q = (p - 1) / 2 in safe-prime mode
+      final int qBits = safe ? bits - 1 : bits;
+      final int n = (qBits + 31) / 32;
+      final int pn = (bits + 31) / 32;
+      final int topBit = (qBits - 1) & 31;
+
+      // Sieve only with primes less than the smallest candidate, so that a
+      // zero residue always means a proper factor
+      int count = 0;
+      while(count < Primality.SMALL_PRIMES.length
+          && Primality.SMALL_PRIMES[count] < (1L << (qBits - 1)))
+        ++count;
+      final int[] primes = Primality.SMALL_PRIMES;
+      final int[] residues = new int[count];
+
+      final int[] q = new int[n];
+      final int[] p = new int[pn];
+      final int[] base = new int[pn];
+      while(found.get() == null) {
+        // A random odd start with the top bit set
+        for(int i = 0; i < n; ++i)
+          q[i] = random.nextInt();
+        q[n-1] &= (int)((2L << topBit) - 1);
+        q[n-1] |= 1 << topBit;
+        q[0] |= 1;
+        Primality.residues(q, primes, residues);
+
+        for(int step = 0; step < MAX_STEPS && found.get() == null; ++step) {
+          if(step > 0) {
+            // q += 2, and update the residues to match
+            long carry = 2L;
+            for(int i = 0; i < n && carry != 0L; ++i) {
+              carry += q[i] & MASK32;
+              q[i] = (int)carry;
+              carry >>>= 32;
+            }
+            if(carry != 0L || (q[n-1] >>> topBit) > 1)
+              break;
+            for(int i = 0; i < count; ++i) {
+              final int r = residues[i] + 2;
+              residues[i] = r >= primes[i] ? r - primes[i] : r;
+            }
+          }
+          if(!survives(residues, primes, count))
+            continue;
+          if(!safe) {
+            if(quickTest(q, base) && Primality.isProbablePrime(q, rounds, random))
+              found.compareAndSet(null, Convert.toBigInteger(q));
+            continue;
+          }
+
+          // p = 2q + 1
+          p[pn-1] = 0;
+          final int carry = Operations.shiftLeft(q, 1, p);
+          if(pn > n)
+            p[n] = carry;
+          p[0] |= 1;
+          final int[] qBase = n == pn ? base : new int[n];
+          if(quickTest(q, qBase)
+              && quickTest(p, base)
+              && Primality.isProbablePrime(q, rounds, random)
+              && Primality.isProbablePrime(p, rounds, random))
+            found.compareAndSet(null, Convert.toBigInteger(p));
+        }
+      }
+    }
+
+    /**
+     * @return Whether the candidate has no small factor. In safe-prime mode
+     * also whether 2q + 1 has none.
+     */
+    private boolean survives(
+      final int[] residues,
+      final int[] primes,
+      final int count)
+    {
+      for(int i = 0; i < count; ++i) {
+        final int r = residues[i];
+        if(r == 0 || (safe && r == primes[i] >>> 1))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Run a Miller-Rabin round to base 2, which rejects nearly all the
+   * composites that survive the sieve for the cost of one exponentiation.
+   */
+  private static boolean quickTest(final int[] candidate, final int[] base) {
+    for(int i = 0; i < base.length; ++i)
+      base[i] = 0;
+    base[0] = 2;
+    return Primality.millerRabin(Modulus.valueOf(candidate), base);
+  }
+
+  private static BigInteger search(
+    final int bits,
+    final int rounds,
+    final boolean safe,
+    final Random random,
+    final int parallelism)
+  {
+    if(bits < 16)
+      throw new IllegalArgumentException("bits must be at least 16");
+    if(rounds < 0)
+      throw new IllegalArgumentException("rounds must be non-negative");
+    if(parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be strictly positive");
+    if(random == null)
+      throw new NullPointerException("random must not be null");
+    final AtomicReference<BigInteger> found = new AtomicReference<BigInteger>();
+    final List<Search> searches = new ArrayList<Search>();
+    for(int i = 0; i < parallelism; ++i)
+      searches.add(new Search(bits, rounds, safe, random, found));
+    ForkJoinTask.invokeAll(searches);
+    return found.get();
+  }
+
+  /**
+   * Return a random probable prime of exactly {@code bits} bits.
+   * @param bits The bit length. Must be at least 16.
+   * @param rounds The number of Miller-Rabin rounds to random bases after the
+   * Baillie-PSW test.
+   * @param random The source of randomness. Must be thread-safe if
+   * {@code parallelism > 1}.
+   * @param parallelism The number of searches to run in parallel.
+   * @throws IllegalArgumentException If {@code bits < 16},
+   * {@code rounds < 0} or {@code parallelism <= 0}.
+   * @throws NullPointerException If {@code random == null}.
+   */
+  public static BigInteger probablePrime(
+    final int bits,
+    final int rounds,
+    final Random random,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    return search(bits, rounds, false, random, parallelism);
+  }
+
+  /**
+   * {@link #probablePrime(int, int, Random, int)} with a shared
+   * {@link SecureRandom} and one search per thread of the common fork/join
+   * pool.
+   */
+  public static BigInteger probablePrime(final int bits, final int rounds)
+    throws IllegalArgumentException
+  {
+    return probablePrime(
+      bits, rounds, RANDOM, ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Return a random probable safe prime p of exactly {@code bits} bits, i.e.
+   * one for which (p - 1) / 2 is also a probable prime. See
+   * {@link #probablePrime(int, int, Random, int)}.
+   */
+  public static BigInteger probableSafePrime(
+    final int bits,
+    final int rounds,
+    final Random random,
+    final int parallelism)
+    throws IllegalArgumentException, NullPointerException
+  {
+    return search(bits, rounds, true, random, parallelism);
+  }
+
+  /**
+   * {@link #probableSafePrime(int, int, Random, int)} with a shared
+   * {@link SecureRandom} and one search per thread of the common fork/join
+   * pool.
+   */
+  public static BigInteger probableSafePrime(final int bits, final int rounds)
+    throws IllegalArgumentException
+  {
+    return probableSafePrime(
+      bits, rounds, RANDOM, ForkJoinPool.getCommonPoolParallelism());
+  }
+}
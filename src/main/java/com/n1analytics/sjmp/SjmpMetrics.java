@@ -0,0 +1,270 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional instrumentation of {@link Modulus#powMod}.
+ *
+ * Metrics are enabled by starting the JVM with {@code -Dsjmp.metrics=true}.
+ * The flag is read once into {@link #ENABLED}, a {@code static final} field,
+ * so when it is not set the JIT removes the instrumentation from the hot paths
+ * entirely. When it is set each call to {@code powMod} reads the clock five
+ * times and updates a handful of {@link LongAdder}s, which is negligible next
+ * to the exponentiation itself; nothing is recorded per multiplication.
+ *
+ * For every {@code powMod} the following are recorded:
+ * <ul>
+ * <li>the time spent in each {@link Phase};</li>
+ * <li>the number of Montgomery squarings and multiplications;</li>
+ * <li>a histogram of the modulus length in limbs;</li>
+ * <li>a histogram of the total latency in nanoseconds.</li>
+ * </ul>
+ * Both histograms have power of two buckets: bucket {@code i} counts values
+ * {@code v} with {@code 2^(i-1) <= v < 2^i}, and bucket 0 counts zeros.
+ *
+ * All methods are thread-safe. Reads are not atomic with respect to
+ * concurrent updates, so a snapshot taken under load may be slightly
+ * inconsistent between metrics.
+ */
+public final class SjmpMetrics {
+
+  /**
+   * Whether metrics are recorded. Set by the {@code sjmp.metrics} system
+   * property when this class is initialised.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("sjmp.metrics");
+
+  /**
+   * The phases of a modular exponentiation.
+   */
+  public enum Phase {
+    /** Transforming the base into the Montgomery domain. */
+    TRANSFORM,
+    /** Calculating the rest of the table of Montgomery powers of the base. */
+    PRECOMPUTE,
+    /** The windowed squarings and multiplications. */
+    EXPONENTIATE,
+    /** Transforming the result out of the Montgomery domain. */
+    REDUCE
+  }
+
+  /**
+   * The number of buckets in each histogram, enough for any long.
+   */
+  public static final int BUCKETS = 65;
+
+  private static final Phase[] PHASES = Phase.values();
+  private static final LongAdder[] phaseNanos = adders(PHASES.length);
+  private static final LongAdder[] phaseCounts = adders(PHASES.length);
+  private static final LongAdder powModCount = new LongAdder();
+  private static final LongAdder squarings = new LongAdder();
+  private static final LongAdder multiplications = new LongAdder();
+  private static final LongAdder[] limbHistogram = adders(BUCKETS);
+  private static final LongAdder[] latencyHistogram = adders(BUCKETS);
+
+  private SjmpMetrics() {
+  }
+
+  private static LongAdder[] adders(final int n) {
+    final LongAdder[] adders = new LongAdder[n];
+    for(int i = 0; i < n; ++i)
+      adders[i] = new LongAdder();
+    return adders;
+  }
+
+  /**
+   * @return The histogram bucket of a non-negative {@code value}.
+   */
+  static int bucket(final long value) {
+    return 64 - Long.numberOfLeadingZeros(value);
+  }
+
+  /**
+   * @return A start time for {@link #record}, or zero if metrics are
+   * disabled.
+   */
+  static long start() {
+    return ENABLED ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Record the time since {@code start} against {@code phase}.
+   * @return The current time, for use as the start of the next phase.
+   */
+  static long record(final Phase phase, final long start) {
+    return ENABLED ? record(phase, start, System.nanoTime()) : 0L;
+  }
+
+  /**
+   * Record the time from {@code start} to {@code end} against {@code phase},
+   * whether or not metrics are enabled.
+   * @return {@code end}.
+   */
+  static long record(final Phase phase, final long start, final long end) {
+    phaseNanos[phase.ordinal()].add(end - start);
+    phaseCounts[phase.ordinal()].increment();
+    return end;
+  }
+
+  /**
+   * Record a completed exponentiation.
+   * @param limbs The length of the modulus in limbs.
+   * @param squarings The number of Montgomery squarings performed.
+   * @param multiplications The number of Montgomery multiplications performed.
+   * @param start The time the exponentiation started.
+   */
+  static void recordPowMod(
+    final int limbs,
+    final long squarings,
+    final long multiplications,
+    final long start)
+  {
+    if(ENABLED)
+      recordPowMod(limbs, squarings, multiplications, start, System.nanoTime());
+  }
+
+  /**
+   * Record an exponentiation that ran from {@code start} to {@code end},
+   * whether or not metrics are enabled.
+   */
+  static void recordPowMod(
+    final int limbs,
+    final long squarings,
+    final long multiplications,
+    final long start,
+    final long end)
+  {
+    final long nanos = end - start;
+    powModCount.increment();
+    SjmpMetrics.squarings.add(squarings);
+    SjmpMetrics.multiplications.add(multiplications);
+    limbHistogram[bucket(limbs)].increment();
+    latencyHistogram[bucket(Math.max(0L, nanos))].increment();
+  }
+
+  /**
+   * @return The number of exponentiations recorded.
+   */
+  public static long powModCount() {
+    return powModCount.sum();
+  }
+
+  /**
+   * @return The total time spent in {@code phase}, in nanoseconds.
+   */
+  public static long nanos(final Phase phase) {
+    return phaseNanos[phase.ordinal()].sum();
+  }
+
+  /**
+   * @return The number of times {@code phase} was recorded.
+   */
+  public static long count(final Phase phase) {
+    return phaseCounts[phase.ordinal()].sum();
+  }
+
+  /**
+   * @return The number of Montgomery squarings done by exponentiations.
+   */
+  public static long squarings() {
+    return squarings.sum();
+  }
+
+  /**
+   * @return The number of Montgomery multiplications done by exponentiations,
+   * excluding squarings and the table precomputation.
+   */
+  public static long multiplications() {
+    return multiplications.sum();
+  }
+
+  /**
+   * @return A copy of the histogram of modulus lengths in limbs.
+   */
+  public static long[] limbHistogram() {
+    return sums(limbHistogram);
+  }
+
+  /**
+   * @return A copy of the histogram of exponentiation latencies in
+   * nanoseconds.
+   */
+  public static long[] latencyHistogram() {
+    return sums(latencyHistogram);
+  }
+
+  private static long[] sums(final LongAdder[] adders) {
+    final long[] sums = new long[adders.length];
+    for(int i = 0; i < adders.length; ++i)
+      sums[i] = adders[i].sum();
+    return sums;
+  }
+
+  /**
+   * Reset all metrics to zero.
+   */
+  public static void reset() {
+    for(int i = 0; i < PHASES.length; ++i) {
+      phaseNanos[i].reset();
+      phaseCounts[i].reset();
+    }
+    powModCount.reset();
+    squarings.reset();
+    multiplications.reset();
+    for(int i = 0; i < BUCKETS; ++i) {
+      limbHistogram[i].reset();
+      latencyHistogram[i].reset();
+    }
+  }
+
+  /**
+   * @return A human readable summary of the recorded metrics.
+   */
+  public static String summary() {
+    final StringBuilder s = new StringBuilder();
+    s.append(String.format("powMod: %d%n", powModCount()));
+    for(Phase phase : PHASES)
+      s.append(String.format(
+        "  %-12s %12d ns over %d%n",
+        phase,
+        nanos(phase),
+        count(phase)));
+    s.append(String.format(
+      "  squarings %d, multiplications %d%n",
+      squarings(),
+      multiplications()));
+    appendHistogram(s, "limbs", limbHistogram());
+    appendHistogram(s, "latency ns", latencyHistogram());
+    return s.toString();
+  }
+
+  private static void appendHistogram(
+    final StringBuilder s,
+    final String name,
+    final long[] histogram)
+  {
+    s.append("  ").append(name).append(':');
+    for(int i = 0; i < histogram.length; ++i)
+      if(histogram[i] != 0)
+        s.append(String.format(" <2^%d=%d", i, histogram[i]));
+    s.append(String.format("%n"));
+  }
+}
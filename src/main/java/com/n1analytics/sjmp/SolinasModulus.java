@@ -0,0 +1,393 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.n1analytics.sjmp.Constants.MASK32;
+
+/**
+ * A {@link Modulus} for a modulus of special form, such as the pseudo-Mersenne
+ * primes 2^255 - 19 and 2^521 - 1, and the Solinas primes used by the NIST
+ * curves (e.g. 2^256 - 2^224 + 2^192 + 2^96 - 1).
+ *
+ * If 2^(32n) mod m (for an n-limb modulus m) can be written with small signed
+ * limbs, then so can 2^(32i) mod m for each of the upper limbs i = n, ...,
+ * 2n - 1 of a product, and a product is reduced by adding small multiples of
+ * its upper limbs to its lower limbs: a few shifted additions per limb
+ * instead of the n limb-multiplications of a Montgomery reduction. The
+ * signed carry out of the top limb is folded back in the same way, and a
+ * masked subtraction of m completes the reduction.
+ *
+ * The inherited Montgomery operations are kept, but with R = 1: the
+ * "Montgomery domain" is the ordinary one, {@code multiplyReduce} computes
+ * {@code a * b mod m} and the transforms are multiplications by 1. Everything
+ * written against the Montgomery operations (e.g. {@code powMod},
+ * {@link EllipticCurve} and {@link Primality}) therefore works unchanged.
+ *
+ * Instances are returned by {@link Modulus#valueOf(int[])} for odd moduli of
+ * this form; see {@link #fromSpecialForm}.
+ */
+public class SolinasModulus extends Modulus {
+
+  /**
+   * The largest magnitude of a signed limb of 2^(32i) mod m that is accepted.
+   * Keeps every column sum of the reduction within a {@code long}.
+   */
+  private static final long MAX_COEFFICIENT = 1L << 24;
+
+  /**
+   * The largest sum of magnitudes of the coefficients in one column, for the
+   * same reason.
+   */
+  private static final long MAX_COLUMN = 1L << 28;
+
+  /**
+   * The number of times the carry out of the top limb is folded back in. The
+   * first fold leaves a carry of at most one in magnitude and the second
+   * none, since 2^(32n) mod m has at most n - 1 limbs.
+   */
+  private static final int FOLDS = 2;
+
+  /**
+   * 2^(32n) mod m as signed limbs, with the modulus' length.
+   */
+  private final long[] digits;
+
+  /**
+   * For each limb j of the result, the upper limbs of the product that
+   * contribute to it and their coefficients.
+   */
+  private final int[][] rows;
+  private final int[][] coefficients;
+
+  /**
+   * If the bit length k of the modulus is not a multiple of 32, the number of
+   * bits of the top limb below 2^k, and c = 2^k - m, which is then a single
+   * limb. Otherwise zero. The carry out of the top limb is then folded in with
+   * the bits from k up as a multiple of c, rather than as a multiple of
+   * 2^(32n) mod m.
+   */
+  private final int topBits;
+  private final long topFold;
+
+  private SolinasModulus(
+    final int[] modulus,
+    final boolean lazyReduction,
+    final long[] digits,
+    final int[][] rows,
+    final int[][] coefficients,
+    final int topBits,
+    final long topFold)
+  {
+    super(
+      modulus,
+      defaultMultiplyStrategy(modulus.length),
+      defaultSquareStrategy(modulus.length),
+      lazyReduction,
+      true); // R = 1
+    this.digits = digits;
+    this.rows = rows;
+    this.coefficients = coefficients;
+    this.topBits = topBits;
+    this.topFold = topFold;
+  }
+
+  /**
+   * Return a {@code SolinasModulus} for {@code modulus} if it has the special
+   * form, and null otherwise. With k the bit length of the modulus this
+   * requires either k = 32n and 2^k - m of at most n - 1 limbs, or 2^k - m
+   * of a single limb. In both cases the signed limbs of 2^(32n) mod m must be
+   * small enough that the reduction is cheaper than a Montgomery reduction.
+   * Takes time linear in the length of the modulus to reject a modulus.
+   * @param modulus A valid odd modulus. Not copied.
+   * @param lazyReduction Ignored, since the reduction is never lazy.
+   */
+  protected static final SolinasModulus fromSpecialForm(
+    final int[] modulus,
+    final boolean lazyReduction)
+  {
+    final int n = modulus.length;
+    if(n < 2)
+      return null;
+
+    // c = 2^k - m = -m mod 2^k
+    final int bits = 32 - Integer.numberOfLeadingZeros(modulus[n-1]);
+    final int[] c = new int[n];
+    long borrow = 0L;
+    for(int i = 0; i < n; ++i) {
+      borrow -= modulus[i] & MASK32;
+      c[i] = (int)borrow;
+      borrow >>= 32;
+    }
+    if(bits < 32)
+      c[n-1] &= (1 << bits) - 1;
+
+    // d = 2^(32n) mod m = c * 2^(32n - k)
+    final int[] d = new int[n];
+    long topFold = 0L;
+    if(bits == 32) {
+      System.arraycopy(c, 0, d, 0, n);
+    } else {
+      for(int i = 1; i < n; ++i)
+        if(c[i] != 0)
+          return null;
+      topFold = c[0] & MASK32;
+      final long shifted = topFold << (32 - bits);
+      d[0] = (int)shifted;
+      d[1] = (int)(shifted >>> 32);
+    }
+    if(d[n-1] != 0)
+      return null;
+
+    // Signed limbs of d in [-2^31, 2^31)
+    final long[] digits = new long[n];
+    long carry = 0L;
+    for(int i = 0; i < n; ++i) {
+      long limb = (d[i] & MASK32) + carry;
+      carry = 0L;
+      if(limb >= 1L << 31) {
+        limb -= 1L << 32;
+        carry = 1L;
+      }
+      if(Math.abs(limb) > MAX_COEFFICIENT)
+        return null;
+      digits[i] = limb;
+    }
+
+    if(bits != 32)
+      for(int i = 0; i < n; ++i)
+        if(digits[i] < 0)
+          return null;
+
+    // The coefficients of 2^(32i) mod m for i = n, ..., 2n - 1, from
+    // 2^(32(i+1)) = 2^32 * 2^(32i) and 2^(32n) = d
+    final long[][] matrix = new long[n][];
+    matrix[0] = digits.clone();
+    for(int i = 1; i < n; ++i) {
+      final long[] previous = matrix[i-1];
+      final long[] row = new long[n];
+      for(int j = n - 1; j > 0; --j)
+        row[j] = previous[j-1];
+      for(int j = 0; j < n; ++j) {
+        row[j] += previous[n-1] * digits[j];
+        if(Math.abs(row[j]) > MAX_COEFFICIENT)
+          return null;
+      }
+      matrix[i] = row;
+    }
+
+    // Collect the non-zero coefficients by column, and give up if there are
+    // as many as a Montgomery reduction has limb-multiplications
+    final int[][] rows = new int[n][];
+    final int[][] coefficients = new int[n][];
+    int terms = 0;
+    for(int j = 0; j < n; ++j) {
+      final List<Integer> column = new ArrayList<Integer>();
+      long sum = 0L;
+      for(int i = 0; i < n; ++i) {
+        if(matrix[i][j] != 0) {
+          column.add(i);
+          sum += Math.abs(matrix[i][j]);
+        }
+      }
+      if(sum > MAX_COLUMN)
+        return null;
+      rows[j] = new int[column.size()];
+      coefficients[j] = new int[column.size()];
+      for(int t = 0; t < column.size(); ++t) {
+        final int i = column.get(t);
+        rows[j][t] = n + i;
+        coefficients[j][t] = (int)matrix[i][j];
+      }
+      terms += column.size();
+    }
+    if(terms >= n * n)
+      return null;
+
+    // With k not a multiple of 32 the coefficients are non-negative, so the
+    // carry out of the top limb is at most one more than a column sum, and
+    // the bits from k up times c must fit in a long
+    if(bits != 32
+        && ((MAX_COLUMN + 2) << (32 - bits)) > (Long.MAX_VALUE >>> 1) / topFold)
+      return null;
+
+    return new SolinasModulus(
+      modulus,
+      lazyReduction,
+      digits,
+      rows,
+      coefficients,
+      bits == 32 ? 0 : bits,
+      topFold);
+  }
+
+  /**
+   * Reduce {@code value}, of twice the modulus' length, modulo the modulus
+   * into its lower half. The upper half is left unspecified. Takes
+   * constant-time with respect to the length of the modulus.
+   */
+  private void reduce(final int[] value) {
+    assert value.length >= 2 * modulus.length;
+    final int n = modulus.length;
+
+    // value[j] += sum of coefficient * value[i] over the upper limbs i
+    long carry = 0L;
+    for(int j = 0; j < n; ++j) {
+      final int[] r = rows[j];
+      final int[] c = coefficients[j];
+      long sum = carry + (value[j] & MASK32);
+      for(int t = 0; t < r.length; ++t)
+        sum += c[t] * (value[r[t]] & MASK32);
+      value[j] = (int)sum;
+      carry = sum >> 32;
+    }
+
+    if(topBits == 0) {
+      // Fold the signed carry out of the top limb back in as carry * d
+      for(int f = 0; f < FOLDS; ++f) {
+        final long top = carry;
+        carry = 0L;
+        for(int j = 0; j < n; ++j) {
+          final long sum = carry + (value[j] & MASK32) + top * digits[j];
+          value[j] = (int)sum;
+          carry = sum >> 32;
+        }
+      }
+      assert carry == 0L;
+    } else {
+      // Twice fold the bits from k up, including the carry, back in as a
+      // multiple of c, leaving a value below 2^k + c
+      for(int f = 0; f < 2; ++f) {
+        final long top = (carry << (32 - topBits))
+          | ((value[n-1] & MASK32) >>> topBits);
+        value[n-1] &= (1 << topBits) - 1;
+        long sum = top * topFold;
+        for(int j = 0; j < n; ++j) {
+          sum += value[j] & MASK32;
+          value[j] = (int)sum;
+          sum >>>= 32;
+        }
+        carry = sum;
+      }
+      assert carry == 0L;
+    }
+
+    // The value is now less than twice the modulus
+    long borrow = 0L;
+    for(int j = 0; j < n; ++j) {
+      borrow += (value[j] & MASK32) - (modulus[j] & MASK32);
+      borrow >>= 32;
+    }
+    Operations.maskedSubtract(n, value, 0, modulus, 0, ~(int)borrow);
+  }
+
+  /**
+   * Set {@code multiplicand = multiplicand * multiplier mod m}, since R = 1.
+   */
+  @Override
+  protected void multiplyReduce(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    Operations.multiply(multiplicand, multiplier, scratch);
+    reduce(scratch);
+    System.arraycopy(scratch, 0, multiplicand, 0, modulus.length);
+  }
+
+  /**
+   * Set {@code multiplicand = multiplicand^2 mod m}, since R = 1.
+   */
+  @Override
+  protected void squareReduce(final int[] multiplicand) {
+    assert multiplicand.length == modulus.length;
+    Operations.square(multiplicand, scratch);
+    reduce(scratch);
+    System.arraycopy(scratch, 0, multiplicand, 0, modulus.length);
+  }
+
+  /**
+   * The reduction is cheap enough that it is always complete.
+   */
+  @Override
+  protected void multiplyReduceLazy(
+    final int[] multiplicand,
+    final int[] multiplier)
+  {
+    multiplyReduce(multiplicand, multiplier);
+  }
+
+  @Override
+  protected void squareReduceLazy(final int[] multiplicand) {
+    squareReduce(multiplicand);
+  }
+
+  /**
+   * Set {@code value = value mod m}, since R = 1. {@code value} has twice
+   * the modulus' length, and its upper half is set to zero.
+   */
+  @Override
+  protected void montgomeryReduce(final int[] value) {
+    reduce(value);
+    for(int i = modulus.length; i < 2 * modulus.length; ++i)
+      value[i] = 0;
+  }
+
+  @Override
+  protected void montgomeryReduceLazy(final int[] value) {
+    montgomeryReduce(value);
+  }
+
+  /**
+   * A single {@link #multiplyReduce}, since R = 1.
+   */
+  @Override
+  public void multiplyMod(
+    final int[] multiplicand,
+    final int[] multiplier,
+    final int[] result)
+  {
+    assert multiplicand.length == modulus.length;
+    assert multiplier.length == modulus.length;
+    assert result.length == modulus.length;
+    assert isLessThanModulus(multiplicand);
+    assert isLessThanModulus(multiplier);
+    if(result == multiplier) {
+      multiplyReduce(result, multiplicand);
+    } else {
+      System.arraycopy(multiplicand, 0, result, 0, modulus.length);
+      multiplyReduce(result, multiplier);
+    }
+  }
+
+  /**
+   * A single {@link #squareReduce}, since R = 1.
+   */
+  @Override
+  public void squareMod(final int[] value, final int[] result) {
+    assert value.length == modulus.length;
+    assert result.length == modulus.length;
+    assert isLessThanModulus(value);
+    System.arraycopy(value, 0, result, 0, modulus.length);
+    squareReduce(result);
+  }
+}
@@ -0,0 +1,246 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AsyncModulusTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 100;
+  private static final int LIMBS = 8;
+
+  private static int[] toInts(final BigInteger value, final int length) {
+    return Convert.fromBigInteger(value, new int[length]);
+  }
+
+  private static BigInteger power(
+    final int[] base,
+    final int[] exponent,
+    final BigInteger m)
+  {
+    return Convert.toBigInteger(base).modPow(Convert.toBigInteger(exponent), m);
+  }
+
+  @Test
+  public void testFuzzPowModAsync() throws Exception {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      final int[] m = TestUtil.randomOddNormalisedInteger(1 + random.nextInt(LIMBS));
+      final BigInteger mm = Convert.toBigInteger(m);
+      final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m));
+      final int[] base = TestUtil.randomModularValue(m);
+      final int[] exponent = TestUtil.randomInteger(1 + random.nextInt(LIMBS));
+      final CompletableFuture<int[]> future =
+        modulus.powModAsync(base, exponent);
+      assertEquals(
+        power(base, exponent, mm),
+        Convert.toBigInteger(future.get()));
+    }
+  }
+
+  @Test
+  public void testFuzzMultiplyModAsync() throws Exception {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      // Includes even moduli
+      final BigInteger mm = new BigInteger(32 * LIMBS - 1, random)
+        .setBit(32 * LIMBS - 2);
+      final Modulus m = Modulus.valueOf(mm);
+      final AsyncModulus modulus = new AsyncModulus(m);
+      final BigInteger a = new BigInteger(mm.bitLength(), random).mod(mm);
+      final BigInteger b = new BigInteger(mm.bitLength(), random).mod(mm);
+      final int[] product = modulus.multiplyModAsync(
+        toInts(a, m.length()),
+        toInts(b, m.length())).get();
+      assertEquals(a.multiply(b).mod(mm), Convert.toBigInteger(product));
+    }
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final BigInteger mm = Convert.toBigInteger(m);
+    final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m));
+    final int count = 1 + random.nextInt(50);
+    final int[][] a = new int[count][];
+    final int[][] b = new int[count][];
+    for(int i = 0; i < count; ++i) {
+      a[i] = TestUtil.randomModularValue(m);
+      b[i] = TestUtil.randomModularValue(m);
+    }
+    final int[] exponent = TestUtil.randomInteger(2);
+    for(int chunkSize : new int[] { 1, 3, count, count + 1 }) {
+      final int[][] powers =
+        modulus.powModBatchAsync(a, exponent, chunkSize).get();
+      final int[][] products =
+        modulus.multiplyModBatchAsync(a, b, chunkSize).get();
+      assertEquals(count, powers.length);
+      assertEquals(count, products.length);
+      for(int i = 0; i < count; ++i) {
+        assertEquals(
+          power(a[i], exponent, mm),
+          Convert.toBigInteger(powers[i]));
+        assertEquals(
+          Convert.toBigInteger(a[i]).multiply(Convert.toBigInteger(b[i])).mod(mm),
+          Convert.toBigInteger(products[i]));
+      }
+    }
+    assertEquals(0, modulus.powModBatchAsync(new int[0][], exponent, 1).get().length);
+  }
+
+  @Test
+  public void testOperandsAreCopied() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final ExecutorService pool = AsyncModulus.newPool(1);
+    try {
+      final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m), pool);
+      final int[] a = TestUtil.randomModularValue(m);
+      final int[] b = TestUtil.randomModularValue(m);
+      final BigInteger expected = Convert.toBigInteger(a)
+        .multiply(Convert.toBigInteger(b))
+        .mod(Convert.toBigInteger(m));
+      final CompletableFuture<int[]> future = modulus.multiplyModAsync(a, b);
+      a[0] ^= 1;
+      b[0] ^= 1;
+      assertEquals(expected, Convert.toBigInteger(future.get()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentSubmitters() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final BigInteger mm = Convert.toBigInteger(m);
+    final ExecutorService pool = AsyncModulus.newPool(4);
+    try {
+      final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m), pool);
+      final List<Thread> threads = new ArrayList<Thread>();
+      final AtomicInteger failures = new AtomicInteger();
+      for(int t = 0; t < 8; ++t) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              for(int i = 0; i < 20; ++i) {
+                final int[] base = TestUtil.randomModularValue(m);
+                final int[] exponent = TestUtil.randomInteger(2);
+                if(!power(base, exponent, mm).equals(Convert.toBigInteger(
+                  modulus.powModAsync(base, exponent).get())))
+                  failures.incrementAndGet();
+              }
+            } catch(Exception e) {
+              failures.incrementAndGet();
+            }
+          }
+        });
+      }
+      for(Thread thread : threads)
+        thread.start();
+      for(Thread thread : threads)
+        thread.join();
+      assertEquals(0, failures.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCustomExecutor() throws Exception {
+    final AtomicInteger submitted = new AtomicInteger();
+    final Executor direct = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        submitted.incrementAndGet();
+        command.run();
+      }
+    };
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m), direct);
+    final int[][] values = new int[10][];
+    for(int i = 0; i < values.length; ++i)
+      values[i] = TestUtil.randomModularValue(m);
+    final int[] one = new int[LIMBS];
+    one[0] = 1;
+    final int[][] results =
+      modulus.powModBatchAsync(values, one, 4).get();
+    assertEquals(3, submitted.get());
+    for(int i = 0; i < values.length; ++i)
+      assertArrayEquals(values[i], results[i]);
+  }
+
+  @Test
+  public void testInvalidArguments() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final AsyncModulus modulus = new AsyncModulus(Modulus.valueOf(m));
+    final int[] a = TestUtil.randomModularValue(m);
+    final int[] exponent = TestUtil.randomInteger(1);
+    expectIllegalArgument(modulus, m.clone(), exponent);
+    expectIllegalArgument(modulus, new int[LIMBS - 1], exponent);
+    expectIllegalArgument(modulus, a, new int[0]);
+    try {
+      modulus.multiplyModAsync(a, null);
+      fail("null operand accepted");
+    } catch(NullPointerException e) {
+    }
+    try {
+      modulus.multiplyModBatchAsync(new int[][] { a }, new int[0][], 1);
+      fail("mismatched batches accepted");
+    } catch(IllegalArgumentException e) {
+    }
+    try {
+      modulus.powModBatchAsync(new int[][] { a }, exponent, 0);
+      fail("chunkSize 0 accepted");
+    } catch(IllegalArgumentException e) {
+    }
+    try {
+      AsyncModulus.newPool(0);
+      fail("parallelism 0 accepted");
+    } catch(IllegalArgumentException e) {
+    }
+    try {
+      new AsyncModulus(null);
+      fail("null modulus accepted");
+    } catch(NullPointerException e) {
+    }
+  }
+
+  private static void expectIllegalArgument(
+    final AsyncModulus modulus,
+    final int[] base,
+    final int[] exponent)
+  {
+    try {
+      modulus.powModAsync(base, exponent);
+      fail("invalid arguments accepted");
+    } catch(IllegalArgumentException e) {
+    }
+  }
+}
@@ -0,0 +1,1174 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.KeyAgreement;
+
+/**
+ * Runs a fixed set of benchmarks, writes the results in the JSON format of JMH
+ * ({@code -rf json}) to {@code <output>/<commit>.json} and optionally compares
+ * them against a baseline, exiting with status 1 if any benchmark regressed
+ * and status 2 if the options are invalid. It lives with the tests so that it
+ * is not part of the library.
+ *
+ * Usage:
+ * <pre>
+ *   sbt "test:runMain com.n1analytics.sjmp.BenchmarkRunner [options]"
+ *
+ *   --output DIR             Results directory (default "benchmarks").
+ *   --commit ID              Results file name (default: git rev-parse --short
+ *                            HEAD).
+ *   --baseline FILE          JMH JSON results to compare against.
+ *   --threshold NAME=PCT     Allowed slowdown for the benchmark NAME (without
+ *                            the class name), in percent. May be repeated.
+ *   --default-threshold PCT  Allowed slowdown for other benchmarks
+ *                            (default 10).
+ *   --warmup N               Warmup iterations (default 5).
+ *   --iterations N           Measurement iterations (default 5).
+ *   --time MS                Duration of each iteration (default 200).
+ *   --filter TEXT            Only run benchmarks whose name contains TEXT.
+ * </pre>
+ *
+ * Results are average times ({@code avgt}) in {@code ns/op}, so a larger score
+ * is worse. Benchmarks are matched with the baseline by name and parameters;
+ * those missing from either side are reported and otherwise ignored.
+ *
+ * The measurement is deliberately simple: one thread, one fork, and
+ * time-based iterations. The output can also be compared against the output
+ * of real JMH runs of the same benchmark names.
+ */
+public final class BenchmarkRunner {
+
+  private static final String PREFIX = BenchmarkRunner.class.getName() + ".";
+
+  // Results are folded into this so that the JIT can't remove the operations
+  private static volatile int sink;
+
+  /**
+   * A single benchmark invocation.
+   */
+  private interface Operation {
+    void run();
+  }
+
+  private static final class Benchmark {
+    final String name;
+    final Map<String, String> params;
+    final Operation operation;
+
+    Benchmark(
+      final String name,
+      final Map<String, String> params,
+      final Operation operation)
+    {
+      this.name = PREFIX + name;
+      this.params = params;
+      this.operation = operation;
+    }
+  }
+
+  private static Map<String, String> limbs(final int limbs) {
+    final Map<String, String> params = new LinkedHashMap<String, String>();
+    params.put("limbs", Integer.toString(limbs));
+    return params;
+  }
+
+  /**
+   * @return The parameters given as alternating names and values.
+   */
+  private static Map<String, String> params(final Object... namesAndValues) {
+    final Map<String, String> params = new LinkedHashMap<String, String>();
+    for(int i = 0; i < namesAndValues.length; i += 2)
+      params.put(
+        namesAndValues[i].toString(),
+        namesAndValues[i + 1].toString());
+    return params;
+  }
+
+  private static int[] randomInteger(final Random random, final int length) {
+    final int[] x = new int[length];
+    for(int i = 0; i < length; ++i)
+      x[i] = random.nextInt();
+    return x;
+  }
+
+  private static int[] randomModulus(final Random random, final int length) {
+    final int[] m = randomInteger(random, length);
+    m[0] |= 1;
+    m[length-1] |= 0x80000000;
+    return m;
+  }
+
+  private static List<Benchmark> benchmarks() {
+    final Random random = new Random(0);
+    final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    for(final int n : new int[] { 16, 32 }) {
+      final int[] m = randomModulus(random, n);
+      final Modulus modulus = Modulus.valueOf(m);
+      final int[] b = randomInteger(random, n);
+      b[n-1] &= 0x7FFFFFFF;
+      final int[] e = randomInteger(random, n);
+      final int[] r = new int[n];
+      benchmarks.add(new Benchmark("powMod", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          modulus.powMod(b, e, r);
+          sink += r[0];
+        }
+      }));
+    }
+
+    for(final int n : new int[] { 32, 64 }) {
+      final int[] a = randomInteger(random, n);
+      final int[] b = randomInteger(random, n);
+      final int[] r = new int[2 * n];
+      benchmarks.add(new Benchmark("multiply", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          Operations.multiply(a, b, r);
+          sink += r[0];
+        }
+      }));
+    }
+
+    for(final int n : new int[] { 32, 64 }) {
+      final int[] d = randomModulus(random, n);
+      final int[] x = randomInteger(random, 2 * n);
+      final int[] y = new int[2 * n];
+      final int[] scratch = new int[n + 1];
+      benchmarks.add(new Benchmark("mod", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          System.arraycopy(x, 0, y, 0, y.length);
+          Operations.mod(y, d, scratch);
+          sink += y[0];
+        }
+      }));
+    }
+
+    for(final int n : new int[] { 32, 64 }) {
+      final int[] x = randomInteger(random, n);
+      final BigInteger y = Convert.toBigInteger(x);
+      final int[] z = new int[n];
+      benchmarks.add(new Benchmark("toBigInteger", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.toBigInteger(x).hashCode();
+        }
+      }));
+      benchmarks.add(new Benchmark("fromBigInteger", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          Convert.fromBigInteger(y, z);
+          sink += z[0];
+        }
+      }));
+    }
+
+    // Modulus.multiplyMod, and the two reductions it chooses between by size
+    // against a multiplication followed by long division
+    for(final int n : new int[] { 8, 16, 64 }) {
+      final int[] m = randomModulus(random, n);
+      final Modulus modulus = Modulus.valueOf(m);
+      final Barrett barrett = new Barrett(m);
+      final int[] a = randomInteger(random, n);
+      final int[] b = randomInteger(random, n);
+      a[n-1] &= 0x7FFFFFFF;
+      b[n-1] &= 0x7FFFFFFF;
+      final int[] x = new int[n];
+      final int[] product = new int[2 * n];
+      benchmarks.add(new Benchmark("multiplyMod", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          modulus.multiplyMod(a, b, x);
+          sink += x[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("multiplyModMontgomery", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          System.arraycopy(a, 0, x, 0, n);
+          modulus.multiplyReduce(x, b);
+          modulus.multiplyReduce(x, modulus.montgomerySquare);
+          sink += x[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("multiplyModBarrett", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          barrett.multiplyMod(a, b, x);
+          sink += x[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("multiplyModDivision", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          Operations.multiply(a, b, product);
+          modulus.mod(product);
+          sink += product[0];
+        }
+      }));
+    }
+
+    // Decimal and hex conversion on limbs, against going through BigInteger.
+    // Both sizes are large enough for the decimal conversion to recurse.
+    for(final int n : new int[] { 32, 128 }) {
+      final int[] x = randomInteger(random, n);
+      final String decimal = Convert.toDecimalString(x);
+      final String hex = Convert.toHexString(x);
+      final int[] z = new int[n];
+      benchmarks.add(new Benchmark("toDecimalString", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.toDecimalString(x).length();
+        }
+      }));
+      benchmarks.add(new Benchmark("toDecimalStringBigInteger", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.toBigInteger(x).toString().length();
+        }
+      }));
+      benchmarks.add(new Benchmark("fromDecimalString", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.fromDecimalString(decimal)[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("fromDecimalStringBigInteger", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          Convert.fromBigInteger(new BigInteger(decimal), z);
+          sink += z[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("toHexString", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.toHexString(x).length();
+        }
+      }));
+      benchmarks.add(new Benchmark("fromHexString", limbs(n), new Operation() {
+        @Override
+        public void run() {
+          sink += Convert.fromHexString(hex)[0];
+        }
+      }));
+    }
+
+    // Inverting a batch of values one at a time, with Montgomery's trick, and
+    // with Montgomery's trick in parallel chunks of 64
+    for(final int n : new int[] { 8, 32 }) {
+      final int count = 256;
+      final Modulus modulus = Modulus.valueOf(randomModulus(random, n));
+      final int[][] values = new int[count][];
+      final int[][] results = new int[count][n];
+      for(int j = 0; j < count; ++j) {
+        values[j] = randomInteger(random, n);
+        values[j][n-1] &= 0x7FFFFFFF;
+      }
+      final Map<String, String> params = params("limbs", n, "values", count);
+      benchmarks.add(new Benchmark("invertMod", params, new Operation() {
+        @Override
+        public void run() {
+          for(int j = 0; j < count; ++j)
+            modulus.invertMod(values[j], results[j]);
+          sink += results[0][0];
+        }
+      }));
+      benchmarks.add(new Benchmark("invertBatch", params, new Operation() {
+        @Override
+        public void run() {
+          modulus.invertBatch(values, results);
+          sink += results[0][0];
+        }
+      }));
+      benchmarks.add(new Benchmark("invertBatchParallel", params, new Operation() {
+        @Override
+        public void run() {
+          modulus.invertBatch(values, results, 64);
+          sink += results[0][0];
+        }
+      }));
+    }
+
+    // Primality.isProbablePrime (Baillie-PSW and one Miller-Rabin round)
+    // against BigInteger.isProbablePrime(100), on primes, which is the case
+    // that dominates the cost of key generation
+    for(final int bits : new int[] { 512, 1024 }) {
+      final BigInteger prime = BigInteger.probablePrime(bits, random);
+      benchmarks.add(new Benchmark("isProbablePrime", params("bits", bits), new Operation() {
+        @Override
+        public void run() {
+          sink += Primality.isProbablePrime(prime, 1) ? 1 : 0;
+        }
+      }));
+      benchmarks.add(new Benchmark("isProbablePrimeBigInteger", params("bits", bits), new Operation() {
+        @Override
+        public void run() {
+          sink += prime.isProbablePrime(100) ? 1 : 0;
+        }
+      }));
+    }
+
+    // Sieve against BigInteger for primes, and for safe primes against the
+    // usual loop of BigInteger.probablePrime(q) until 2q + 1 is prime. One
+    // search thread, so only the sieve is being compared. Every operation
+    // finds a new prime, so these are noisier than the others.
+    for(final int bits : new int[] { 256, 512 }) {
+      final Map<String, String> params = params("bits", bits);
+      benchmarks.add(new Benchmark("probablePrime", params, new Operation() {
+        @Override
+        public void run() {
+          sink += Sieve.probablePrime(bits, 1, random, 1).intValue();
+        }
+      }));
+      benchmarks.add(new Benchmark("probablePrimeBigInteger", params, new Operation() {
+        @Override
+        public void run() {
+          sink += BigInteger.probablePrime(bits, random).intValue();
+        }
+      }));
+      benchmarks.add(new Benchmark("probableSafePrime", params, new Operation() {
+        @Override
+        public void run() {
+          sink += Sieve.probableSafePrime(bits, 1, random, 1).intValue();
+        }
+      }));
+      benchmarks.add(new Benchmark("probableSafePrimeBigInteger", params, new Operation() {
+        @Override
+        public void run() {
+          BigInteger q;
+          do {
+            q = BigInteger.probablePrime(bits - 1, random);
+          } while(!q.shiftLeft(1).setBit(0).isProbablePrime(100));
+          sink += q.intValue();
+        }
+      }));
+    }
+
+    // Variable-base and fixed-base scalar multiplication, and an ECDH key
+    // agreement by the JDK's provider (if it has one), which is one
+    // variable-base multiplication plus validation of the public key
+    final String[] curveNames = new String[] { "secp256r1", "secp384r1" };
+    final EllipticCurve[] curves = new EllipticCurve[] {
+      EllipticCurve.p256(), EllipticCurve.p384() };
+    for(int c = 0; c < curves.length; ++c) {
+      final EllipticCurve curve = curves[c];
+      final int n = curve.length();
+      final int[] g = curve.generator();
+      final int[][] tables = curve.precompute(g, n);
+      final int[] scalar = Convert.fromBigInteger(
+        new BigInteger(32 * n, random).mod(curve.order()), new int[n]);
+      final int[] point = new int[3 * n];
+      curve.multiply(g, scalar, point);
+      final Map<String, String> params = params("curve", curveNames[c]);
+      benchmarks.add(new Benchmark("curveAdd", params, new Operation() {
+        @Override
+        public void run() {
+          curve.add(point, g, point);
+          sink += point[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("curveMultiply", params, new Operation() {
+        @Override
+        public void run() {
+          curve.multiply(g, scalar, point);
+          sink += point[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("curveMultiplyFixed", params, new Operation() {
+        @Override
+        public void run() {
+          curve.multiplyFixed(tables, scalar, point);
+          sink += point[0];
+        }
+      }));
+      try {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curveNames[c]));
+        final KeyPair a = generator.generateKeyPair();
+        final KeyPair b = generator.generateKeyPair();
+        final KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        benchmarks.add(new Benchmark("ecdhJdk", params, new Operation() {
+          @Override
+          public void run() {
+            try {
+              agreement.init(a.getPrivate());
+              agreement.doPhase(b.getPublic(), true);
+              sink += agreement.generateSecret()[0];
+            } catch(GeneralSecurityException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        }));
+      } catch(GeneralSecurityException e) {
+        // No EC provider, so no comparison
+      }
+    }
+
+    // SolinasModulus against the generic Montgomery implementation, which
+    // valueOf with explicit strategies always returns, for moduli of special
+    // form
+    final BigInteger two = BigInteger.valueOf(2);
+    final String[] specialNames = new String[] {
+      "2^255-19", "P-256", "P-384", "2^521-1" };
+    final BigInteger[] specialModuli = new BigInteger[] {
+      two.pow(255).subtract(BigInteger.valueOf(19)),
+      EllipticCurve.p256().prime(),
+      EllipticCurve.p384().prime(),
+      two.pow(521).subtract(BigInteger.ONE) };
+    for(int k = 0; k < specialModuli.length; ++k) {
+      final int n = (specialModuli[k].bitLength() + 31) / 32;
+      final int[] m = Convert.fromBigInteger(specialModuli[k], new int[n]);
+      final Modulus[] both = new Modulus[] {
+        Modulus.valueOf(
+          m,
+          Modulus.defaultMultiplyStrategy(n),
+          Modulus.defaultSquareStrategy(n)),
+        Modulus.valueOf(m) };
+      final String[] kinds = new String[] { "Generic", "Special" };
+      final int[] a = Convert.fromBigInteger(
+        new BigInteger(specialModuli[k].bitLength(), random).mod(specialModuli[k]),
+        new int[n]);
+      final int[] x = a.clone();
+      final Map<String, String> params = params("modulus", specialNames[k]);
+      for(int j = 0; j < both.length; ++j) {
+        final Modulus modulus = both[j];
+        benchmarks.add(new Benchmark("multiplyReduce" + kinds[j], params, new Operation() {
+          @Override
+          public void run() {
+            modulus.multiplyReduce(x, a);
+            sink += x[0];
+          }
+        }));
+        benchmarks.add(new Benchmark("squareReduce" + kinds[j], params, new Operation() {
+          @Override
+          public void run() {
+            modulus.squareReduce(x);
+            sink += x[0];
+          }
+        }));
+        benchmarks.add(new Benchmark("powMod" + kinds[j], params, new Operation() {
+          @Override
+          public void run() {
+            modulus.powMod(a, a, x);
+            sink += x[0];
+          }
+        }));
+      }
+    }
+
+    // Synchronous powMod calls, powModAsync calls each joined before the
+    // next is submitted, and one powModBatchAsync in chunks of 16, on a pool
+    // of one (daemon) thread per processor
+    final ExecutorService pool =
+      AsyncModulus.newPool(Runtime.getRuntime().availableProcessors());
+    for(final int n : new int[] { 8, 32 }) {
+      final int count = 256;
+      final Modulus modulus = Modulus.valueOf(randomModulus(random, n));
+      final AsyncModulus async = new AsyncModulus(modulus, pool);
+      final int[][] bases = new int[count][];
+      for(int i = 0; i < count; ++i) {
+        bases[i] = randomInteger(random, n);
+        bases[i][n-1] &= 0x7FFFFFFF;
+      }
+      final int[] e = randomInteger(random, 2);
+      final int[] x = new int[n];
+      final Map<String, String> params = params("limbs", n, "values", count);
+      benchmarks.add(new Benchmark("asyncBaseline", params, new Operation() {
+        @Override
+        public void run() {
+          for(int i = 0; i < count; ++i)
+            modulus.powMod(bases[i], e, x);
+          sink += x[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("asyncPowMod", params, new Operation() {
+        @Override
+        public void run() {
+          for(int i = 0; i < count; ++i)
+            sink += async.powModAsync(bases[i], e).join()[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("asyncPowModBatch", params, new Operation() {
+        @Override
+        public void run() {
+          sink += async.powModBatchAsync(bases, e, 16).join()[0][0];
+        }
+      }));
+    }
+
+    // Streaming values through ModulusProcessor.power on the same pool, for
+    // several batch sizes; compare with asyncBaseline at the same size. The
+    // publisher emits on the thread that requests.
+    {
+      final int n = 32;
+      final int count = 256;
+      final int threads = Runtime.getRuntime().availableProcessors();
+      final Modulus modulus = Modulus.valueOf(randomModulus(random, n));
+      final int[][] values = new int[count][];
+      for(int i = 0; i < count; ++i) {
+        values[i] = randomInteger(random, n);
+        values[i][n-1] &= 0x7FFFFFFF;
+      }
+      final int[] e = randomInteger(random, 2);
+      for(final int batchSize : new int[] { 1, 16, 64 }) {
+        final Map<String, String> params =
+          params("limbs", n, "values", count, "batchSize", batchSize);
+        benchmarks.add(new Benchmark("processorPower", params, new Operation() {
+          @Override
+          public void run() {
+            final CountDownLatch done = new CountDownLatch(1);
+            final ModulusProcessor processor = ModulusProcessor.power(
+              modulus, e, pool, batchSize, threads);
+            processor.subscribe(new Flow.Subscriber<int[]>() {
+              @Override
+              public void onSubscribe(final Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+              }
+              @Override
+              public void onNext(final int[] item) {
+                sink += item[0];
+              }
+              @Override
+              public void onError(final Throwable throwable) {
+                done.countDown();
+              }
+              @Override
+              public void onComplete() {
+                done.countDown();
+              }
+            });
+            processor.onSubscribe(new Flow.Subscription() {
+              private int sent;
+              private boolean emitting;
+              private long requested;
+              @Override
+              public void request(final long r) {
+                // Requests made while emitting, on this thread or on a pool
+                // thread, are served by the loop already running
+                synchronized(this) {
+                  requested += r;
+                  if(emitting)
+                    return;
+                  emitting = true;
+                }
+                for(;;) {
+                  final int i;
+                  synchronized(this) {
+                    if(requested == 0 || sent >= count) {
+                      emitting = false;
+                      if(sent != count)
+                        return;
+                      sent = count + 1;
+                      break;
+                    }
+                    --requested;
+                    i = sent++;
+                  }
+                  processor.onNext(values[i]);
+                }
+                processor.onComplete();
+              }
+              @Override
+              public void cancel() {
+              }
+            });
+            try {
+              done.await();
+            } catch(InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              throw new IllegalStateException(ex);
+            }
+          }
+        }));
+      }
+    }
+
+    // The product of many values by Operations.multiply and Modulus.mod, by
+    // multiplyMod, by Modulus.product and by the parallel product in chunks
+    // of 256, for moduli the size of n^2 for 512- and 1024-bit Paillier keys
+    for(final int n : new int[] { 32, 64 }) {
+      final int count = 1024;
+      final Modulus modulus = Modulus.valueOf(randomModulus(random, n));
+      final int[][] values = new int[count][];
+      for(int j = 0; j < count; ++j) {
+        values[j] = randomInteger(random, n);
+        values[j][n-1] &= 0x7FFFFFFF;
+      }
+      final int[] result = new int[n];
+      final int[] t = new int[2 * n];
+      final Map<String, String> params = params("limbs", n, "values", count);
+      benchmarks.add(new Benchmark("productDivision", params, new Operation() {
+        @Override
+        public void run() {
+          Convert.copy(values[0], result);
+          for(int j = 1; j < count; ++j) {
+            Operations.multiply(result, values[j], t);
+            modulus.mod(t);
+            System.arraycopy(t, 0, result, 0, n);
+          }
+          sink += result[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("productMultiplyMod", params, new Operation() {
+        @Override
+        public void run() {
+          Convert.copy(values[0], result);
+          for(int j = 1; j < count; ++j)
+            modulus.multiplyMod(result, values[j], result);
+          sink += result[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("product", params, new Operation() {
+        @Override
+        public void run() {
+          modulus.product(values, result);
+          sink += result[0];
+        }
+      }));
+      benchmarks.add(new Benchmark("productParallel", params, new Operation() {
+        @Override
+        public void run() {
+          modulus.product(values, result, 256);
+          sink += result[0];
+        }
+      }));
+    }
+
+    return benchmarks;
+  }
+
+  /**
+   * Run {@code operation} repeatedly for {@code millis} milliseconds.
+   * @return The average time per operation in nanoseconds.
+   */
+  private static double iteration(final Operation operation, final long millis) {
+    final long budget = millis * 1000000L;
+    final long start = System.nanoTime();
+    long operations = 0L;
+    long elapsed;
+    // Check the clock in batches so that it doesn't dominate fast operations
+    long batch = 1L;
+    do {
+      for(long i = 0; i < batch; ++i)
+        operation.run();
+      operations += batch;
+      elapsed = System.nanoTime() - start;
+      if(elapsed < budget / 100)
+        batch *= 2;
+    } while(elapsed < budget);
+    return (double)elapsed / operations;
+  }
+
+  /**
+   * An approximation of the 99.95th percentile of Student's t-distribution
+   * with {@code df} degrees of freedom (the quantile used by JMH for its
+   * 99.9% confidence interval), by the Cornish-Fisher expansion about the
+   * normal quantile.
+   */
+  private static double studentT(final int df) {
+    final double z = 3.2905267314918945;
+    final double z3 = z * z * z;
+    final double z5 = z3 * z * z;
+    final double z7 = z5 * z * z;
+    return z
+      + (z3 + z) / (4.0 * df)
+      + (5.0 * z5 + 16.0 * z3 + 3.0 * z) / (96.0 * df * df)
+      + (3.0 * z7 + 19.0 * z5 + 17.0 * z3 - 15.0 * z) / (384.0 * df * df * df);
+  }
+
+  private static final class Result {
+    final String benchmark;
+    final Map<String, String> params;
+    final double score;
+    final double scoreError;
+    final double[] raw;
+
+    Result(
+      final String benchmark,
+      final Map<String, String> params,
+      final double score,
+      final double scoreError,
+      final double[] raw)
+    {
+      this.benchmark = benchmark;
+      this.params = params;
+      this.score = score;
+      this.scoreError = scoreError;
+      this.raw = raw;
+    }
+
+    String key() {
+      return benchmark + params;
+    }
+  }
+
+  private static Result measure(
+    final Benchmark benchmark,
+    final int warmup,
+    final int iterations,
+    final long millis)
+  {
+    for(int i = 0; i < warmup; ++i)
+      iteration(benchmark.operation, millis);
+    final double[] raw = new double[iterations];
+    double mean = 0.0;
+    for(int i = 0; i < iterations; ++i) {
+      raw[i] = iteration(benchmark.operation, millis);
+      mean += raw[i];
+    }
+    mean /= iterations;
+    double error = Double.NaN;
+    if(iterations > 1) {
+      double variance = 0.0;
+      for(double x : raw)
+        variance += (x - mean) * (x - mean);
+      variance /= iterations - 1;
+      error = studentT(iterations - 1) * Math.sqrt(variance / iterations);
+    }
+    return new Result(benchmark.name, benchmark.params, mean, error, raw);
+  }
+
+  //
+  // JSON in the format written by JMH
+  //
+
+  private static String quote(final String s) {
+    final StringBuilder b = new StringBuilder("\"");
+    for(int i = 0; i < s.length(); ++i) {
+      final char c = s.charAt(i);
+      if(c == '"' || c == '\\')
+        b.append('\\').append(c);
+      else if(c < 0x20)
+        b.append(String.format("\\u%04x", (int)c));
+      else
+        b.append(c);
+    }
+    return b.append('"').toString();
+  }
+
+  private static String number(final double x) {
+    return Double.isNaN(x) ? "\"NaN\"" : Double.toString(x);
+  }
+
+  private static void write(
+    final List<Result> results,
+    final int warmup,
+    final int iterations,
+    final long millis,
+    final Writer out) throws IOException
+  {
+    out.write("[\n");
+    for(int r = 0; r < results.size(); ++r) {
+      final Result result = results.get(r);
+      out.write("    {\n");
+      out.write("        \"jmhVersion\" : \"sjmp\",\n");
+      out.write("        \"benchmark\" : " + quote(result.benchmark) + ",\n");
+      out.write("        \"mode\" : \"avgt\",\n");
+      out.write("        \"threads\" : 1,\n");
+      out.write("        \"forks\" : 1,\n");
+      out.write("        \"jvm\" : " + quote(System.getProperty("java.home")) + ",\n");
+      out.write("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",\n");
+      out.write("        \"warmupIterations\" : " + warmup + ",\n");
+      out.write("        \"warmupTime\" : \"" + millis + " ms\",\n");
+      out.write("        \"measurementIterations\" : " + iterations + ",\n");
+      out.write("        \"measurementTime\" : \"" + millis + " ms\",\n");
+      out.write("        \"params\" : {\n");
+      int p = 0;
+      for(Map.Entry<String, String> param : result.params.entrySet()) {
+        out.write("            " + quote(param.getKey()) + " : " + quote(param.getValue()));
+        out.write(++p < result.params.size() ? ",\n" : "\n");
+      }
+      out.write("        },\n");
+      out.write("        \"primaryMetric\" : {\n");
+      out.write("            \"score\" : " + number(result.score) + ",\n");
+      out.write("            \"scoreError\" : " + number(result.scoreError) + ",\n");
+      out.write("            \"scoreUnit\" : \"ns/op\",\n");
+      out.write("            \"rawData\" : [\n                [\n");
+      for(int i = 0; i < result.raw.length; ++i) {
+        out.write("                    " + number(result.raw[i]));
+        out.write(i + 1 < result.raw.length ? ",\n" : "\n");
+      }
+      out.write("                ]\n            ]\n");
+      out.write("        },\n");
+      out.write("        \"secondaryMetrics\" : {\n        }\n");
+      out.write(r + 1 < results.size() ? "    },\n" : "    }\n");
+    }
+    out.write("]\n");
+  }
+
+  /**
+   * A minimal JSON parser, sufficient for JMH result files. Objects are
+   * returned as {@code Map<String, Object>}, arrays as {@code List<Object>},
+   * numbers as {@code Double}.
+   */
+  private static final class JsonParser {
+    private final String s;
+    private int i = 0;
+
+    JsonParser(final String s) {
+      this.s = s;
+    }
+
+    Object parse() {
+      final Object value = value();
+      whitespace();
+      if(i != s.length())
+        throw error("trailing characters");
+      return value;
+    }
+
+    private IllegalArgumentException error(final String message) {
+      return new IllegalArgumentException(
+        "invalid JSON at offset " + i + ": " + message);
+    }
+
+    private void whitespace() {
+      while(i < s.length() && Character.isWhitespace(s.charAt(i)))
+        ++i;
+    }
+
+    private void expect(final char c) {
+      whitespace();
+      if(i >= s.length() || s.charAt(i) != c)
+        throw error("expected '" + c + "'");
+      ++i;
+    }
+
+    private boolean consume(final char c) {
+      whitespace();
+      if(i < s.length() && s.charAt(i) == c) {
+        ++i;
+        return true;
+      }
+      return false;
+    }
+
+    private Object value() {
+      whitespace();
+      if(i >= s.length())
+        throw error("unexpected end");
+      final char c = s.charAt(i);
+      if(c == '{') {
+        ++i;
+        final Map<String, Object> object = new LinkedHashMap<String, Object>();
+        if(consume('}'))
+          return object;
+        do {
+          whitespace();
+          final String key = string();
+          expect(':');
+          object.put(key, value());
+        } while(consume(','));
+        expect('}');
+        return object;
+      } else if(c == '[') {
+        ++i;
+        final List<Object> array = new ArrayList<Object>();
+        if(consume(']'))
+          return array;
+        do {
+          array.add(value());
+        } while(consume(','));
+        expect(']');
+        return array;
+      } else if(c == '"') {
+        return string();
+      } else if(s.startsWith("true", i)) {
+        i += 4;
+        return Boolean.TRUE;
+      } else if(s.startsWith("false", i)) {
+        i += 5;
+        return Boolean.FALSE;
+      } else if(s.startsWith("null", i)) {
+        i += 4;
+        return null;
+      } else {
+        final int start = i;
+        while(i < s.length() && "+-0123456789.eE".indexOf(s.charAt(i)) >= 0)
+          ++i;
+        if(start == i)
+          throw error("unexpected '" + c + "'");
+        return Double.valueOf(s.substring(start, i));
+      }
+    }
+
+    private String string() {
+      if(i >= s.length() || s.charAt(i) != '"')
+        throw error("expected string");
+      ++i;
+      final StringBuilder b = new StringBuilder();
+      while(true) {
+        if(i >= s.length())
+          throw error("unterminated string");
+        char c = s.charAt(i++);
+        if(c == '"')
+          return b.toString();
+        if(c == '\\') {
+          c = s.charAt(i++);
+          switch(c) {
+          case 'n': b.append('\n'); break;
+          case 't': b.append('\t'); break;
+          case 'r': b.append('\r'); break;
+          case 'b': b.append('\b'); break;
+          case 'f': b.append('\f'); break;
+          case 'u':
+            b.append((char)Integer.parseInt(s.substring(i, i + 4), 16));
+            i += 4;
+            break;
+          default: b.append(c);
+          }
+        } else {
+          b.append(c);
+        }
+      }
+    }
+  }
+
+  private static double toDouble(final Object value) {
+    if(value instanceof Double)
+      return (Double)value;
+    if(value instanceof String)
+      return Double.parseDouble((String)value);
+    throw new IllegalArgumentException("expected a number: " + value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Double> readBaseline(final File file) throws
+    IOException
+  {
+    final String json = new String(
+      Files.readAllBytes(file.toPath()),
+      StandardCharsets.UTF_8);
+    final Map<String, Double> scores = new LinkedHashMap<String, Double>();
+    for(Object element : (List<Object>)new JsonParser(json).parse()) {
+      final Map<String, Object> result = (Map<String, Object>)element;
+      final Map<String, String> params = new LinkedHashMap<String, String>();
+      final Object jsonParams = result.get("params");
+      if(jsonParams != null)
+        for(Map.Entry<String, Object> param :
+            ((Map<String, Object>)jsonParams).entrySet())
+          params.put(param.getKey(), String.valueOf(param.getValue()));
+      final Map<String, Object> metric =
+        (Map<String, Object>)result.get("primaryMetric");
+      scores.put(
+        (String)result.get("benchmark") + params,
+        toDouble(metric.get("score")));
+    }
+    return scores;
+  }
+
+  private static String currentCommit() {
+    try {
+      final Process git = new ProcessBuilder("git", "rev-parse", "--short", "HEAD")
+        .redirectErrorStream(true)
+        .start();
+      final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(git.getInputStream(), StandardCharsets.UTF_8));
+      final String line = reader.readLine();
+      if(git.waitFor() == 0 && line != null && !line.isEmpty())
+        return line.trim();
+    } catch(IOException e) {
+      // Fall through
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "unknown";
+  }
+
+  static double threshold(
+    final String benchmark,
+    final Map<String, Double> thresholds,
+    final double defaultThreshold)
+  {
+    final Double threshold = thresholds.get(shortName(benchmark));
+    return threshold == null ? defaultThreshold : threshold;
+  }
+
+  private static String shortName(final String benchmark) {
+    return benchmark.startsWith(PREFIX)
+      ? benchmark.substring(PREFIX.length())
+      : benchmark;
+  }
+
+  private static void usage(final String message) throws
+    IllegalArgumentException
+  {
+    throw new IllegalArgumentException(message);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int status;
+    try {
+      status = run(args);
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println("See the documentation of " + BenchmarkRunner.class.getName());
+      status = 2;
+    }
+    if(status != 0)
+      System.exit(status);
+  }
+
+  /**
+   * Parse the options, run the benchmarks and compare them with the baseline.
+   * @return 0, or 1 if any benchmark regressed.
+   * @throws IllegalArgumentException If the options are invalid.
+   */
+  static int run(final String[] args) throws
+    IllegalArgumentException,
+    IOException
+  {
+    String output = "benchmarks";
+    String commit = null;
+    String baseline = null;
+    String filter = "";
+    double defaultThreshold = 10.0;
+    final Map<String, Double> thresholds = new LinkedHashMap<String, Double>();
+    int warmup = 5;
+    int iterations = 5;
+    long millis = 200L;
+
+    for(int a = 0; a < args.length; ++a) {
+      final String option = args[a];
+      if(a + 1 >= args.length)
+        usage("missing value for " + option);
+      final String value = args[++a];
+      try {
+        if(option.equals("--output")) {
+          output = value;
+        } else if(option.equals("--commit")) {
+          commit = value;
+        } else if(option.equals("--baseline")) {
+          baseline = value;
+        } else if(option.equals("--filter")) {
+          filter = value;
+        } else if(option.equals("--default-threshold")) {
+          defaultThreshold = Double.parseDouble(value);
+        } else if(option.equals("--threshold")) {
+          final int eq = value.indexOf('=');
+          if(eq < 1)
+            usage("expected NAME=PCT: " + value);
+          thresholds.put(
+            value.substring(0, eq),
+            Double.parseDouble(value.substring(eq + 1)));
+        } else if(option.equals("--warmup")) {
+          warmup = Integer.parseInt(value);
+        } else if(option.equals("--iterations")) {
+          iterations = Integer.parseInt(value);
+        } else if(option.equals("--time")) {
+          millis = Long.parseLong(value);
+        } else {
+          usage("unknown option " + option);
+        }
+      } catch(NumberFormatException e) {
+        usage("invalid number for " + option + ": " + value);
+      }
+    }
+    if(iterations < 1)
+      usage("--iterations must be positive");
+    if(commit == null)
+      commit = currentCommit();
+
+    // Run
+    final List<Result> results = new ArrayList<Result>();
+    for(Benchmark benchmark : benchmarks()) {
+      if(!shortName(benchmark.name).contains(filter))
+        continue;
+      final Result result = measure(benchmark, warmup, iterations, millis);
+      results.add(result);
+      System.out.format(
+        "%-50s %14.1f +- %10.1f ns/op\n",
+        shortName(result.benchmark) + result.params,
+        result.score,
+        result.scoreError);
+    }
+
+    // Store
+    final File directory = new File(output);
+    if(!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("could not create " + directory);
+    final File file = new File(directory, commit + ".json");
+    try(Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      write(results, warmup, iterations, millis, out);
+    }
+    System.out.println("Results written to " + file);
+
+    // Compare
+    if(baseline == null)
+      return 0;
+    final Map<String, Double> baselineScores = readBaseline(new File(baseline));
+    int regressions = 0;
+    System.out.format(
+      "\n%-50s %12s %12s %8s %8s\n",
+      "benchmark", "baseline", "current", "change", "limit");
+    for(Result result : results) {
+      final String name = shortName(result.benchmark) + result.params;
+      final Double before = baselineScores.remove(result.key());
+      if(before == null) {
+        System.out.format("%-50s %12s %12.1f\n", name, "missing", result.score);
+        continue;
+      }
+      final double change = 100.0 * (result.score / before - 1.0);
+      final double limit = threshold(result.benchmark, thresholds, defaultThreshold);
+      final boolean regressed = change > limit;
+      if(regressed)
+        ++regressions;
+      System.out.format(
+        "%-50s %12.1f %12.1f %+7.1f%% %7.1f%%%s\n",
+        name,
+        before,
+        result.score,
+        change,
+        limit,
+        regressed ? "  REGRESSION" : "");
+    }
+    for(String missing : baselineScores.keySet())
+      if(shortName(missing).contains(filter))
+        System.out.format("%-50s only in baseline\n", shortName(missing));
+    if(regressions > 0) {
+      System.out.println(regressions + " benchmark(s) regressed");
+      return 1;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BenchmarkRunnerTest {
+
+  private static final String NAME = BenchmarkRunner.class.getName() + ".";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Write a JMH result file with one result for {@code toBigInteger} at 32
+   * limbs, in the layout JMH uses, and return it.
+   */
+  private File baseline(final double score) throws IOException {
+    final String json =
+      "[\n" +
+      "  {\n" +
+      "    \"jmhVersion\" : \"1.21\",\n" +
+      "    \"benchmark\" : \"" + NAME + "toBigInteger\",\n" +
+      "    \"mode\" : \"avgt\",\n" +
+      "    \"threads\" : 1,\n" +
+      "    \"jvmArgs\" : [ \"-Dx=\\\"quoted\\\"\", \"\\u0041\" ],\n" +
+      "    \"params\" : { \"limbs\" : \"32\" },\n" +
+      "    \"primaryMetric\" : {\n" +
+      "      \"score\" : " + score + ",\n" +
+      "      \"scoreError\" : \"NaN\",\n" +
+      "      \"scoreConfidence\" : [ -1.5e-3, 2E+1 ],\n" +
+      "      \"rawData\" : [ [ " + score + " ] ]\n" +
+      "    },\n" +
+      "    \"secondaryMetrics\" : { },\n" +
+      "    \"valid\" : true,\n" +
+      "    \"other\" : null\n" +
+      "  }\n" +
+      "]\n";
+    final File file = folder.newFile();
+    Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private int run(final String... options) throws IOException {
+    final String[] common = new String[] {
+      "--output", folder.getRoot().getPath(),
+      "--commit", "current",
+      "--filter", "toBigInteger",
+      "--warmup", "0",
+      "--iterations", "2",
+      "--time", "1"
+    };
+    final String[] args = new String[common.length + options.length];
+    System.arraycopy(common, 0, args, 0, common.length);
+    System.arraycopy(options, 0, args, common.length, options.length);
+    return BenchmarkRunner.run(args);
+  }
+
+  @Test
+  public void testWritesResults() throws IOException {
+    assertEquals(0, run());
+    assertTrue(new File(folder.getRoot(), "current.json").isFile());
+
+    // Its own output is a valid baseline. The threshold is far beyond the
+    // noise of two 1ms iterations.
+    final File previous = new File(folder.getRoot(), "previous.json");
+    Files.move(
+      new File(folder.getRoot(), "current.json").toPath(),
+      previous.toPath());
+    assertEquals(
+      0,
+      run("--baseline", previous.getPath(), "--default-threshold", "1e6"));
+  }
+
+  @Test
+  public void testRegression() throws IOException {
+    // Nothing takes a picosecond
+    assertEquals(1, run("--baseline", baseline(1e-3).getPath()));
+    // Nothing takes a thousand seconds
+    assertEquals(0, run("--baseline", baseline(1e12).getPath()));
+  }
+
+  @Test
+  public void testThreshold() throws IOException {
+    final String slow = baseline(1e-3).getPath();
+    assertEquals(
+      0,
+      run("--baseline", slow, "--threshold", "toBigInteger=1e18"));
+    // Thresholds apply to the whole name, not a suffix of it
+    assertEquals(
+      1,
+      run("--baseline", slow, "--threshold", "BigInteger=1e18"));
+
+    final Map<String, Double> thresholds = new LinkedHashMap<String, Double>();
+    thresholds.put("Mod", 5.0);
+    thresholds.put("powMod", 2.0);
+    assertEquals(2.0, BenchmarkRunner.threshold(NAME + "powMod", thresholds, 10.0), 0.0);
+    assertEquals(10.0, BenchmarkRunner.threshold(NAME + "mod", thresholds, 10.0), 0.0);
+    assertEquals(5.0, BenchmarkRunner.threshold(NAME + "Mod", thresholds, 10.0), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownOption() throws IOException {
+    run("--bogus", "1");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingValue() throws IOException {
+    run("--baseline");
+  }
+}
@@ -0,0 +1,389 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+// Statistical timing-leakage tests in the style of dudect (Reparaz, Balasch and
+// Verbauwhede, "Dude, is my code constant time?", 2017). Each operation is
+// timed on a randomly interleaved mix of a fixed input and random inputs, and
+// Welch's t-test checks whether the two classes have different mean times.
+//
+// A |t| above LEAKAGE_THRESHOLD is taken as evidence of a leak. The threshold
+// is deliberately loose so that these tests tolerate a noisy machine; run
+// main() for a longer measurement with more samples, which prints the
+// t-statistic of every operation.
+//
+// Being statistical, these tests can fail on a busy machine, so they only run
+// when the JVM is started with -Dsjmp.timingTests=true, keeping the default
+// suite deterministic. They are also skipped when assertions are enabled since
+// many assertions in the primitives branch on the data (e.g. the overflow
+// checks in maskedAdd).
+public class ConstantTimeTest {
+  private static final Random random = new Random();
+  private static final double LEAKAGE_THRESHOLD = 10.0;
+  private static final int MEASUREMENTS = 20000;
+  private static final int LIMBS = 32;
+
+  // Results are folded into this so that the JIT can't remove the operations
+  private static volatile int sink;
+
+  /**
+   * An operation under test. {@code input} is one of the generated inputs and
+   * must not be modified; {@code work} is scratch space of the same length.
+   */
+  private interface Target {
+    void run(int[] input, int[] work);
+  }
+
+  /**
+   * Generates an input of the random class.
+   */
+  private interface Generator {
+    int[] next();
+  }
+
+  /**
+   * Accumulates the mean and variance of each class with Welford's method.
+   */
+  private static final class Welch {
+    private final double[] mean = new double[2];
+    private final double[] m2 = new double[2];
+    private final long[] n = new long[2];
+
+    void push(final int c, final double x) {
+      ++n[c];
+      final double delta = x - mean[c];
+      mean[c] += delta / n[c];
+      m2[c] += delta * (x - mean[c]);
+    }
+
+    double t() {
+      if(n[0] < 2 || n[1] < 2)
+        return 0.0;
+      final double v0 = m2[0] / (n[0] - 1);
+      final double v1 = m2[1] / (n[1] - 1);
+      final double se = Math.sqrt(v0 / n[0] + v1 / n[1]);
+      return se == 0.0 ? 0.0 : (mean[0] - mean[1]) / se;
+    }
+  }
+
+  /**
+   * Time {@code target} on {@code measurements} inputs, each drawn at random
+   * from either the fixed class or the random class, and return the largest
+   * |t| over several cropping thresholds. Cropping discards the slowest
+   * measurements (interrupts, GC and the like) which otherwise dominate the
+   * variance.
+   */
+  private static double leakage(
+    final int[] fixed,
+    final Generator generator,
+    final Target target,
+    final int measurements,
+    final int repetitions)
+  {
+    final int[] classes = new int[measurements];
+    final int[][] inputs = new int[measurements][];
+    for(int i = 0; i < measurements; ++i) {
+      classes[i] = random.nextInt(2);
+      inputs[i] = classes[i] == 0 ? fixed.clone() : generator.next();
+    }
+    final int[] work = new int[fixed.length];
+
+    // Warm up so that the measurements are of compiled code
+    for(int i = 0; i < measurements; ++i)
+      target.run(inputs[i], work);
+
+    final long[] times = new long[measurements];
+    for(int i = 0; i < measurements; ++i) {
+      final long start = System.nanoTime();
+      for(int r = 0; r < repetitions; ++r)
+        target.run(inputs[i], work);
+      times[i] = System.nanoTime() - start;
+    }
+
+    final long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    final double[] percentiles = { 1.0, 0.99, 0.9, 0.75, 0.5 };
+    double maxT = 0.0;
+    for(double p : percentiles) {
+      final long cutoff = sorted[(int)(p * (measurements - 1))];
+      final Welch welch = new Welch();
+      for(int i = 0; i < measurements; ++i)
+        if(times[i] <= cutoff)
+          welch.push(classes[i], times[i]);
+      maxT = Math.max(maxT, Math.abs(welch.t()));
+    }
+    return maxT;
+  }
+
+  private static int[] randomModulus() {
+    return TestUtil.randomOddNormalisedInteger(LIMBS);
+  }
+
+  private static Generator randomIntegers(final int length) {
+    return new Generator() {
+      @Override
+      public int[] next() {
+        return TestUtil.randomInteger(length);
+      }
+    };
+  }
+
+  private static Generator randomModularValues(final int[] m) {
+    return new Generator() {
+      @Override
+      public int[] next() {
+        return TestUtil.randomModularValue(m);
+      }
+    };
+  }
+
+  private static double powModLeakage(final int measurements) {
+    // The exponent is the secret
+    final int[] m = randomModulus();
+    final Modulus modulus = Modulus.valueOf(m);
+    final int[] base = TestUtil.randomModularValue(m);
+    final int[] result = new int[LIMBS];
+    return leakage(
+      new int[4],
+      randomIntegers(4),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          modulus.powMod(base, input, result);
+          sink += result[0];
+        }
+      },
+      measurements / 10,
+      1);
+  }
+
+  private static double invertModLeakage(final int measurements) {
+    final int[] m = randomModulus();
+    final Modulus modulus = Modulus.valueOf(m);
+    final int[] result = new int[LIMBS];
+    final int[] one = new int[LIMBS];
+    one[0] = 1;
+    return leakage(
+      one,
+      randomModularValues(m),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          modulus.invertMod(input, result);
+          sink += result[0];
+        }
+      },
+      measurements / 10,
+      1);
+  }
+
+  private static double multiplyReduceLeakage(final int measurements) {
+    final int[] m = randomModulus();
+    final Modulus modulus = Modulus.valueOf(m);
+    final int[] multiplier = TestUtil.randomModularValue(m);
+    return leakage(
+      new int[LIMBS],
+      randomModularValues(m),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          System.arraycopy(input, 0, work, 0, LIMBS);
+          modulus.multiplyReduce(work, multiplier);
+          sink += work[0];
+        }
+      },
+      measurements,
+      1);
+  }
+
+  private static double selectLeakage(final int measurements) {
+    // input[0] is the secret index into a table of 16 entries
+    final int[] table = TestUtil.randomInteger(16 * LIMBS);
+    final int[] result = new int[LIMBS];
+    return leakage(
+      new int[1],
+      new Generator() {
+        @Override
+        public int[] next() {
+          return new int[] { random.nextInt(16) };
+        }
+      },
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          Modulus.select(input[0], table, result);
+          sink += result[0];
+        }
+      },
+      measurements,
+      4);
+  }
+
+  private static Generator randomMasks() {
+    return new Generator() {
+      @Override
+      public int[] next() {
+        final int[] input = TestUtil.randomInteger(2 * LIMBS + 1);
+        input[2 * LIMBS] = -random.nextInt(2);
+        return input;
+      }
+    };
+  }
+
+  private static int[] fixedMask() {
+    // The operands are random in both classes, only the mask is fixed
+    final int[] input = TestUtil.randomInteger(2 * LIMBS + 1);
+    input[2 * LIMBS] = 0;
+    return input;
+  }
+
+  private static double maskedAddLeakage(final int measurements) {
+    return leakage(
+      fixedMask(),
+      randomMasks(),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          System.arraycopy(input, 0, work, 0, LIMBS);
+          sink += Operations.maskedAdd(
+            LIMBS, work, 0, input, LIMBS, input[2 * LIMBS]);
+        }
+      },
+      measurements,
+      4);
+  }
+
+  private static double maskedSubtractLeakage(final int measurements) {
+    return leakage(
+      fixedMask(),
+      randomMasks(),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          System.arraycopy(input, 0, work, 0, LIMBS);
+          sink += Operations.maskedSubtract(
+            LIMBS, work, 0, input, LIMBS, input[2 * LIMBS]);
+        }
+      },
+      measurements,
+      4);
+  }
+
+  private static double modLeakage(final int measurements) {
+    final int[] m = randomModulus();
+    final Modulus modulus = Modulus.valueOf(m);
+    return leakage(
+      new int[2 * LIMBS],
+      randomIntegers(2 * LIMBS),
+      new Target() {
+        @Override
+        public void run(final int[] input, final int[] work) {
+          System.arraycopy(input, 0, work, 0, 2 * LIMBS);
+          modulus.mod(work);
+          sink += work[0];
+        }
+      },
+      measurements,
+      1);
+  }
+
+  private static boolean assertionsEnabled() {
+    boolean enabled = false;
+    assert enabled = true;
+    return enabled;
+  }
+  
+  private static void assumeTimingTests() {
+    assumeTrue(Boolean.getBoolean("sjmp.timingTests"));
+    assumeFalse(assertionsEnabled());
+  }
+
+  private static void assertConstantTime(final String name, final double t) {
+    assertTrue(name + " leaks timing: |t| = " + t, t < LEAKAGE_THRESHOLD);
+  }
+
+  @Test
+  public void testPowModConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("powMod", powModLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testInvertModConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("invertMod", invertModLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testMultiplyReduceConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("multiplyReduce", multiplyReduceLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testSelectConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("select", selectLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testMaskedAddConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("maskedAdd", maskedAddLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testMaskedSubtractConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("maskedSubtract", maskedSubtractLeakage(MEASUREMENTS));
+  }
+
+  @Test
+  public void testModConstantTime() {
+    assumeTimingTests();
+    assertConstantTime("mod", modLeakage(MEASUREMENTS));
+  }
+
+  public static void main(String[] args) {
+    final int measurements = args.length > 0
+      ? Integer.parseInt(args[0])
+      : 50 * MEASUREMENTS;
+    System.out.format("%-16s %8s\n", "operation", "max |t|");
+    System.out.format("%-16s %8.2f\n", "powMod", powModLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "invertMod",
+      invertModLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "multiplyReduce",
+      multiplyReduceLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "select", selectLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "maskedAdd",
+      maskedAddLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "maskedSubtract",
+      maskedSubtractLeakage(measurements));
+    System.out.format("%-16s %8.2f\n", "mod", modLeakage(measurements));
+  }
+}
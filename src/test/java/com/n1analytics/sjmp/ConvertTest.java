@@ -0,0 +1,101 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ConvertTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 2000;
+  private static final int MAX_BITS = 16384;
+
+  private static BigInteger randomValue() {
+    BigInteger value = new BigInteger(random.nextInt(MAX_BITS) + 1, random);
+    switch(random.nextInt(4)) {
+    case 0:
+      // Powers of ten and their neighbours exercise the splitting
+      value = BigInteger.TEN.pow(random.nextInt(MAX_BITS / 4));
+      return value.add(BigInteger.valueOf(random.nextInt(3) - 1)).abs();
+    case 1:
+      // Long runs of zero and nine digits
+      return value.shiftLeft(random.nextInt(MAX_BITS));
+    default:
+      return value;
+    }
+  }
+
+  private static int[] limbs(final BigInteger value, final int extra) {
+    return Convert.fromBigInteger(
+      value,
+      new int[Math.max(1, (value.bitLength() + 31) / 32) + extra]);
+  }
+
+  @Test
+  public void fuzzTestDecimal() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      BigInteger value = randomValue();
+      int[] v = limbs(value, random.nextInt(3));
+      String s = value.toString();
+      assertEquals(s, Convert.toDecimalString(v));
+      assertArrayEquals(limbs(value, 0), Convert.fromDecimalString(s));
+      assertArrayEquals(limbs(value, 0), Convert.fromDecimalString("00" + s));
+    }
+  }
+
+  @Test
+  public void fuzzTestHex() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      BigInteger value = randomValue();
+      int[] v = limbs(value, random.nextInt(3));
+      String s = value.toString(16);
+      assertEquals(s, Convert.toHexString(v));
+      assertArrayEquals(limbs(value, 0), Convert.fromHexString(s));
+      assertArrayEquals(limbs(value, 0), Convert.fromHexString(s.toUpperCase()));
+    }
+  }
+
+  @Test
+  public void testZero() {
+    assertEquals("0", Convert.toDecimalString(new int[3]));
+    assertEquals("0", Convert.toHexString(new int[3]));
+    assertArrayEquals(new int[1], Convert.fromDecimalString("000"));
+    assertArrayEquals(new int[1], Convert.fromHexString("0"));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testInvalidDecimal() {
+    Convert.fromDecimalString("+1");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testInvalidHex() {
+    Convert.fromHexString("12g");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testEmpty() {
+    Convert.fromDecimalString("");
+  }
+}
@@ -0,0 +1,240 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EllipticCurveTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 100;
+
+  private static final BigInteger THREE = BigInteger.valueOf(3);
+
+  /**
+   * Affine arithmetic on y^2 = x^3 - 3x + b with BigInteger, for comparison.
+   * Points are {x, y} and the point at infinity is null.
+   */
+  private static final class Reference {
+    final BigInteger p;
+
+    Reference(final EllipticCurve curve) {
+      p = curve.prime();
+    }
+
+    BigInteger[] add(final BigInteger[] a, final BigInteger[] b) {
+      if(a == null)
+        return b;
+      if(b == null)
+        return a;
+      final BigInteger lambda;
+      if(a[0].equals(b[0])) {
+        if(!a[1].equals(b[1]) || a[1].signum() == 0)
+          return null;
+        lambda = a[0].pow(2).multiply(THREE).subtract(THREE)
+          .multiply(a[1].shiftLeft(1).modInverse(p)).mod(p);
+      } else {
+        lambda = b[1].subtract(a[1])
+          .multiply(b[0].subtract(a[0]).modInverse(p)).mod(p);
+      }
+      final BigInteger x = lambda.pow(2).subtract(a[0]).subtract(b[0]).mod(p);
+      final BigInteger y = lambda.multiply(a[0].subtract(x)).subtract(a[1]).mod(p);
+      return new BigInteger[] { x, y };
+    }
+
+    BigInteger[] multiply(final BigInteger[] a, final BigInteger k) {
+      BigInteger[] result = null;
+      for(int i = k.bitLength() - 1; i >= 0; --i) {
+        result = add(result, result);
+        if(k.testBit(i))
+          result = add(result, a);
+      }
+      return result;
+    }
+  }
+
+  private static BigInteger[] toAffine(final EllipticCurve curve, final int[] point) {
+    final int[] x = new int[curve.length()];
+    final int[] y = new int[curve.length()];
+    if(!curve.toAffine(point, x, y))
+      return null;
+    return new BigInteger[] { Convert.toBigInteger(x), Convert.toBigInteger(y) };
+  }
+
+  private static int[] randomScalar(final EllipticCurve curve) {
+    final int length = curve.length();
+    return Convert.fromBigInteger(
+      new BigInteger(32 * length, random).mod(curve.order()),
+      new int[length]);
+  }
+
+  private static EllipticCurve[] curves() {
+    return new EllipticCurve[] { EllipticCurve.p256(), EllipticCurve.p384() };
+  }
+
+  @Test
+  public void testGeneratorOrder() {
+    for(EllipticCurve curve : curves()) {
+      final int n = curve.length();
+      final int[] g = curve.generator();
+      final int[] point = new int[3 * n];
+      curve.multiply(g, Convert.fromBigInteger(curve.order(), new int[n]), point);
+      assertTrue(curve.isIdentity(point));
+
+      final int[] negated = new int[3 * n];
+      curve.negate(g, negated);
+      curve.multiply(
+        g,
+        Convert.fromBigInteger(curve.order().subtract(BigInteger.ONE), new int[n]),
+        point);
+      assertTrue(curve.isEqual(negated, point));
+      assertFalse(curve.isEqual(g, point));
+    }
+  }
+
+  @Test
+  public void fuzzTestAdd() {
+    for(EllipticCurve curve : curves()) {
+      final Reference reference = new Reference(curve);
+      final int n = curve.length();
+      final int[] g = curve.generator();
+      final int[] identity = new int[3 * n];
+      curve.identity(identity);
+      for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+        final int[] a = new int[3 * n];
+        final int[] b = new int[3 * n];
+        curve.multiply(g, randomScalar(curve), a);
+        curve.multiply(g, randomScalar(curve), b);
+        final BigInteger[] aAffine = toAffine(curve, a);
+        final BigInteger[] bAffine = toAffine(curve, b);
+
+        final int[] sum = new int[3 * n];
+        curve.add(a, b, sum);
+        assertArrayEquals(reference.add(aAffine, bAffine), toAffine(curve, sum));
+
+        // The exceptional cases of the incomplete formulas
+        curve.add(a, a, sum);
+        assertArrayEquals(reference.add(aAffine, aAffine), toAffine(curve, sum));
+        curve.dbl(a, sum);
+        assertArrayEquals(reference.add(aAffine, aAffine), toAffine(curve, sum));
+        curve.add(a, identity, sum);
+        assertTrue(curve.isEqual(a, sum));
+        curve.add(identity, a, sum);
+        assertTrue(curve.isEqual(a, sum));
+        curve.negate(a, sum);
+        curve.add(a, sum, sum);
+        assertTrue(curve.isIdentity(sum));
+        curve.dbl(identity, sum);
+        assertTrue(curve.isIdentity(sum));
+
+        // Aliased operands
+        System.arraycopy(a, 0, sum, 0, 3 * n);
+        curve.add(sum, b, sum);
+        assertArrayEquals(reference.add(aAffine, bAffine), toAffine(curve, sum));
+      }
+    }
+  }
+
+  @Test
+  public void fuzzTestMultiply() {
+    for(EllipticCurve curve : curves()) {
+      final Reference reference = new Reference(curve);
+      final int n = curve.length();
+      final int[] g = curve.generator();
+      final BigInteger[] gAffine = toAffine(curve, g);
+      final int[][] tables = curve.precompute(g, n);
+      for(int i = 0; i < FUZZ_ITERATIONS / 10; ++i) {
+        final int[] k = randomScalar(curve);
+        final BigInteger[] expected = reference.multiply(gAffine, Convert.toBigInteger(k));
+        final int[] point = new int[3 * n];
+        curve.multiply(g, k, point);
+        assertArrayEquals(expected, toAffine(curve, point));
+        curve.multiplyFixed(tables, k, point);
+        assertArrayEquals(expected, toAffine(curve, point));
+
+        // A base other than the generator, and a result aliasing the base
+        final int[] k2 = randomScalar(curve);
+        curve.multiply(point, k2, point);
+        assertArrayEquals(
+          reference.multiply(expected, Convert.toBigInteger(k2)),
+          toAffine(curve, point));
+      }
+
+      final int[] zero = new int[n];
+      final int[] point = new int[3 * n];
+      curve.multiply(g, zero, point);
+      assertNull(toAffine(curve, point));
+      curve.multiplyFixed(tables, zero, point);
+      assertNull(toAffine(curve, point));
+    }
+  }
+
+  @Test
+  public void testFromAffine() {
+    final EllipticCurve curve = EllipticCurve.p256();
+    final int n = curve.length();
+    final BigInteger[] g = toAffine(curve, curve.generator());
+    final int[] point = new int[3 * n];
+    assertTrue(curve.fromAffine(
+      Convert.fromBigInteger(g[0], new int[n]),
+      Convert.fromBigInteger(g[1], new int[n]),
+      point));
+    assertTrue(curve.isEqual(curve.generator(), point));
+    assertFalse(curve.fromAffine(
+      Convert.fromBigInteger(g[0], new int[n]),
+      Convert.fromBigInteger(g[1].add(BigInteger.ONE), new int[n]),
+      point));
+    // Coordinates must be reduced
+    assertFalse(curve.fromAffine(
+      Convert.fromBigInteger(curve.prime(), new int[n]),
+      Convert.fromBigInteger(g[1], new int[n]),
+      point));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGeneratorNotOnCurve() {
+    EllipticCurve.valueOf(
+      BigInteger.valueOf(1000003),
+      BigInteger.valueOf(7),
+      BigInteger.ONE,
+      BigInteger.ONE,
+      BigInteger.valueOf(1000003));
+  }
+
+  @Test
+  public void testFork() {
+    final EllipticCurve curve = EllipticCurve.p256();
+    final EllipticCurve fork = curve.fork();
+    final int[] k = randomScalar(curve);
+    final int[] a = new int[3 * curve.length()];
+    final int[] b = new int[3 * curve.length()];
+    curve.multiply(curve.generator(), k, a);
+    fork.multiply(fork.generator(), k, b);
+    assertArrayEquals(a, b);
+    assertEquals(curve.order(), fork.order());
+  }
+}
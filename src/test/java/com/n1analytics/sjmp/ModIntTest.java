@@ -0,0 +1,173 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModIntTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 2000;
+  private static final int MAX_BITS = 2048;
+
+  private static BigInteger randomModulus(final boolean odd) {
+    BigInteger m;
+    do {
+      m = new BigInteger(random.nextInt(MAX_BITS) + 1, random);
+    } while(m.signum() == 0 || m.testBit(0) != odd);
+    return m;
+  }
+
+  @Test
+  public void fuzzTestArithmetic() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      BigInteger m = randomModulus(i % 4 != 0);
+      Modulus modulus = Modulus.valueOf(m);
+      BigInteger aBig = new BigInteger(m.bitLength() + 8, random);
+      BigInteger bBig = new BigInteger(m.bitLength() + 8, random).negate();
+      ModInt a = ModInt.valueOf(modulus, aBig);
+      ModInt b = ModInt.valueOf(modulus, bBig);
+      BigInteger e = new BigInteger(random.nextInt(256), random);
+
+      assertEquals(aBig.mod(m), a.toBigInteger());
+      assertEquals(bBig.mod(m), b.toBigInteger());
+      assertEquals(aBig.add(bBig).mod(m), a.add(b).toBigInteger());
+      assertEquals(aBig.subtract(bBig).mod(m), a.sub(b).toBigInteger());
+      assertEquals(aBig.negate().mod(m), a.neg().toBigInteger());
+      assertEquals(aBig.multiply(bBig).mod(m), a.mul(b).toBigInteger());
+      assertEquals(aBig.multiply(aBig).mod(m), a.square().toBigInteger());
+      assertEquals(aBig.modPow(e, m), a.pow(e).toBigInteger());
+      assertEquals(a.mul(b), b.mul(a));
+    }
+  }
+
+  @Test
+  public void fuzzTestInverse() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      BigInteger m = randomModulus(i % 4 != 0);
+      Modulus modulus = Modulus.valueOf(m);
+      BigInteger aBig = new BigInteger(m.bitLength(), random).mod(m);
+      // Include values sharing a factor with the modulus
+      if(i % 8 == 1)
+        aBig = aBig.multiply(m.gcd(BigInteger.valueOf(6))).mod(m);
+      ModInt a = ModInt.valueOf(modulus, aBig);
+      if(aBig.gcd(m).equals(BigInteger.ONE)) {
+        assertEquals(aBig.modInverse(m), a.inv().toBigInteger());
+      } else {
+        try {
+          a.inv();
+          throw new AssertionError("expected ArithmeticException");
+        } catch(ArithmeticException e) {
+          // Expected
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEquality() {
+    BigInteger m = randomModulus(true);
+    ModInt a = ModInt.valueOf(Modulus.valueOf(m), 5);
+    ModInt b = ModInt.valueOf(Modulus.valueOf(m), m.add(BigInteger.valueOf(5)));
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertEquals(a.add(b), ModInt.valueOf(a.modulus(), 10));
+    assertNotEquals(a, ModInt.valueOf(a.modulus(), 6));
+    assertNotEquals(a, ModInt.valueOf(Modulus.valueOf(m.add(BigInteger.valueOf(2))), 5));
+    assertTrue(a.sub(b).isZero());
+    assertFalse(a.isZero());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDifferentModuli() {
+    ModInt a = ModInt.valueOf(Modulus.valueOf(BigInteger.valueOf(7)), 3);
+    ModInt b = ModInt.valueOf(Modulus.valueOf(BigInteger.valueOf(9)), 3);
+    a.mul(b);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueNotReduced() {
+    ModInt.valueOf(Modulus.valueOf(BigInteger.valueOf(7)), new int[] { 7 });
+  }
+
+  @Test
+  public void testEvenModulus() {
+    // The range check and modulus comparison use the full even modulus, not
+    // its odd part.
+    Modulus m = Modulus.valueOf(BigInteger.valueOf(12));
+    ModInt a = ModInt.valueOf(m, new int[] { 11 });
+    assertEquals(a, ModInt.valueOf(Modulus.valueOf(BigInteger.valueOf(12)), 11));
+    assertNotEquals(a, ModInt.valueOf(Modulus.valueOf(BigInteger.valueOf(3)), 11));
+    try {
+      ModInt.valueOf(m, new int[] { 12 });
+      fail();
+    } catch(IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void fuzzTestConcurrentUse() throws InterruptedException {
+    // Values are shared between threads while each thread uses its own fork
+    final BigInteger m = randomModulus(true);
+    final Modulus modulus = Modulus.valueOf(m);
+    final ModInt[] values = new ModInt[16];
+    for(int i = 0; i < values.length; ++i)
+      values[i] = ModInt.valueOf(modulus, new BigInteger(m.bitLength(), random));
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random();
+            for(int i = 0; i < 500; ++i) {
+              ModInt a = values[random.nextInt(values.length)];
+              ModInt b = values[random.nextInt(values.length)];
+              BigInteger expected = a.toBigInteger()
+                .multiply(b.toBigInteger())
+                .add(a.toBigInteger())
+                .mod(m);
+              if(!expected.equals(a.mul(b).add(a).toBigInteger()))
+                throw new AssertionError("mul/add mismatch");
+            }
+          } catch(Throwable e) {
+            synchronized(failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread thread : threads)
+      thread.join();
+    if(failure[0] != null)
+      throw new AssertionError(failure[0]);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ModulusCacheTest {
+
+  private static Random random = new Random();
+
+  private static final int KEY_LENGTH = 32;
+
+  @Test
+  public void testHitsAndEviction() {
+    ModulusCache cache = new ModulusCache(2);
+    int[] m1 = TestUtil.randomOddNormalisedInteger(4);
+    int[] m2 = TestUtil.randomOddNormalisedInteger(4);
+    int[] m3 = TestUtil.randomOddNormalisedInteger(4);
+
+    cache.get(m1);
+    cache.get(m2);
+    cache.get(m1.clone());
+    cache.get(Convert.toBigInteger(m1));
+    assertEquals(2, cache.hits());
+    assertEquals(2, cache.misses());
+    assertEquals(0.5, cache.hitRate(), 0.0);
+
+    // m2 is the least recently used so it is evicted first
+    cache.get(m3);
+    assertEquals(2, cache.size());
+    cache.get(m1);
+    assertEquals(3, cache.hits());
+    cache.get(m2);
+    assertEquals(4, cache.misses());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testForks() {
+    // Every caller gets its own scratch space and the same precomputation.
+    ModulusCache cache = new ModulusCache(1);
+    int[] m = TestUtil.randomOddNormalisedInteger(32);
+    Modulus a = cache.get(m);
+    Modulus b = cache.get(m);
+    assertNotSame(a, b);
+    assertNotSame(a.scratch, b.scratch);
+    assertSame(a.modulus, b.modulus);
+    assertEquals(Modulus.valueOf(m).getClass(), a.getClass());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidModulus() {
+    new ModulusCache(1).get(new int[] { 0 });
+  }
+
+  @Test
+  public void fuzzTestConcurrentPowMod() throws InterruptedException {
+    final ModulusCache cache = new ModulusCache(4);
+    final int[][] moduli = new int[8][];
+    for(int i = 0; i < moduli.length; ++i)
+      moduli[i] = TestUtil.randomOddNormalisedInteger(random.nextInt(KEY_LENGTH) + 1);
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random();
+            for(int i = 0; i < 1000; ++i) {
+              int[] m = moduli[random.nextInt(moduli.length)];
+              Modulus modulus = cache.get(m);
+              int[] b = TestUtil.randomModularValue(m);
+              int[] e = TestUtil.randomInteger(random.nextInt(4) + 1);
+              int[] r = new int[m.length];
+              modulus.powMod(b, e, r);
+              BigInteger expected = Convert.toBigInteger(b).modPow(
+                Convert.toBigInteger(e),
+                Convert.toBigInteger(m));
+              if(!expected.equals(Convert.toBigInteger(r)))
+                throw new AssertionError("powMod mismatch");
+            }
+          } catch(Throwable e) {
+            synchronized(failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread thread : threads)
+      thread.join();
+    if(failure[0] != null)
+      throw new AssertionError(failure[0]);
+    assertEquals(4000, cache.hits() + cache.misses());
+  }
+}
@@ -0,0 +1,305 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ModulusProcessorTest {
+  private static final Random random = new Random();
+  private static final int LIMBS = 8;
+  private static final int COUNT = 500;
+
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * Publishes the given items, or random values below {@code modulus} forever
+   * if there are none, on the thread that requests them.
+   */
+  private static final class TestPublisher implements Flow.Publisher<int[]> {
+    final List<int[]> items;
+    final int[] modulus;
+    long requested;
+    long sent;
+    boolean cancelled;
+    private boolean emitting;
+
+    TestPublisher(final List<int[]> items, final int[] modulus) {
+      this.items = items;
+      this.modulus = modulus;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super int[]> subscriber) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) {
+          synchronized(TestPublisher.this) {
+            requested += n;
+            if(emitting)
+              return;
+            emitting = true;
+          }
+          for(;;) {
+            final int[] item;
+            synchronized(TestPublisher.this) {
+              if(cancelled || sent == requested
+                || (items != null && sent == items.size())) {
+                emitting = false;
+                break;
+              }
+              item = items != null
+                ? items.get((int)sent)
+                : TestUtil.randomModularValue(modulus);
+              ++sent;
+            }
+            subscriber.onNext(item);
+          }
+          synchronized(TestPublisher.this) {
+            if(items == null || sent != items.size() || cancelled)
+              return;
+            cancelled = true;
+          }
+          subscriber.onComplete();
+        }
+
+        @Override
+        public void cancel() {
+          synchronized(TestPublisher.this) {
+            cancelled = true;
+          }
+        }
+      });
+    }
+  }
+
+  private static final class TestSubscriber implements Flow.Subscriber<int[]> {
+    final List<int[]> received =
+      Collections.synchronizedList(new ArrayList<int[]>());
+    final CountDownLatch done = new CountDownLatch(1);
+    final long initialRequest;
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+
+    TestSubscriber(final long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if(initialRequest > 0)
+        subscription.request(initialRequest);
+    }
+
+    @Override
+    public void onNext(final int[] item) {
+      received.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+    }
+  }
+
+  private static List<int[]> randomValues(final int[] m, final int count) {
+    final List<int[]> values = new ArrayList<int[]>();
+    for(int i = 0; i < count; ++i)
+      values.add(TestUtil.randomModularValue(m));
+    return values;
+  }
+
+  private static void connect(
+    final TestPublisher publisher,
+    final ModulusProcessor processor,
+    final TestSubscriber subscriber)
+  {
+    processor.subscribe(subscriber);
+    publisher.subscribe(processor);
+  }
+
+  @Test
+  public void testPower() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final BigInteger mm = Convert.toBigInteger(m);
+    final int[] exponent = TestUtil.randomInteger(2);
+    final BigInteger e = Convert.toBigInteger(exponent);
+    final List<int[]> items = randomValues(m, COUNT);
+    final ExecutorService pool = AsyncModulus.newPool(3);
+    try {
+      final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+      connect(
+        new TestPublisher(items, m),
+        ModulusProcessor.power(Modulus.valueOf(m), exponent, pool, 8, 3),
+        subscriber);
+      subscriber.await();
+      assertNull(subscriber.error);
+      assertEquals(COUNT, subscriber.received.size());
+      for(int i = 0; i < COUNT; ++i)
+        assertEquals(
+          Convert.toBigInteger(items.get(i)).modPow(e, mm),
+          Convert.toBigInteger(subscriber.received.get(i)));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testRerandomize() throws Exception {
+    // r^((p-1)/2) is the Legendre symbol of r, so each result is item or
+    // -item, each about half of the time
+    final BigInteger p = BigInteger.probablePrime(32 * LIMBS, random);
+    final int[] m = Convert.fromBigInteger(p, new int[LIMBS]);
+    final int[] exponent = Convert.fromBigInteger(
+      p.shiftRight(1), new int[LIMBS]);
+    final List<int[]> items = randomValues(m, 100);
+    final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+    connect(
+      new TestPublisher(items, m),
+      ModulusProcessor.rerandomize(
+        Modulus.valueOf(m), exponent, random, DIRECT, 16, 2),
+      subscriber);
+    subscriber.await();
+    assertNull(subscriber.error);
+    assertEquals(items.size(), subscriber.received.size());
+    int negated = 0;
+    for(int i = 0; i < items.size(); ++i) {
+      final BigInteger x = Convert.toBigInteger(items.get(i));
+      final BigInteger y = Convert.toBigInteger(subscriber.received.get(i));
+      if(!y.equals(x)) {
+        assertEquals(p.subtract(x), y);
+        ++negated;
+      }
+    }
+    assertTrue(negated > 10 && negated < 90);
+  }
+
+  @Test
+  public void testProduct() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final BigInteger mm = Convert.toBigInteger(m);
+    final ExecutorService pool = AsyncModulus.newPool(2);
+    try {
+      for(int count : new int[] { 0, 1, COUNT }) {
+        final List<int[]> items = randomValues(m, count);
+        BigInteger expected = BigInteger.ONE;
+        for(int[] item : items)
+          expected = expected.multiply(Convert.toBigInteger(item)).mod(mm);
+        final TestSubscriber subscriber = new TestSubscriber(1);
+        connect(
+          new TestPublisher(items, m),
+          ModulusProcessor.product(Modulus.valueOf(m), pool, 16, 2),
+          subscriber);
+        subscriber.await();
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.received.size());
+        assertEquals(
+          expected,
+          Convert.toBigInteger(subscriber.received.get(0)));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    // An endless publisher must not be asked for more than the processor
+    // can hold beyond what the subscriber requested
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final int batchSize = 4;
+    final int parallelism = 2;
+    final long capacity = 2 * batchSize * parallelism;
+    final TestPublisher publisher = new TestPublisher(null, m);
+    final TestSubscriber subscriber = new TestSubscriber(0);
+    final int[] one = new int[] { 1 };
+    connect(
+      publisher,
+      ModulusProcessor.power(
+        Modulus.valueOf(m), one, DIRECT, batchSize, parallelism),
+      subscriber);
+    assertEquals(capacity, publisher.requested);
+    assertEquals(0, subscriber.received.size());
+    for(int k = 1; k <= 50; ++k) {
+      subscriber.subscription.request(k);
+      final int received = k * (k + 1) / 2;
+      assertEquals(received, subscriber.received.size());
+      assertTrue(publisher.requested <= received + capacity);
+    }
+    subscriber.subscription.cancel();
+    assertTrue(publisher.cancelled);
+  }
+
+  @Test
+  public void testInvalidItem() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final List<int[]> items = randomValues(m, 10);
+    items.set(5, m.clone());
+    final TestPublisher publisher = new TestPublisher(items, m);
+    final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+    connect(
+      publisher,
+      ModulusProcessor.power(Modulus.valueOf(m), new int[] { 3 }, DIRECT, 4, 1),
+      subscriber);
+    subscriber.await();
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+    assertTrue(publisher.cancelled);
+  }
+
+  @Test
+  public void testSingleSubscriber() throws Exception {
+    final int[] m = TestUtil.randomOddNormalisedInteger(LIMBS);
+    final ModulusProcessor processor =
+      ModulusProcessor.product(Modulus.valueOf(m), DIRECT, 4, 1);
+    processor.subscribe(new TestSubscriber(0));
+    final TestSubscriber second = new TestSubscriber(1);
+    processor.subscribe(second);
+    second.await();
+    assertTrue(second.error instanceof IllegalStateException);
+  }
+}
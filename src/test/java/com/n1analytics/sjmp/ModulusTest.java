@@ -21,8 +21,11 @@ package com.n1analytics.sjmp;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class ModulusTest {
@@ -73,15 +76,53 @@ public class ModulusTest {
       int n = random.nextInt(KEY_LENGTH) + 1;
       int[] m = TestUtil.randomOddNormalisedInteger(n);
       int[] b = TestUtil.randomModularValue(m);
-      int[][] powers = new int[16][n];
+      int[] powers = new int[16 * n];
+      int[] power = new int[n];
       Modulus modulus = new Modulus(m);
       modulus.calculateMontgomeryPowers(b, powers);
       BigInteger mBig = Convert.toBigInteger(m);
       BigInteger bBig = Convert.toBigInteger(b);
-      for(int j = 0; j < powers.length; ++j)
+      for(int j = 0; j < 16; ++j) {
+        Modulus.select(j, powers, power);
         assertEquals(
           bBig.pow(j).shiftLeft(INT_SIZE * n).mod(mBig),
-          Convert.toBigInteger(powers[j]));
+          Convert.toBigInteger(power));
+      }
+    }
+  }
+  
+  @Test
+  public void fuzzTestMontgomeryTransform() {
+    // Both ways of entering the Montgomery domain agree with BigInteger.
+    for(int i = 0; i < 10000; ++i) {
+      int n = (i % 10 == 0) ? 32 * (random.nextInt(4) + 1) : random.nextInt(KEY_LENGTH) + 1;
+      int[] m = TestUtil.randomOddNormalisedInteger(n);
+      int[] v = TestUtil.randomModularValue(m);
+      Modulus modulus = Modulus.valueOf(m);
+      BigInteger expected = Convert.toBigInteger(v)
+        .shiftLeft(INT_SIZE * n)
+        .mod(Convert.toBigInteger(m));
+      int[] v1 = v.clone();
+      modulus.montgomeryTransform(v1);
+      assertEquals(expected, Convert.toBigInteger(v1));
+      int[] v2 = v.clone();
+      modulus.montgomeryTransformByDivision(v2);
+      assertEquals(expected, Convert.toBigInteger(v2));
+    }
+  }
+  
+  @Test
+  public void fuzzTestSelect() {
+    // The interleaved layout stores limb j of entry i at j * entries + i.
+    for(int i = 0; i < 10000; ++i) {
+      int n = random.nextInt(KEY_LENGTH) + 1;
+      int entries = random.nextInt(32) + 1;
+      int[] table = TestUtil.randomInteger(entries * n);
+      int index = random.nextInt(entries);
+      int[] result = new int[n];
+      Modulus.select(index, table, result);
+      for(int j = 0; j < n; ++j)
+        assertEquals(table[j * entries + index], result[j]);
     }
   }
   
@@ -221,7 +262,7 @@ public class ModulusTest {
       int n = 32;
       int[] m = TestUtil.randomOddNormalisedInteger(n);
       int[] b = TestUtil.randomModularValue(m);
-      int[][] p = new int[16][n];
+      int[] p = new int[16 * n];
       int[] e = TestUtil.randomInteger(n);
       int[] r = new int[n];
       Modulus modulus = new Modulus(m);
@@ -247,4 +288,480 @@ public class ModulusTest {
       assertEquals(rBig, Convert.toBigInteger(r));
     }
   }
+  
+  @Test
+  public void fuzzTestGroupOrderPowMod() {
+    // Each iteration, generate a random prime p and raise a random base to an
+    // exponent much longer than p. Reducing the exponent by the group order
+    // p - 1 must not change the result.
+    for(int i = 0; i < 1000; ++i) {
+      int n = random.nextInt(8) + 1;
+      BigInteger mBig = BigInteger.probablePrime(INT_SIZE * n, random);
+      BigInteger orderBig = mBig.subtract(BigInteger.ONE);
+      int[] m = Convert.fromBigInteger(mBig, new int[n]);
+      int[] b;
+      do {
+        b = TestUtil.randomModularValue(m);
+      } while(Convert.toBigInteger(b).signum() == 0);
+      int[] e = TestUtil.randomInteger(n + random.nextInt(3 * n) + 1);
+      int[] r = new int[n];
+      Modulus modulus = Modulus.valueOf(mBig).withGroupOrder(orderBig);
+      BigInteger eBig = Convert.toBigInteger(e);
+      
+      int[] reduced = modulus.reduceExponent(e);
+      assertEquals(eBig.mod(orderBig), Convert.toBigInteger(reduced));
+      
+      modulus.powMod(b, e, r);
+      assertEquals(
+        Convert.toBigInteger(b).modPow(eBig, mBig),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test
+  public void testWithGroupOrderKeepsImplementation() {
+    // A group order must not lose the fixed-size or special-form kernels.
+    final BigInteger p1024 = BigInteger.probablePrime(1024, random);
+    final BigInteger p25519 =
+      BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+    final BigInteger[] moduli = new BigInteger[] {
+      p1024, p25519, p1024.shiftLeft(3)
+    };
+    final BigInteger[] orders = new BigInteger[] {
+      p1024.subtract(BigInteger.ONE),
+      p25519.subtract(BigInteger.ONE),
+      p1024.subtract(BigInteger.ONE).shiftLeft(2)
+    };
+    for(int i = 0; i < moduli.length; ++i) {
+      final Modulus plain = Modulus.valueOf(moduli[i]);
+      final Modulus grouped = plain.withGroupOrder(orders[i]);
+      assertEquals(plain.getClass(), grouped.getClass());
+      
+      final int n = plain.length();
+      int[] b;
+      do {
+        b = Convert.fromBigInteger(
+          new BigInteger(moduli[i].bitLength() - 1, random),
+          new int[n]);
+      } while(!Convert.toBigInteger(b).testBit(0));
+      final int[] e = TestUtil.randomInteger(3 * n);
+      final int[] r = new int[n];
+      grouped.powMod(b, e, r);
+      assertEquals(
+        Convert.toBigInteger(b).modPow(Convert.toBigInteger(e), moduli[i]),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testWithGroupOrderZero() {
+    Modulus.valueOf(BigInteger.valueOf(101)).withGroupOrder(new int[2]);
+  }
+  
+  @Test
+  public void fuzzTestFixedModulus() {
+    // The generated fixed-size kernels must agree with the generic ones.
+    final int[] sizes = new int[] { 32, 64, 96, 128 };
+    for(int i = 0; i < 100; ++i) {
+      int n = sizes[i % sizes.length];
+      int[] m = TestUtil.randomOddNormalisedInteger(n);
+      Modulus fixed = Modulus.valueOf(m);
+      Modulus generic = new Modulus(m);
+      assertEquals("Modulus" + (INT_SIZE * n), fixed.getClass().getSimpleName());
+      
+      int[] v1 = TestUtil.randomModularValue(m);
+      int[] v2 = TestUtil.randomModularValue(m);
+      int[] expected = v1.clone();
+      int[] actual = v1.clone();
+      generic.multiplyReduce(expected, v2);
+      fixed.multiplyReduce(actual, v2);
+      assertEquals(Convert.toBigInteger(expected), Convert.toBigInteger(actual));
+      
+      expected = v1.clone();
+      actual = v1.clone();
+      generic.squareReduce(expected);
+      fixed.squareReduce(actual);
+      assertEquals(Convert.toBigInteger(expected), Convert.toBigInteger(actual));
+      
+      int[] e = TestUtil.randomInteger(random.nextInt(4) + 1);
+      int[] r = new int[n];
+      fixed.powMod(v1, e, r);
+      assertEquals(
+        Convert.toBigInteger(v1).modPow(Convert.toBigInteger(e), Convert.toBigInteger(m)),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test
+  public void fuzzTestMontgomeryStrategies() {
+    // Every combination of strategies must agree with BigInteger.
+    for(int i = 0; i < 100000; ++i) {
+      int n = random.nextInt(KEY_LENGTH) + 1;
+      int[] m = TestUtil.randomOddNormalisedInteger(n);
+      int[] v1 = TestUtil.randomModularValue(m);
+      int[] v2 = TestUtil.randomModularValue(m);
+      MontgomeryStrategy[] strategies = MontgomeryStrategy.values();
+      MontgomeryStrategy multiplyStrategy = strategies[i % strategies.length];
+      MontgomeryStrategy squareStrategy = strategies[(i / strategies.length) % strategies.length];
+      Modulus modulus = Modulus.valueOf(m, multiplyStrategy, squareStrategy);
+      
+      BigInteger mBig = Convert.toBigInteger(m);
+      BigInteger rInverse = BigInteger.ONE.shiftLeft(INT_SIZE * n).modInverse(mBig);
+      BigInteger v1Big = Convert.toBigInteger(v1);
+      BigInteger v2Big = Convert.toBigInteger(v2);
+      
+      int[] v3 = v1.clone();
+      modulus.multiplyReduce(v3, v2);
+      assertEquals(
+        v1Big.multiply(v2Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3));
+      
+      v3 = v1.clone();
+      modulus.squareReduce(v3);
+      assertEquals(
+        v1Big.multiply(v1Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3));
+    }
+  }
+  
+  @Test
+  public void fuzzTestLazyReduction() {
+    // The lazy operations accept and return any value less than 2^(32*n) and
+    // powMod must still return a fully reduced result.
+    for(int i = 0; i < 10000; ++i) {
+      int n = (i % 10 == 0) ? 32 * (random.nextInt(4) + 1) : random.nextInt(KEY_LENGTH) + 1;
+      int[] m = TestUtil.randomOddNormalisedInteger(n);
+      Modulus modulus = Modulus.valueOf(m, true);
+      
+      BigInteger mBig = Convert.toBigInteger(m);
+      BigInteger rBig = BigInteger.ONE.shiftLeft(INT_SIZE * n);
+      BigInteger rInverse = rBig.modInverse(mBig);
+      int[] v1 = TestUtil.randomInteger(n);
+      int[] v2 = TestUtil.randomInteger(n);
+      BigInteger v1Big = Convert.toBigInteger(v1);
+      BigInteger v2Big = Convert.toBigInteger(v2);
+      
+      int[] v3 = v1.clone();
+      modulus.multiplyReduceLazy(v3, v2);
+      assertEquals(
+        v1Big.multiply(v2Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3).mod(mBig));
+      
+      v3 = v1.clone();
+      modulus.squareReduceLazy(v3);
+      assertEquals(
+        v1Big.multiply(v1Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3).mod(mBig));
+      
+      int[] base = TestUtil.randomModularValue(m);
+      int[] e = TestUtil.randomInteger(random.nextInt(4) + 1);
+      int[] r = new int[n];
+      modulus.powMod(base, e, r);
+      assertEquals(
+        Convert.toBigInteger(base).modPow(Convert.toBigInteger(e), mBig),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test
+  public void testMontgomeryReduceOfModulus() {
+    // A lazily reduced value may be exactly the modulus, which must reduce to
+    // zero rather than be left unchanged.
+    for(int i = 0; i < 100; ++i) {
+      int n = (i % 10 == 0) ? 32 * (random.nextInt(4) + 1) : random.nextInt(KEY_LENGTH) + 1;
+      int[] m = TestUtil.randomOddNormalisedInteger(n);
+      Modulus modulus = Modulus.valueOf(m);
+      int[] v = new int[2 * n];
+      System.arraycopy(m, 0, v, 0, n);
+      modulus.montgomeryReduce(v);
+      assertEquals(BigInteger.ZERO, Convert.toBigInteger(v));
+    }
+  }
+  
+  /**
+   * Return a random modulus of {@code bits} bits, odd or even.
+   */
+  private static BigInteger randomModulus(final int bits, final boolean odd) {
+    BigInteger m = new BigInteger(bits, random).setBit(bits - 1);
+    if(odd)
+      return m.setBit(0);
+    // Vary the power of two from 2^1 to 2^bits
+    int k = 1 + random.nextInt(bits);
+    return m.shiftRight(k).shiftLeft(k).setBit(k);
+  }
+  
+  @Test
+  public void fuzzTestAnyModulus() {
+    // Odd moduli of any bit length and even moduli must agree with BigInteger
+    for(int i = 0; i < 20000; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 1;
+      boolean odd = i % 2 == 0;
+      BigInteger mBig = randomModulus(bits, odd);
+      Modulus modulus = Modulus.valueOf(mBig);
+      assertEquals(odd, !(modulus instanceof EvenModulus));
+      int n = (mBig.bitLength() + INT_SIZE - 1) / INT_SIZE;
+      
+      BigInteger vBig = new BigInteger(2 * INT_SIZE * n, random);
+      int[] v = Convert.fromBigInteger(vBig, new int[2 * n]);
+      modulus.mod(v);
+      assertEquals(vBig.mod(mBig), Convert.toBigInteger(v));
+      
+      BigInteger bBig = new BigInteger(bits + 8, random).mod(mBig);
+      int[] b = Convert.fromBigInteger(bBig, new int[n]);
+      int[] e = TestUtil.randomInteger(random.nextInt(4) + 1);
+      int[] r = new int[n];
+      modulus.powMod(b, e, r);
+      assertEquals(
+        bBig.modPow(Convert.toBigInteger(e), mBig),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test
+  public void fuzzTestMultiplyMod() {
+    // Both the Montgomery and Barrett paths, for odd and even moduli of any
+    // bit length, including results aliasing an operand
+    for(int i = 0; i < 20000; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 1;
+      BigInteger mBig = randomModulus(bits, i % 4 != 0);
+      Modulus modulus = Modulus.valueOf(mBig);
+      if(i % 3 == 0)
+        modulus = modulus.fork();
+      int n = (mBig.bitLength() + INT_SIZE - 1) / INT_SIZE;
+      
+      BigInteger aBig = new BigInteger(bits + 8, random).mod(mBig);
+      BigInteger bBig = new BigInteger(bits + 8, random).mod(mBig);
+      int[] a = Convert.fromBigInteger(aBig, new int[n]);
+      int[] b = Convert.fromBigInteger(bBig, new int[n]);
+      int[] r = new int[n];
+      modulus.multiplyMod(a, b, r);
+      assertEquals(aBig.multiply(bBig).mod(mBig), Convert.toBigInteger(r));
+      modulus.squareMod(a, r);
+      assertEquals(aBig.multiply(aBig).mod(mBig), Convert.toBigInteger(r));
+      
+      modulus.multiplyMod(a, b, b);
+      assertEquals(aBig.multiply(bBig).mod(mBig), Convert.toBigInteger(b));
+      modulus.multiplyMod(a, a, a);
+      assertEquals(aBig.multiply(aBig).mod(mBig), Convert.toBigInteger(a));
+      modulus.squareMod(a, a);
+      assertEquals(aBig.pow(4).mod(mBig), Convert.toBigInteger(a));
+    }
+  }
+  
+  @Test
+  public void fuzzTestAddSubNegMod() {
+    for(int i = 0; i < 20000; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 1;
+      BigInteger mBig = randomModulus(bits, i % 4 != 0);
+      Modulus modulus = Modulus.valueOf(mBig);
+      int n = (mBig.bitLength() + INT_SIZE - 1) / INT_SIZE;
+      
+      // Include zero and m - 1, which exercise the edges of each selection
+      BigInteger aBig = new BigInteger(bits + 8, random).mod(mBig);
+      BigInteger bBig = new BigInteger(bits + 8, random).mod(mBig);
+      if(i % 8 == 1)
+        aBig = BigInteger.ZERO;
+      if(i % 8 == 2)
+        bBig = mBig.subtract(BigInteger.ONE);
+      int[] a = Convert.fromBigInteger(aBig, new int[n]);
+      int[] b = Convert.fromBigInteger(bBig, new int[n]);
+      int[] r = new int[n];
+      
+      modulus.addMod(a, b, r);
+      assertEquals(aBig.add(bBig).mod(mBig), Convert.toBigInteger(r));
+      modulus.subMod(a, b, r);
+      assertEquals(aBig.subtract(bBig).mod(mBig), Convert.toBigInteger(r));
+      modulus.negMod(a, r);
+      assertEquals(aBig.negate().mod(mBig), Convert.toBigInteger(r));
+      
+      // Sub-arrays, with the result in place of an operand
+      int offset = random.nextInt(4);
+      int[] ab = new int[offset + 2 * n];
+      System.arraycopy(a, 0, ab, offset, n);
+      System.arraycopy(b, 0, ab, offset + n, n);
+      modulus.subMod(ab, offset + n, ab, offset, ab, offset + n);
+      modulus.addMod(ab, offset, ab, offset + n, ab, offset);
+      System.arraycopy(ab, offset, r, 0, n);
+      assertEquals(bBig.mod(mBig), Convert.toBigInteger(r));
+      modulus.negMod(ab, offset, ab, offset);
+      System.arraycopy(ab, offset, r, 0, n);
+      assertEquals(bBig.negate().mod(mBig), Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test
+  public void fuzzTestInvertBatch() {
+    for(int i = 0; i < 200; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 2;
+      BigInteger mBig = randomModulus(bits, i % 4 != 0);
+      Modulus modulus = Modulus.valueOf(mBig);
+      int n = (mBig.bitLength() + INT_SIZE - 1) / INT_SIZE;
+      int k = random.nextInt(40) + 1;
+      
+      BigInteger[] xBig = new BigInteger[k];
+      int[][] x = new int[k][];
+      int[][] r = new int[k][];
+      boolean invertible = true;
+      for(int j = 0; j < k; ++j) {
+        xBig[j] = new BigInteger(bits + 8, random).mod(mBig);
+        // Occasionally include a value that is not invertible
+        if(i % 8 == 1 && j == k / 2)
+          xBig[j] = BigInteger.ZERO;
+        invertible &= xBig[j].gcd(mBig).equals(BigInteger.ONE);
+        x[j] = Convert.fromBigInteger(xBig[j], new int[n]);
+        r[j] = new int[n];
+      }
+      
+      assertEquals(invertible, modulus.invertBatch(x, r));
+      if(invertible)
+        for(int j = 0; j < k; ++j)
+          assertEquals(xBig[j].modInverse(mBig), Convert.toBigInteger(r[j]));
+      
+      int[][] p = new int[k][n];
+      assertEquals(invertible, modulus.invertBatch(x, p, random.nextInt(8) + 1));
+      if(invertible)
+        for(int j = 0; j < k; ++j)
+          assertArrayEquals(r[j], p[j]);
+    }
+  }
+  
+  @Test
+  public void fuzzTestProduct() {
+    for(int i = 0; i < 200; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 2;
+      BigInteger mBig = i % 8 == 2
+        ? BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19))
+        : randomModulus(bits, i % 4 != 0);
+      final Modulus modulus = Modulus.valueOf(mBig);
+      final int n = modulus.length();
+      int k = random.nextInt(60);
+      
+      BigInteger expected = BigInteger.ONE.mod(mBig);
+      final List<int[]> x = new ArrayList<int[]>();
+      for(int j = 0; j < k; ++j) {
+        BigInteger xBig = new BigInteger(mBig.bitLength() + 8, random).mod(mBig);
+        expected = expected.multiply(xBig).mod(mBig);
+        x.add(Convert.fromBigInteger(xBig, new int[n]));
+      }
+      final int[][] values = x.toArray(new int[k][]);
+      
+      int[] r = new int[n];
+      modulus.product(values, r);
+      assertEquals(expected, Convert.toBigInteger(r));
+      r = new int[n];
+      modulus.product(values, r, random.nextInt(8) + 1);
+      assertEquals(expected, Convert.toBigInteger(r));
+      assertEquals(
+        expected,
+        Convert.toBigInteger(x.stream().collect(modulus.productCollector())));
+      assertEquals(
+        expected,
+        Convert.toBigInteger(
+          x.parallelStream().collect(modulus.productCollector())));
+    }
+  }
+  
+  @Test
+  public void testNonNormalisedReduction() {
+    // Non-normalised moduli for which reducing the shifted dividend with the
+    // half-limb division used to give wrong remainders, and so wrong R and R^2
+    final String[] moduli = new String[] {
+      "18fbbc8a56dad7f090abefafcad23c476e9b409cd78abc33055de68746a5692d5",
+      "218a1688d9d5e761d9b964e83689d20d9f6155325107b99a856169c3061037de55a07cb4"
+        + "1b510b1708c428193",
+      "1292852bdc8393ee92d605612b8ec6f902dd9c282e006ccf9e686be6889ee00c45c3c785"
+        + "6405226bdcfa77d04f452a8b5406b1fe27623",
+      "178752efb9798010407b8a9bb07142503"
+    };
+    for(String hex : moduli) {
+      final BigInteger mBig = new BigInteger(hex, 16);
+      final int n = (mBig.bitLength() + INT_SIZE - 1) / INT_SIZE;
+      final Modulus modulus = Modulus.valueOf(mBig);
+      
+      final int[] x = new int[n];
+      final int[] power = new int[2 * n];
+      power[n] = 1;
+      modulus.mod(power);
+      assertEquals(
+        BigInteger.ONE.shiftLeft(INT_SIZE * n).mod(mBig),
+        Convert.toBigInteger(power));
+      
+      for(int i = 0; i < 1000; ++i) {
+        final BigInteger vBig = new BigInteger(2 * INT_SIZE * n, random);
+        final int[] v = Convert.fromBigInteger(vBig, new int[2 * n]);
+        modulus.mod(v);
+        assertEquals(vBig.mod(mBig), Convert.toBigInteger(v));
+        
+        final BigInteger aBig = vBig.mod(mBig);
+        final BigInteger bBig = new BigInteger(INT_SIZE * n, random).mod(mBig);
+        final int[] a = Convert.fromBigInteger(aBig, new int[n]);
+        final int[] b = Convert.fromBigInteger(bBig, new int[n]);
+        modulus.multiplyMod(a, b, x);
+        assertEquals(aBig.multiply(bBig).mod(mBig), Convert.toBigInteger(x));
+        if(i % 50 == 0) {
+          modulus.powMod(a, b, x);
+          assertEquals(aBig.modPow(bBig, mBig), Convert.toBigInteger(x));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void fuzzTestNonNormalisedMontgomery() {
+    // The Montgomery operations and every strategy work for odd moduli whose
+    // top limb is not normalised
+    for(int i = 0; i < 20000; ++i) {
+      int bits = random.nextInt(INT_SIZE * KEY_LENGTH) + 1;
+      BigInteger mBig = randomModulus(bits, true);
+      int[] m = Convert.fromBigInteger(mBig, new int[(bits + INT_SIZE - 1) / INT_SIZE]);
+      int n = m.length;
+      MontgomeryStrategy[] strategies = MontgomeryStrategy.values();
+      Modulus modulus = Modulus.valueOf(
+        m,
+        strategies[i % strategies.length],
+        strategies[(i / strategies.length) % strategies.length]);
+      Modulus lazy = Modulus.valueOf(m, true);
+      
+      BigInteger rBig = BigInteger.ONE.shiftLeft(INT_SIZE * n);
+      BigInteger rInverse = rBig.modInverse(mBig);
+      int[] identity = new int[n];
+      modulus.calculateMontgomeryIdentity(identity);
+      assertEquals(rBig.mod(mBig), Convert.toBigInteger(identity));
+      
+      BigInteger v1Big = new BigInteger(bits + 8, random).mod(mBig);
+      BigInteger v2Big = new BigInteger(bits + 8, random).mod(mBig);
+      int[] v1 = Convert.fromBigInteger(v1Big, new int[n]);
+      int[] v2 = Convert.fromBigInteger(v2Big, new int[n]);
+      int[] v3 = v1.clone();
+      modulus.multiplyReduce(v3, v2);
+      assertEquals(
+        v1Big.multiply(v2Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3));
+      v3 = v1.clone();
+      modulus.squareReduce(v3);
+      assertEquals(
+        v1Big.multiply(v1Big).multiply(rInverse).mod(mBig),
+        Convert.toBigInteger(v3));
+      v3 = v1.clone();
+      modulus.montgomeryTransform(v3);
+      assertEquals(v1Big.multiply(rBig).mod(mBig), Convert.toBigInteger(v3));
+      
+      int[] e = TestUtil.randomInteger(random.nextInt(4) + 1);
+      int[] r = new int[n];
+      lazy.powMod(v1, e, r);
+      assertEquals(
+        v1Big.modPow(Convert.toBigInteger(e), mBig),
+        Convert.toBigInteger(r));
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testEvenModulusWithStrategies() {
+    Modulus.valueOf(new int[] { 6 }, MontgomeryStrategy.CIOS, MontgomeryStrategy.CIOS);
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroModulus() {
+    Modulus.valueOf(new int[] { 0, 0 });
+  }
 }
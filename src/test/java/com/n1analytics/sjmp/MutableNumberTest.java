@@ -0,0 +1,220 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MutableNumberTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 1000;
+  private static final int MAX_BITS = 2048;
+
+  private static BigInteger mask(final int limbs) {
+    return BigInteger.ONE.shiftLeft(32 * limbs).subtract(BigInteger.ONE);
+  }
+
+  @Test
+  public void fuzzTestArithmetic() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int n = 1 + random.nextInt(MAX_BITS / 32);
+      BigInteger aBig = new BigInteger(32 * n, random);
+      BigInteger bBig = new BigInteger(32 * n, random);
+      MutableNumber a = MutableNumber.valueOf(aBig, n);
+      MutableNumber b = MutableNumber.valueOf(bBig, n);
+      assertEquals(Integer.signum(aBig.compareTo(bBig)), a.compare(b));
+      assertEquals(0, a.compare(a.clone()));
+
+      MutableNumber product = MutableNumber.withCapacity(1, 1);
+      a.multiply(b, product);
+      assertEquals(2 * n, product.size());
+      assertEquals(aBig.multiply(bBig), product.toBigInteger());
+
+      MutableNumber sum = a.clone();
+      int carry = sum.add(b);
+      assertEquals(aBig.add(bBig), sum.toBigInteger().add(
+        BigInteger.valueOf(carry).shiftLeft(32 * n)));
+      int borrow = sum.subtract(b);
+      assertEquals(-carry, borrow);
+      assertEquals(aBig, sum.toBigInteger());
+    }
+  }
+
+  @Test
+  public void fuzzTestShift() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int n = 1 + random.nextInt(MAX_BITS / 32);
+      BigInteger aBig = new BigInteger(32 * n, random);
+      int shift = random.nextInt(32 * n + 64);
+      MutableNumber a = MutableNumber.valueOf(aBig, n);
+      a.shiftLeft(shift);
+      assertEquals(aBig.shiftLeft(shift).and(mask(n)), a.toBigInteger());
+      a = MutableNumber.valueOf(aBig, n);
+      a.shiftRight(shift);
+      assertEquals(aBig.shiftRight(shift), a.toBigInteger());
+    }
+  }
+
+  @Test
+  public void testResize() {
+    BigInteger aBig = new BigInteger(256, random);
+    MutableNumber a = MutableNumber.withCapacity(1, 16);
+    int[] backing = a.value;
+    a.resize(8);
+    a.set(MutableNumber.valueOf(aBig, 8));
+    assertSame(backing, a.value);
+    assertEquals(16, a.capacity());
+    assertEquals(aBig, a.toBigInteger());
+
+    // Shrinking truncates and growing zero-extends
+    a.resize(3);
+    assertEquals(aBig.and(mask(3)), a.toBigInteger());
+    a.resize(12);
+    assertEquals(12, a.size());
+    assertEquals(aBig.and(mask(3)), a.toBigInteger());
+    assertSame(backing, a.value);
+
+    a.resize(20);
+    assertEquals(20, a.capacity());
+    assertEquals(aBig.and(mask(3)), a.toBigInteger());
+    a.resize(3);
+    a.trimToSize();
+    assertEquals(3, a.capacity());
+    assertEquals(aBig.and(mask(3)), a.toBigInteger());
+  }
+
+  @Test
+  public void fuzzTestModular() {
+    for(int i = 0; i < FUZZ_ITERATIONS / 10; ++i) {
+      BigInteger m;
+      do {
+        m = new BigInteger(random.nextInt(MAX_BITS) + 1, random);
+      } while(m.signum() == 0 || (i % 4 != 0 && !m.testBit(0)));
+      Modulus modulus = Modulus.valueOf(m);
+      int n = modulus.length();
+
+      // A sum and a product accumulated without allocating per step
+      BigInteger xBig = new BigInteger(64 * n + 32, random);
+      MutableNumber sum = MutableNumber.valueOf(xBig);
+      sum.mod(modulus);
+      MutableNumber product = sum.clone();
+      BigInteger sumBig = xBig.mod(m);
+      BigInteger productBig = sumBig;
+      assertEquals(sumBig, sum.toBigInteger());
+      sum.addMod(sum, modulus);
+      sumBig = sumBig.add(sumBig).mod(m);
+      int[] sumBacking = sum.value;
+      int[] productBacking = product.value;
+      for(int j = 0; j < 10; ++j) {
+        BigInteger yBig = new BigInteger(m.bitLength(), random).mod(m);
+        MutableNumber y = MutableNumber.valueOf(yBig, n);
+        sum.addMod(y, modulus);
+        sumBig = sumBig.add(yBig).mod(m);
+        product.multiplyMod(y, modulus);
+        productBig = productBig.multiply(yBig).mod(m);
+        sum.subtractMod(product, modulus);
+        sumBig = sumBig.subtract(productBig).mod(m);
+      }
+      assertSame(sumBacking, sum.value);
+      assertSame(productBacking, product.value);
+      assertEquals(sumBig, sum.toBigInteger());
+      assertEquals(productBig, product.toBigInteger());
+
+      product.squareMod(modulus);
+      productBig = productBig.multiply(productBig).mod(m);
+      assertEquals(productBig, product.toBigInteger());
+
+      BigInteger eBig = new BigInteger(random.nextInt(256) + 1, random);
+      product.powMod(MutableNumber.valueOf(eBig), modulus);
+      assertEquals(productBig.modPow(eBig, m), product.toBigInteger());
+
+      // The exponent may be the base itself
+      MutableNumber x = MutableNumber.valueOf(productBig, n);
+      x.powMod(x, modulus);
+      assertEquals(productBig.modPow(productBig, m), x.toBigInteger());
+
+      // An operand with spare capacity is not trimmed
+      MutableNumber z = MutableNumber.withCapacity(n, n + 4);
+      z.set(MutableNumber.valueOf(productBig, n));
+      int[] zBacking = z.value;
+      sum.multiplyMod(z, modulus);
+      sumBig = sumBig.multiply(productBig).mod(m);
+      assertSame(zBacking, z.value);
+      assertEquals(n + 4, z.capacity());
+      assertEquals(sumBig, sum.toBigInteger());
+    }
+  }
+
+  @Test
+  public void fuzzTestDecimal() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      BigInteger aBig = new BigInteger(random.nextInt(MAX_BITS) + 1, random);
+      MutableNumber a = MutableNumber.valueOf(aBig);
+      assertEquals(aBig.toString(), a.toDecimalString());
+      MutableNumber b = MutableNumber.valueOfDecimal(aBig.toString());
+      assertEquals(a.size(), b.size());
+      assertEquals(aBig, b.toBigInteger());
+    }
+    assertEquals("0", MutableNumber.valueOfDecimal("0000").toDecimalString());
+    assertEquals(1, MutableNumber.valueOfDecimal("0000").size());
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testInvalidDecimal() {
+    MutableNumber.valueOfDecimal("12a4");
+  }
+
+  @Test
+  public void fuzzTestBytes() {
+    ByteBuffer buffer = ByteBuffer.allocate(4 * MAX_BITS / 32);
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int n = 1 + random.nextInt(MAX_BITS / 32);
+      BigInteger aBig = new BigInteger(32 * n, random);
+      MutableNumber a = MutableNumber.valueOf(aBig, n);
+      byte[] bytes = a.toByteArray();
+      assertEquals(4 * n, bytes.length);
+      assertEquals(aBig, new BigInteger(1, bytes));
+      assertEquals(aBig, MutableNumber.valueOf(bytes).toBigInteger());
+
+      // Lengths which aren't a multiple of four
+      int length = random.nextInt(bytes.length + 1);
+      MutableNumber b = MutableNumber.withCapacity(1, 1);
+      b.setBytes(bytes, bytes.length - length, length);
+      assertEquals(aBig.and(BigInteger.ONE.shiftLeft(8 * length).subtract(
+        BigInteger.ONE)), b.toBigInteger());
+
+      buffer.clear();
+      a.toByteBuffer(buffer);
+      buffer.flip();
+      b.setBytes(buffer, buffer.remaining());
+      assertEquals(aBig, b.toBigInteger());
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeBufferLength() {
+    MutableNumber.withCapacity(1, 1).setBytes(ByteBuffer.allocate(4), -1);
+  }
+}
@@ -179,6 +179,90 @@ public class OperationsTest {
     }    
   }
   
+  @Test
+  public void fuzzTestSquare() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int[] value = randomInteger(random.nextInt(FUZZ_SIZE) + 1);
+      int[] result = new int[2 * value.length];
+      BigInteger valueBig = toBigInteger(value);
+      Operations.square(value, result);
+      assertEquals(valueBig.multiply(valueBig), toBigInteger(result));
+    }
+  }
+  
+  @Test
+  public void fuzzTestShift() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int[] value = randomInteger(random.nextInt(FUZZ_SIZE) + 1);
+      int shift = random.nextInt(32);
+      BigInteger valueBig = toBigInteger(value);
+      
+      int[] result = new int[value.length + 1];
+      result[value.length] = Operations.shiftLeft(value, shift, result);
+      assertEquals(valueBig.shiftLeft(shift), toBigInteger(result));
+      
+      Operations.shiftRight(result, shift, result);
+      assertEquals(valueBig, toBigInteger(result));
+    }
+  }
+  
+  @Test
+  public void fuzzTestDivRem() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int[] dividend = randomInteger(random.nextInt(2 * FUZZ_SIZE) + 1);
+      int[] divisor = randomInteger(random.nextInt(FUZZ_SIZE) + 1);
+      // Vary the normalisation shift, including normalised divisors
+      divisor[divisor.length-1] >>>= random.nextInt(32);
+      divisor[divisor.length-1] |= 1;
+      int[] quotient = new int[Math.max(1, dividend.length - divisor.length + 1)];
+      int[] remainder = new int[divisor.length];
+      BigInteger[] expected = toBigInteger(dividend)
+        .divideAndRemainder(toBigInteger(divisor));
+      Operations.divRem(dividend, divisor, quotient, remainder);
+      assertEquals(expected[0], toBigInteger(quotient));
+      assertEquals(expected[1], toBigInteger(remainder));
+    }
+  }
+  
+  @Test
+  public void fuzzTestDivRemEdgeCases() {
+    // Divisors whose top two limbs make the 3/2 quotient estimate wrap
+    final int[] limbs = { 0, 1, 0x7FFFFFFF, 0x80000000, 0xFFFFFFFE, 0xFFFFFFFF };
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int[] dividend = new int[random.nextInt(FUZZ_SIZE) + 1];
+      int[] divisor = new int[random.nextInt(4) + 1];
+      for(int j = 0; j < dividend.length; ++j)
+        dividend[j] = limbs[random.nextInt(limbs.length)];
+      for(int j = 0; j < divisor.length; ++j)
+        divisor[j] = limbs[random.nextInt(limbs.length)];
+      if(divisor[divisor.length-1] == 0)
+        divisor[divisor.length-1] = 1;
+      int[] quotient = new int[dividend.length + 1];
+      int[] remainder = new int[divisor.length];
+      BigInteger[] expected = toBigInteger(dividend)
+        .divideAndRemainder(toBigInteger(divisor));
+      Operations.divRem(dividend, divisor, quotient, remainder);
+      assertEquals(expected[0], toBigInteger(quotient));
+      assertEquals(expected[1], toBigInteger(remainder));
+    }
+  }
+  
+  @Test
+  public void fuzzTestDivRemLimb() {
+    for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+      int[] dividend = randomInteger(random.nextInt(FUZZ_SIZE) + 1);
+      int divisor = random.nextInt() >>> random.nextInt(32);
+      if(divisor == 0)
+        divisor = 1;
+      int[] quotient = new int[dividend.length];
+      BigInteger[] expected = toBigInteger(dividend)
+        .divideAndRemainder(BigInteger.valueOf(divisor & MASK32));
+      int remainder = Operations.divRem(dividend, divisor, quotient);
+      assertEquals(expected[0], toBigInteger(quotient));
+      assertEquals(expected[1], BigInteger.valueOf(remainder & MASK32));
+    }
+  }
+  
   @Test
   public void fuzzTestMultiplyAdd() {
     int overflow;
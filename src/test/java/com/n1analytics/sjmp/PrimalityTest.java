@@ -0,0 +1,116 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrimalityTest {
+  private static final Random random = new Random();
+
+  // Strong Lucas pseudoprimes with Selfridge's parameters (OEIS A217255)
+  private static final int[] STRONG_LUCAS_PSEUDOPRIMES = {
+    5459, 5777, 10877, 16109, 18971, 22499, 24569, 25199, 40309, 58519
+  };
+
+  private static int[] limbs(final BigInteger value) {
+    return Convert.fromBigInteger(
+      value,
+      new int[Math.max(1, (value.bitLength() + 31) / 32)]);
+  }
+
+  @Test
+  public void fuzzTestIsProbablePrime() {
+    for(int i = 0; i < 500; ++i) {
+      BigInteger n = new BigInteger(random.nextInt(1024) + 2, random);
+      // Make primes common enough to test both outcomes
+      if(i % 2 == 0)
+        n = n.nextProbablePrime();
+      assertEquals(
+        n.toString(),
+        n.isProbablePrime(100),
+        Primality.isProbablePrime(n, 4));
+    }
+  }
+
+  @Test
+  public void testSmallValues() {
+    for(int i = 0; i < 100000; ++i) {
+      BigInteger n = BigInteger.valueOf(i);
+      assertEquals(n.isProbablePrime(100), Primality.isProbablePrime(n, 1));
+    }
+    for(String n : new String[] {
+        "4294967291", "4294967297", "18446744073709551557",
+        "18446744073709551559" }) {
+      BigInteger big = new BigInteger(n);
+      assertEquals(big.isProbablePrime(100), Primality.isProbablePrime(big, 1));
+    }
+  }
+
+  @Test
+  public void testKnownPrimesAndComposites() {
+    BigInteger mersenne127 = BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE);
+    BigInteger mersenne521 = BigInteger.ONE.shiftLeft(521).subtract(BigInteger.ONE);
+    assertTrue(Primality.isProbablePrime(mersenne127, 0));
+    assertTrue(Primality.isProbablePrime(mersenne521, 0));
+    assertFalse(Primality.isProbablePrime(mersenne127.multiply(mersenne521), 0));
+    assertFalse(Primality.isProbablePrime(mersenne521.multiply(mersenne521), 0));
+
+    // A strong pseudoprime to every prime base up to 37
+    BigInteger spsp = new BigInteger("318665857834031151167461");
+    assertTrue(Primality.millerRabin(
+      Modulus.valueOf(spsp), Convert.fromBigInteger(BigInteger.valueOf(2), new int[3])));
+    assertFalse(Primality.isProbablePrime(spsp, 0));
+  }
+
+  @Test
+  public void testStrongLucasPseudoprimes() {
+    for(int n : STRONG_LUCAS_PSEUDOPRIMES) {
+      Modulus modulus = Modulus.valueOf(new int[] { n });
+      assertTrue(Integer.toString(n), Primality.strongLucas(modulus));
+      assertFalse(Integer.toString(n),
+        Primality.millerRabin(modulus, new int[] { 2 }));
+    }
+    // Primes always pass
+    for(int i = 0; i < 200; ++i) {
+      BigInteger n = new BigInteger(random.nextInt(512) + 64, random)
+        .nextProbablePrime();
+      assertTrue(Primality.strongLucas(Modulus.valueOf(limbs(n))));
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    BigInteger[] candidates = new BigInteger[64];
+    for(int i = 0; i < candidates.length; ++i) {
+      candidates[i] = new BigInteger(512, random);
+      if(i % 3 == 0)
+        candidates[i] = candidates[i].nextProbablePrime();
+    }
+    boolean[] results = Primality.isProbablePrime(candidates, 2);
+    for(int i = 0; i < candidates.length; ++i)
+      assertEquals(candidates[i].isProbablePrime(100), results[i]);
+  }
+}
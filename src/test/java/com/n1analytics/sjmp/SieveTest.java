@@ -0,0 +1,76 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SieveTest {
+  private static final Random random = new SecureRandom();
+
+  @Test
+  public void testProbablePrime() {
+    for(int bits : new int[] { 16, 17, 31, 32, 33, 64, 95, 256, 1024 }) {
+      for(int parallelism = 1; parallelism <= 3; parallelism += 2) {
+        BigInteger p = Sieve.probablePrime(bits, 1, random, parallelism);
+        assertEquals(bits, p.bitLength());
+        assertTrue(p.toString(), p.isProbablePrime(100));
+      }
+    }
+  }
+
+  @Test
+  public void testProbableSafePrime() {
+    for(int bits : new int[] { 16, 17, 32, 33, 65, 256 }) {
+      for(int parallelism = 1; parallelism <= 3; parallelism += 2) {
+        BigInteger p = Sieve.probableSafePrime(bits, 1, random, parallelism);
+        assertEquals(bits, p.bitLength());
+        assertTrue(p.toString(), p.isProbablePrime(100));
+        assertTrue(p.toString(), p.shiftRight(1).isProbablePrime(100));
+      }
+    }
+  }
+
+  @Test
+  public void testResidues() {
+    for(int i = 0; i < 100; ++i) {
+      BigInteger x = new BigInteger(random.nextInt(2048) + 1, random);
+      int[] residues = new int[Primality.SMALL_PRIMES.length];
+      Primality.residues(
+        Convert.fromBigInteger(x, new int[(x.bitLength() + 31) / 32 + 1]),
+        Primality.SMALL_PRIMES,
+        residues);
+      for(int j = 0; j < residues.length; ++j)
+        assertEquals(
+          x.mod(BigInteger.valueOf(Primality.SMALL_PRIMES[j])).intValue(),
+          residues[j]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooFewBits() {
+    Sieve.probablePrime(15, 1);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// testPowModMetrics only sees counts from Modulus.powMod when run with
+// -Dsjmp.metrics=true. The other tests record directly, so they exercise the
+// counters and histograms either way.
+public class SjmpMetricsTest {
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, SjmpMetrics.bucket(0L));
+    assertEquals(1, SjmpMetrics.bucket(1L));
+    assertEquals(2, SjmpMetrics.bucket(2L));
+    assertEquals(2, SjmpMetrics.bucket(3L));
+    assertEquals(3, SjmpMetrics.bucket(4L));
+    assertEquals(11, SjmpMetrics.bucket(1024L));
+    assertEquals(63, SjmpMetrics.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testRecord() {
+    SjmpMetrics.reset();
+    assertEquals(
+      150L,
+      SjmpMetrics.record(SjmpMetrics.Phase.TRANSFORM, 100L, 150L));
+    SjmpMetrics.record(SjmpMetrics.Phase.TRANSFORM, 200L, 230L);
+    SjmpMetrics.record(SjmpMetrics.Phase.REDUCE, 0L, 7L);
+    SjmpMetrics.recordPowMod(8, 60L, 15L, 1000L, 2000L);
+    SjmpMetrics.recordPowMod(32, 252L, 63L, 0L, 0L);
+    SjmpMetrics.recordPowMod(33, 4L, 1L, 10L, 5L); // The clock went back
+
+    assertEquals(80L, SjmpMetrics.nanos(SjmpMetrics.Phase.TRANSFORM));
+    assertEquals(2L, SjmpMetrics.count(SjmpMetrics.Phase.TRANSFORM));
+    assertEquals(7L, SjmpMetrics.nanos(SjmpMetrics.Phase.REDUCE));
+    assertEquals(1L, SjmpMetrics.count(SjmpMetrics.Phase.REDUCE));
+    assertEquals(0L, SjmpMetrics.count(SjmpMetrics.Phase.PRECOMPUTE));
+    assertEquals(3L, SjmpMetrics.powModCount());
+    assertEquals(316L, SjmpMetrics.squarings());
+    assertEquals(79L, SjmpMetrics.multiplications());
+
+    final long[] limbs = SjmpMetrics.limbHistogram();
+    assertEquals(SjmpMetrics.BUCKETS, limbs.length);
+    assertEquals(1L, limbs[4]); // 8 < 2^4
+    assertEquals(2L, limbs[6]); // 32 and 33 < 2^6
+    final long[] latencies = SjmpMetrics.latencyHistogram();
+    assertEquals(2L, latencies[0]); // 0, and a negative time counts as 0
+    assertEquals(1L, latencies[10]); // 512 <= 1000 < 1024
+
+    final String summary = SjmpMetrics.summary();
+    assertTrue(summary.contains("powMod: 3"));
+    assertTrue(summary.contains("squarings 316, multiplications 79"));
+
+    SjmpMetrics.reset();
+    assertEquals(0L, SjmpMetrics.powModCount());
+    assertEquals(0L, SjmpMetrics.nanos(SjmpMetrics.Phase.TRANSFORM));
+    assertEquals(0L, SjmpMetrics.limbHistogram()[4]);
+    assertEquals(0L, SjmpMetrics.latencyHistogram()[10]);
+  }
+
+  @Test
+  public void testPowModMetrics() {
+    final int mn = 8;
+    final int en = 2;
+    final int[] m = TestUtil.randomOddNormalisedInteger(mn);
+    final Modulus modulus = Modulus.valueOf(m);
+    final int[] b = TestUtil.randomModularValue(m);
+    final int[] e = TestUtil.randomInteger(en);
+    final int[] r = new int[mn];
+
+    SjmpMetrics.reset();
+    modulus.powMod(b, e, r);
+
+    // 8 windows per exponent limb, the first of which needs no squaring
+    final long expected = SjmpMetrics.ENABLED ? 1L : 0L;
+    assertEquals(expected, SjmpMetrics.powModCount());
+    assertEquals(expected * 4 * (8 * en - 1), SjmpMetrics.squarings());
+    assertEquals(expected * (8 * en - 1), SjmpMetrics.multiplications());
+    for(SjmpMetrics.Phase phase : SjmpMetrics.Phase.values())
+      assertEquals(expected, SjmpMetrics.count(phase));
+    assertEquals(expected, SjmpMetrics.limbHistogram()[4]); // 8 < 2^4
+    long latencies = 0L;
+    for(long count : SjmpMetrics.latencyHistogram())
+      latencies += count;
+    assertEquals(expected, latencies);
+
+    SjmpMetrics.reset();
+    assertEquals(0L, SjmpMetrics.powModCount());
+  }
+}
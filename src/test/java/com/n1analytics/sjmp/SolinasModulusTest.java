@@ -0,0 +1,148 @@
+/*
+Copyright 2015 NICTA. All Rights Reserved.
+
+This file is part of SJMP.
+
+SJMP is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as
+published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+SJMP is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with SJMP.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.n1analytics.sjmp;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SolinasModulusTest {
+  private static final Random random = new Random();
+  private static final int FUZZ_ITERATIONS = 500;
+
+  private static final BigInteger TWO = BigInteger.valueOf(2);
+
+  private static BigInteger power(final int e) {
+    return TWO.pow(e);
+  }
+
+  private static final BigInteger[] SPECIAL = new BigInteger[] {
+    power(61).subtract(BigInteger.ONE),
+    power(127).subtract(BigInteger.ONE),
+    power(192).subtract(power(64)).subtract(BigInteger.ONE),
+    power(224).subtract(power(96)).add(BigInteger.ONE),
+    power(255).subtract(BigInteger.valueOf(19)),
+    power(256).subtract(power(224)).add(power(192)).add(power(96))
+      .subtract(BigInteger.ONE),
+    power(384).subtract(power(128)).subtract(power(96)).add(power(32))
+      .subtract(BigInteger.ONE),
+    power(448).subtract(power(224)).subtract(BigInteger.ONE),
+    power(521).subtract(BigInteger.ONE)
+  };
+
+  /**
+   * A value modulo m, often with many limbs of all ones or all zeros, which
+   * give the largest and smallest column sums in the reduction.
+   */
+  private static BigInteger randomValue(final BigInteger m) {
+    switch(random.nextInt(4)) {
+    case 0:
+      return m.subtract(BigInteger.ONE);
+    case 1:
+      return m.subtract(BigInteger.valueOf(random.nextInt(1 << 16) + 1));
+    case 2:
+      return new BigInteger(m.bitLength(), random).mod(m).setBit(0)
+        .or(power(m.bitLength() / 2).subtract(BigInteger.ONE)).mod(m);
+    default:
+      return new BigInteger(m.bitLength(), random).mod(m);
+    }
+  }
+
+  @Test
+  public void testDetection() {
+    for(BigInteger m : SPECIAL)
+      assertTrue(m.toString(16), Modulus.valueOf(m) instanceof SolinasModulus);
+    // Random moduli and 2^k + c
+    assertFalse(Modulus.valueOf(BigInteger.probablePrime(256, random))
+      instanceof SolinasModulus);
+    assertFalse(Modulus.valueOf(power(255).add(BigInteger.valueOf(95)))
+      instanceof SolinasModulus);
+    assertFalse(Modulus.valueOf(BigInteger.valueOf(1000003))
+      instanceof SolinasModulus);
+  }
+
+  @Test
+  public void fuzzTestMultiplyMod() {
+    for(BigInteger m : SPECIAL) {
+      final Modulus modulus = Modulus.valueOf(m);
+      final int n = modulus.length();
+      for(int i = 0; i < FUZZ_ITERATIONS; ++i) {
+        final BigInteger a = randomValue(m);
+        final BigInteger b = randomValue(m);
+        final int[] x = Convert.fromBigInteger(a, new int[n]);
+        final int[] y = Convert.fromBigInteger(b, new int[n]);
+        final int[] result = new int[n];
+        modulus.multiplyMod(x, y, result);
+        assertEquals(a.multiply(b).mod(m), Convert.toBigInteger(result));
+        modulus.squareMod(x, result);
+        assertEquals(a.multiply(a).mod(m), Convert.toBigInteger(result));
+
+        // Through the Montgomery domain
+        final int[] z = x.clone();
+        modulus.montgomeryTransform(z);
+        modulus.multiplyReduce(z, x);
+        modulus.squareReduce(z);
+        final int[] wide = new int[2 * n];
+        System.arraycopy(z, 0, wide, 0, n);
+        modulus.montgomeryReduce(wide);
+        assertEquals(a.pow(4).mod(m), Convert.toBigInteger(wide));
+      }
+    }
+  }
+
+  @Test
+  public void fuzzTestPowMod() {
+    for(BigInteger m : SPECIAL) {
+      final Modulus modulus = Modulus.valueOf(m);
+      final int n = modulus.length();
+      for(int i = 0; i < FUZZ_ITERATIONS / 10; ++i) {
+        final BigInteger a = randomValue(m);
+        final BigInteger e = new BigInteger(m.bitLength(), random);
+        final int[] result = new int[n];
+        modulus.powMod(
+          Convert.fromBigInteger(a, new int[n]),
+          Convert.fromBigInteger(e, new int[n]),
+          result);
+        assertEquals(a.modPow(e, m), Convert.toBigInteger(result));
+      }
+    }
+  }
+
+  @Test
+  public void testForkAndLazyReduction() {
+    final BigInteger m = SPECIAL[4];
+    final Modulus modulus =
+      Modulus.valueOf(Convert.fromBigInteger(m, new int[8]), true);
+    final Modulus fork = modulus.fork();
+    final int n = modulus.length();
+    final BigInteger a = randomValue(m);
+    final BigInteger e = new BigInteger(256, random);
+    final int[] result = new int[n];
+    fork.powMod(
+      Convert.fromBigInteger(a, new int[n]),
+      Convert.fromBigInteger(e, new int[n]),
+      result);
+    assertEquals(a.modPow(e, m), Convert.toBigInteger(result));
+  }
+}
@@ -105,7 +105,7 @@ public class TestUtil {
       boolean valid = false;
       for(int i = modulus.length - 1; i >= 0; --i) {
         if(x[i] != modulus[i]) {
-          valid = x[i] < modulus[i];
+          valid = Integer.compareUnsigned(x[i], modulus[i]) < 0;
           break;
         }
       }